@@ -20,13 +20,24 @@ import gmapsfx.javascript.object.MarkerOptions;
 import javafx.concurrent.Task;
 import javafx.scene.control.Button;
 import netscape.javascript.JSObject;
+import roadgraph.MapGraph;
+import roadgraph.SearchEventBuffer;
 
 public class RouteVisualization {
+	// Searches stream visited intersection ids into a ring buffer of this many ints.  The ring is
+	// only drained after the search, so on large maps only every k-th visited intersection is kept,
+	// with k large enough that even the last events of a search (those nearest the goal) fit.
+	private static final int EVENT_CAPACITY = 1 << 16;
+	// At most this many markers are animated; denser searches are decimated when drawn.
+	private static final int MAX_MARKERS = 2000;
+	private static final int CHUNK_SIZE = 1024;
+
 	List<geography.GeographicPoint> points;
     ArrayList<Marker> markerList;
 	MarkerManager manager;
 	JavascriptArray markers;
     IJavascriptRuntime runtime;
+    SearchEventBuffer events;
 
 
 
@@ -35,6 +46,15 @@ public class RouteVisualization {
         points = new ArrayList<geography.GeographicPoint>();
         markerList = new ArrayList<Marker>();
 		this.manager = manager;
+		// Dijkstra and A* visit a node again for each edge that improved it, so a search
+		// offers at most one event per node plus one per edge.
+		long maxEvents = 0;
+		if(manager.getDataSet() != null) {
+			MapGraph graph = manager.getDataSet().getGraph();
+			maxEvents = (long)graph.getNumVertices() + graph.getNumEdges();
+		}
+		int sampleEvery = (int)Math.max(1, (maxEvents + EVENT_CAPACITY - 1) / EVENT_CAPACITY);
+		events = new SearchEventBuffer(EVENT_CAPACITY, sampleEvery);
 
 	}
 
@@ -44,6 +64,27 @@ public class RouteVisualization {
         // System.out.println("accepted point : " + point);
     }
 
+    /** Return the buffer that searches stream visited intersection ids into */
+    public SearchEventBuffer getEvents() {
+    	return events;
+    }
+
+    // Move visited intersections from the event buffer to the point list, a chunk at a time.
+    private void drainEvents() {
+    	MapGraph graph = manager.getDataSet().getGraph();
+    	int[] chunk = new int[CHUNK_SIZE];
+    	int count;
+    	while((count = events.drain(chunk)) > 0) {
+    		for(int i = 0; i < count; i++) {
+    			points.add(graph.getLocation(chunk[i]));
+    		}
+    	}
+    	if(events.getDropped() > 0) {
+    		System.out.println("Search visualization dropped " + events.getDropped() + " of "
+    				+ events.getOffered() + " visited intersections (event buffer full)");
+    	}
+    }
+
 
 
     public void startVisualization() {
@@ -55,8 +96,14 @@ public class RouteVisualization {
         manager.hideDestinationMarker();
 //    	manager.disableRouteButtons(true);
 
-    	// create JavascriptArray of points
-    	for(geography.GeographicPoint point : points) {
+    	drainEvents();
+
+    	// create JavascriptArray of points, keeping every k-th point (and the last one)
+    	// so large searches do not create more markers than the map can animate.
+    	int stride = Math.max(1, (points.size() + MAX_MARKERS - 1) / MAX_MARKERS);
+    	for(int i = 0; i < points.size(); i++) {
+    		if(i % stride != 0 && i != points.size() - 1) continue;
+    		geography.GeographicPoint point = points.get(i);
     		LatLong ll = new LatLong(point.getX(), point.getY());
     		MarkerOptions options = MarkerManager.createDefaultOptions(ll);
     		Marker newMarker = new Marker(options);
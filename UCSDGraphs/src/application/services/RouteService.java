@@ -7,7 +7,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.function.Consumer;
 
 
 import application.DataSet;
@@ -27,6 +26,7 @@ import gmapsfx.javascript.object.LatLongBounds;
 import gmapsfx.javascript.object.MVCArray;
 import gmapsfx.shapes.Polyline;
 import javafx.scene.control.Button;
+import roadgraph.SearchEventBuffer;
 
 public class RouteService {
 	private GoogleMap map;
@@ -106,16 +106,16 @@ public class RouteService {
         	if(toggle == RouteController.DIJ || toggle == RouteController.A_STAR ||
         			toggle == RouteController.BFS) {
         		markerManager.initVisualization();
-            	Consumer<geography.GeographicPoint> nodeAccepter = markerManager.getVisualization()::acceptPoint;
+            	SearchEventBuffer events = markerManager.getVisualization().getEvents();
             	List<geography.GeographicPoint> path = null;
             	if (toggle == RouteController.BFS) {
-            		path = markerManager.getDataSet().getGraph().bfs(start, end, nodeAccepter);
+            		path = markerManager.getDataSet().getGraph().bfs(start, end, events);
             	}
             	else if (toggle == RouteController.DIJ) {
-            		path = markerManager.getDataSet().getGraph().dijkstra(start, end, nodeAccepter);
+            		path = markerManager.getDataSet().getGraph().dijkstra(start, end, events);
             	}
             	else if (toggle == RouteController.A_STAR) {
-            		path = markerManager.getDataSet().getGraph().aStarSearch(start, end, nodeAccepter);
+            		path = markerManager.getDataSet().getGraph().aStarSearch(start, end, events);
             	}
 
             	if(path == null) {
@@ -0,0 +1,519 @@
+package basicgraph;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+import util.IndexedMinHeap;
+
+/** A network of airports and nonstop routes, for planning itineraries.
+ * The routes are read with GraphLoader.loadRoutes, and each airport code
+ * is joined to its location in an OpenFlights airports file through a
+ * hash index of the file's IATA and ICAO codes.  Routes flown by several
+ * airlines are kept once, with their great-circle length in km.  Airports
+ * that the airports file does not list have no location, and routes to or
+ * from them are only used when counting legs.
+ *
+ * fewestLegs is a breadth first search; shortestItinerary is an A* search
+ * (the great-circle distance to the destination never overestimates) over
+ * states (airport, legs flown), so that it can limit the number of legs.
+ * A state is skipped if its airport was already reached as cheaply with
+ * no more legs, or if it can not reach the destination in the legs left,
+ * which a breadth first search back from the destination finds first
+ * (so a query with no itinerary usually ends at once).  That search also
+ * counts the airports that can reach the destination; no shortest
+ * itinerary has more legs than that count less one, so when maxLegs is at
+ * least that the limit can not bind, and the A* search is over airports
+ * alone.  States are kept in a hash table, so a query only stores the
+ * states it touches, whatever maxLegs is.  The distance to the destination is found from unit
+ * vectors kept for each airport (the chord between them), once per
+ * airport per query.  Both searches reuse their arrays and heap between
+ * queries; the state table shrinks back after a query that grew it past
+ * MAX_KEPT_SLOTS times the number of airports.
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class AirportNetwork {
+	private static final double EARTH_RADIUS = 6373;	// km, as GeographicPoint.distance uses
+	private static final int MAX_KEPT_SLOTS = 4;		// state slots kept between queries, per airport
+	private final Graph routes;			// airports labeled by code
+	private final int n;
+	private final GeographicPoint[] location;	// null if not in the airports file
+	private final int[] start;			// distinct routes from v are target[start[v] .. start[v+1]-1]
+	private final int[] target;
+	private final double[] length;		// km, or NaN if an end has no location
+	private final int[] reverseStart;	// located routes into v come from source[reverseStart[v] .. reverseStart[v+1]-1]
+	private final int[] source;
+	private final double[] unit;		// airport v is at unit[3v .. 3v+2] on the unit sphere
+
+	// Search state, reused between queries.
+	private int query;
+	private final int[] reachedIn;		// airport -> query that last reached it
+	private final int[] legs;			// airport -> fewest legs it was reached in, this query
+	private final int[] parent;			// airport -> previous airport, for fewestLegs
+	private final int[] queue;
+	private final int[] toGoIn;			// airport -> query whose backward search reached it
+	private final int[] legsToGo;		// airport -> fewest legs from it to the destination
+	private int numToGo;				// airports the backward search reached
+	private boolean toGoComplete;		// true if it reached every airport that can reach the destination
+	private final int[] estimatedIn;	// airport -> query that last estimated its distance to go
+	private final double[] estimate;
+	private int numSettled;
+
+	// A* states, in slots 0 .. numSlots-1 found through an open addressing table.
+	private long[] slotState;			// slot -> state legs*n + v, or v if legs are not limited
+	private double[] slotDist;			// slot -> km
+	private int[] slotParent;			// slot -> slot of the previous state, or -1
+	private int[] slotLegs;
+	private int[] slotPosition;			// slot -> its index in table
+	private int numSlots;
+	private int[] table;				// slot + 1, or 0 if empty; length is a power of two
+	private IndexedMinHeap heap;		// slots, by km so far plus km to go
+
+	/**
+	 * Load the routes and join them to the airports' locations.
+	 * @param routesFile an OpenFlights routes file.
+	 * @param airportsFile an OpenFlights airports file.
+	 */
+	public AirportNetwork(String routesFile, String airportsFile) throws IOException {
+		routes = new GraphCSR();
+		GraphLoader.loadRoutes(routesFile, routes);
+		n = routes.getNumVertices();
+
+		HashMap<String, GeographicPoint> byCode = new HashMap<String, GeographicPoint>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(airportsFile))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = splitQuoted(line);
+				GeographicPoint point = new GeographicPoint(Double.parseDouble(fields[6]), Double.parseDouble(fields[7]));
+				for (int f = 4; f <= 5; f++) {
+					if (!fields[f].isEmpty() && !fields[f].equals("\\N")) byCode.put(fields[f], point);
+				}
+			}
+		}
+		location = new GeographicPoint[n];
+		for (int v = 0; v < n; v++) location[v] = byCode.get(routes.getLabel(v));
+
+		GraphArrays arrays = new GraphArrays(routes);
+		start = new int[n + 1];
+		int[] distinct = new int[arrays.m];
+		int size = 0;
+		for (int v = 0; v < n; v++) {
+			int[] row = Arrays.copyOfRange(arrays.outTarget, arrays.outStart[v], arrays.outStart[v + 1]);
+			Arrays.sort(row);
+			for (int i = 0; i < row.length; i++) {
+				if (i == 0 || row[i] != row[i - 1]) distinct[size++] = row[i];
+			}
+			start[v + 1] = size;
+		}
+		target = Arrays.copyOf(distinct, size);
+		length = new double[size];
+		for (int v = 0; v < n; v++) {
+			for (int e = start[v]; e < start[v + 1]; e++) {
+				GeographicPoint to = location[target[e]];
+				length[e] = location[v] == null || to == null ? Double.NaN : location[v].distance(to);
+			}
+		}
+
+		reverseStart = new int[n + 1];
+		for (int e = 0; e < size; e++) {
+			if (!Double.isNaN(length[e])) reverseStart[target[e] + 1]++;
+		}
+		for (int v = 0; v < n; v++) reverseStart[v + 1] += reverseStart[v];
+		source = new int[size];
+		int[] next = Arrays.copyOf(reverseStart, n);
+		for (int v = 0; v < n; v++) {
+			for (int e = start[v]; e < start[v + 1]; e++) {
+				if (!Double.isNaN(length[e])) source[next[target[e]]++] = v;
+			}
+		}
+
+		unit = new double[3 * n];
+		for (int v = 0; v < n; v++) {
+			if (location[v] == null) continue;
+			double lat = Math.toRadians(location[v].getX()), lon = Math.toRadians(location[v].getY());
+			unit[3 * v] = Math.cos(lat) * Math.cos(lon);
+			unit[3 * v + 1] = Math.cos(lat) * Math.sin(lon);
+			unit[3 * v + 2] = Math.sin(lat);
+		}
+		estimatedIn = new int[n];
+		estimate = new double[n];
+		reachedIn = new int[n];
+		legs = new int[n];
+		parent = new int[n];
+		queue = new int[n];
+		toGoIn = new int[n];
+		legsToGo = new int[n];
+		allocate(n);
+	}
+
+	// Split a line of comma separated fields, some in double quotes, which may hold commas.
+	private static String[] splitQuoted(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') quoted = !quoted;
+			else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else field.append(c);
+		}
+		fields.add(field.toString());
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/** Return the number of airports with routes */
+	public int getNumAirports() {
+		return n;
+	}
+
+	/** Return the number of distinct nonstop routes (airport pairs, one way) */
+	public int getNumRoutes() {
+		return target.length;
+	}
+
+	/** Return the number of airports whose location is known */
+	public int getNumLocated() {
+		int count = 0;
+		for (GeographicPoint point : location) if (point != null) count++;
+		return count;
+	}
+
+	/** Return the location of an airport, or null if it is not known */
+	public GeographicPoint getLocation(String code) {
+		return routes.hasVertex(code) ? location[routes.getIndex(code)] : null;
+	}
+
+	/** Return the number of airports (or airport and leg states) settled by the last query */
+	public int getNumSettled() {
+		return numSettled;
+	}
+
+	/**
+	 * Return an itinerary with the fewest legs from one airport to another.
+	 * @param from the code of the first airport.
+	 * @param to the code of the last airport.
+	 * @param maxLegs the most legs allowed.
+	 * @return the airport codes, from first to last, or null if there is no
+	 * itinerary with at most maxLegs legs, or maxLegs is negative.
+	 */
+	public List<String> fewestLegs(String from, String to, int maxLegs) {
+		if (!routes.hasVertex(from) || !routes.hasVertex(to)) {
+			System.out.println("Start or goal airport not in network !  No itinerary exists.");
+			return null;
+		}
+		int s = routes.getIndex(from), t = routes.getIndex(to);
+		numSettled = 0;
+		if (maxLegs < 0) return null;
+		// No itinerary with the fewest legs visits an airport twice.
+		maxLegs = Math.min(maxLegs, n - 1);
+		query++;
+		reachedIn[s] = query;
+		legs[s] = 0;
+		queue[0] = s;
+		int head = 0, tail = 1;
+		while (head < tail && reachedIn[t] != query) {
+			int v = queue[head++];
+			if (legs[v] == maxLegs) break;
+			for (int e = start[v]; e < start[v + 1]; e++) {
+				int w = target[e];
+				if (reachedIn[w] == query) continue;
+				reachedIn[w] = query;
+				legs[w] = legs[v] + 1;
+				parent[w] = v;
+				queue[tail++] = w;
+			}
+		}
+		numSettled = head;
+		if (reachedIn[t] != query) return null;
+		List<String> itinerary = new ArrayList<String>();
+		for (int v = t; v != s; v = parent[v]) itinerary.add(routes.getLabel(v));
+		itinerary.add(from);
+		Collections.reverse(itinerary);
+		return itinerary;
+	}
+
+	/**
+	 * Return the shortest itinerary, by great-circle distance, from one airport
+	 * to another with at most maxLegs legs.
+	 * @param from the code of the first airport.
+	 * @param to the code of the last airport.
+	 * @param maxLegs the most legs allowed.
+	 * @return the airport codes, from first to last, or null if there is no
+	 * itinerary with at most maxLegs legs between located airports, or
+	 * maxLegs is negative.
+	 */
+	public List<String> shortestItinerary(String from, String to, int maxLegs) {
+		if (!routes.hasVertex(from) || !routes.hasVertex(to)) {
+			System.out.println("Start or goal airport not in network !  No itinerary exists.");
+			return null;
+		}
+		int s = routes.getIndex(from), t = routes.getIndex(to);
+		numSettled = 0;
+		if (location[s] == null || location[t] == null || maxLegs < 0) return null;
+		query++;
+		if (!searchBack(s, t, maxLegs)) return null;
+		// Routes have no negative lengths, so some shortest itinerary visits no airport twice,
+		// and it only visits airports that can reach t.
+		boolean limited = maxLegs < n - 1 && !(toGoComplete && maxLegs >= numToGo - 1);
+		try {
+			return search(s, t, maxLegs, limited);
+		}
+		finally {
+			if (slotState.length > MAX_KEPT_SLOTS * n) allocate(n);
+		}
+	}
+
+	// A* search from s to t, over (airport, legs) states if limited, else over airports.
+	private List<String> search(int s, int t, int maxLegs, boolean limited) {
+		for (int i = 0; i < numSlots; i++) table[slotPosition[i]] = 0;
+		numSlots = 0;
+		heap.clear();
+
+		int first = slot(s);
+		slotDist[first] = 0;
+		slotParent[first] = -1;
+		slotLegs[first] = 0;
+		heap.insertOrDecrease(first, toGo(s, t));
+		while (!heap.isEmpty()) {
+			int i = heap.removeMin();
+			int v = (int) (slotState[i] % n), l = slotLegs[i];
+			// Skip a state if v was already reached as cheaply in no more legs.
+			if (reachedIn[v] == query && legs[v] <= l) continue;
+			reachedIn[v] = query;
+			legs[v] = l;
+			numSettled++;
+			if (v == t) return itinerary(i);
+			if (limited && l == maxLegs) continue;
+			double d = slotDist[i];
+			for (int e = start[v]; e < start[v + 1]; e++) {
+				int w = target[e];
+				if (Double.isNaN(length[e]) || toGoIn[w] != query) continue;
+				if (limited ? l + 1 + legsToGo[w] > maxLegs || (reachedIn[w] == query && legs[w] <= l + 1)
+						: reachedIn[w] == query) continue;
+				int next = slot(limited ? (long) (l + 1) * n + w : w);
+				if (d + length[e] < slotDist[next]) {
+					slotDist[next] = d + length[e];
+					slotParent[next] = i;
+					slotLegs[next] = l + 1;
+					heap.insertOrDecrease(next, d + length[e] + toGo(w, t));
+				}
+			}
+		}
+		return null;
+	}
+
+	// Find the fewest legs from each airport to t, by routes between located airports,
+	// up to maxLegs; return true if s was reached.
+	private boolean searchBack(int s, int t, int maxLegs) {
+		toGoIn[t] = query;
+		legsToGo[t] = 0;
+		queue[0] = t;
+		int head = 0, tail = 1;
+		toGoComplete = true;
+		while (head < tail) {
+			int w = queue[head++];
+			if (legsToGo[w] == maxLegs) {
+				toGoComplete = false;
+				break;
+			}
+			for (int e = reverseStart[w]; e < reverseStart[w + 1]; e++) {
+				int v = source[e];
+				if (toGoIn[v] == query) continue;
+				toGoIn[v] = query;
+				legsToGo[v] = legsToGo[w] + 1;
+				queue[tail++] = v;
+			}
+		}
+		numToGo = tail;
+		return toGoIn[s] == query;
+	}
+
+	// Return a lower bound on the km from v to t: the great-circle distance, found from
+	// the chord between their unit vectors, shaved so rounding cannot make it too large.
+	private double toGo(int v, int t) {
+		if (estimatedIn[v] == query) return estimate[v];
+		double dx = unit[3 * v] - unit[3 * t], dy = unit[3 * v + 1] - unit[3 * t + 1], dz = unit[3 * v + 2] - unit[3 * t + 2];
+		double chord = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		estimatedIn[v] = query;
+		estimate[v] = 2 * EARTH_RADIUS * Math.asin(Math.min(1, chord / 2)) * (1 - 1e-9);
+		return estimate[v];
+	}
+
+	// Make empty state storage with room for the given number of slots.
+	private void allocate(int slots) {
+		slotState = new long[slots];
+		slotDist = new double[slots];
+		slotParent = new int[slots];
+		slotLegs = new int[slots];
+		slotPosition = new int[slots];
+		table = new int[Integer.highestOneBit(Math.max(slots, 1)) * 4];
+		numSlots = 0;
+		heap = new IndexedMinHeap(slots);
+	}
+
+	// Return the slot of a state, adding it with an infinite distance if it has none.
+	private int slot(long state) {
+		int mask = table.length - 1;
+		int p = hash(state) & mask;
+		for (; table[p] != 0; p = (p + 1) & mask) {
+			if (slotState[table[p] - 1] == state) return table[p] - 1;
+		}
+		if (numSlots == slotState.length) {
+			grow();
+			return slot(state);
+		}
+		int i = numSlots++;
+		slotState[i] = state;
+		slotDist[i] = Double.POSITIVE_INFINITY;
+		slotPosition[i] = p;
+		table[p] = i + 1;
+		return i;
+	}
+
+	// Double the state storage, keeping the states and the queued slots.
+	private void grow() {
+		int slots = 2 * slotState.length;
+		slotState = Arrays.copyOf(slotState, slots);
+		slotDist = Arrays.copyOf(slotDist, slots);
+		slotParent = Arrays.copyOf(slotParent, slots);
+		slotLegs = Arrays.copyOf(slotLegs, slots);
+		slotPosition = Arrays.copyOf(slotPosition, slots);
+		table = new int[2 * table.length];
+		int mask = table.length - 1;
+		for (int i = 0; i < numSlots; i++) {
+			int p = hash(slotState[i]) & mask;
+			while (table[p] != 0) p = (p + 1) & mask;
+			slotPosition[i] = p;
+			table[p] = i + 1;
+		}
+		IndexedMinHeap queued = new IndexedMinHeap(slots);
+		for (int i = 0; i < numSlots; i++) {
+			if (heap.contains(i)) queued.insertOrDecrease(i, heap.getPriority(i));
+		}
+		heap = queued;
+	}
+
+	private static int hash(long state) {
+		return (int) ((state * 0x9e3779b97f4a7c15L) >>> 32);
+	}
+
+	private List<String> itinerary(int slot) {
+		List<String> itinerary = new ArrayList<String>();
+		for (; slot != -1; slot = slotParent[slot]) itinerary.add(routes.getLabel((int) (slotState[slot] % n)));
+		Collections.reverse(itinerary);
+		return itinerary;
+	}
+
+	/**
+	 * Return the great-circle length of an itinerary in km, or NaN if an
+	 * airport on it has no location.
+	 */
+	public double distance(List<String> itinerary) {
+		double km = 0;
+		for (int i = 1; i < itinerary.size(); i++) {
+			GeographicPoint a = getLocation(itinerary.get(i - 1)), b = getLocation(itinerary.get(i));
+			if (a == null || b == null) return Double.NaN;
+			km += a.distance(b);
+		}
+		return km;
+	}
+
+	// The shortest distance from s to t in at most maxLegs legs, by relaxing every route
+	// once per leg (Bellman-Ford in layers): O(maxLegs * routes), for checking.
+	private double layeredDistance(int s, int t, int maxLegs) {
+		double[] best = new double[n];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+		best[s] = 0;
+		for (int l = 0; l < maxLegs; l++) {
+			double[] next = best.clone();
+			for (int v = 0; v < n; v++) {
+				if (best[v] == Double.POSITIVE_INFINITY) continue;
+				for (int e = start[v]; e < start[v + 1]; e++) {
+					if (!Double.isNaN(length[e])) next[target[e]] = Math.min(next[target[e]], best[v] + length[e]);
+				}
+			}
+			best = next;
+		}
+		return best[t];
+	}
+
+	/**
+	 * Load the OpenFlights routes and airports, check shortestItinerary against
+	 * a layered search, and time both kinds of query between random airports.
+	 */
+	public static void main(String[] args) throws IOException {
+		long t0 = System.nanoTime();
+		AirportNetwork network = new AirportNetwork(GraphBenchmark.ALL_ROUTES, "../UCSDUnfoldingMaps/data/airports.dat");
+		System.out.printf("%d airports (%d located), %d distinct routes, loaded in %.1f ms%n", network.getNumAirports(),
+				network.getNumLocated(), network.getNumRoutes(), (System.nanoTime() - t0) / 1e6);
+
+		Random random = new Random(50);
+		List<String> located = new ArrayList<String>();
+		for (int v = 0; v < network.n; v++) {
+			if (network.location[v] != null) located.add(network.routes.getLabel(v));
+		}
+		int mismatches = 0;
+		for (int i = 0; i < 500; i++) {
+			String a = located.get(random.nextInt(located.size())), b = located.get(random.nextInt(located.size()));
+			int maxLegs = 1 + random.nextInt(4);
+			List<String> itinerary = network.shortestItinerary(a, b, maxLegs);
+			double expected = network.layeredDistance(network.routes.getIndex(a), network.routes.getIndex(b), maxLegs);
+			double km = itinerary == null ? Double.POSITIVE_INFINITY : network.distance(itinerary);
+			if (Math.abs(km - expected) > 1e-6 && km != expected) mismatches++;
+			else if (itinerary != null && itinerary.size() - 1 > maxLegs) mismatches++;
+		}
+		System.out.println("\tShortest itineraries checked against a layered search: " + mismatches + " mismatches");
+
+		String[][] examples = {{"SAN", "JNB"}, {"BOS", "SYD"}, {"ANC", "TLV"}};
+		for (String[] pair : examples) {
+			for (int maxLegs = 1; maxLegs <= 4; maxLegs++) {
+				List<String> itinerary = network.shortestItinerary(pair[0], pair[1], maxLegs);
+				if (itinerary != null) {
+					System.out.printf("\t%s to %s in at most %d legs: %s, %.0f km (fewest legs: %s)%n", pair[0], pair[1],
+							maxLegs, itinerary, network.distance(itinerary), network.fewestLegs(pair[0], pair[1], maxLegs));
+				}
+			}
+		}
+
+		int queries = 5000;
+		String[] from = new String[queries], to = new String[queries];
+		for (int i = 0; i < queries; i++) {
+			from[i] = located.get(random.nextInt(located.size()));
+			to[i] = located.get(random.nextInt(located.size()));
+		}
+		for (int maxLegs = 2; maxLegs <= 6; maxLegs += 2) {
+			for (int round = 0; round < 3; round++) {
+				long hopsNanos = 0, shortestNanos = 0, hopsSettled = 0, shortestSettled = 0;
+				int found = 0;
+				for (int i = 0; i < queries; i++) {
+					long start = System.nanoTime();
+					network.fewestLegs(from[i], to[i], maxLegs);
+					hopsNanos += System.nanoTime() - start;
+					hopsSettled += network.getNumSettled();
+					start = System.nanoTime();
+					if (network.shortestItinerary(from[i], to[i], maxLegs) != null) found++;
+					shortestNanos += System.nanoTime() - start;
+					shortestSettled += network.getNumSettled();
+				}
+				if (round == 2) {
+					System.out.printf("\tAt most %d legs (%d of %d found): fewest legs %.1f us (%d settled), shortest %.1f us (%d settled)%n",
+							maxLegs, found, queries, hopsNanos / 1e3 / queries, hopsSettled / queries,
+							shortestNanos / 1e3 / queries, shortestSettled / queries);
+				}
+			}
+		}
+	}
+}
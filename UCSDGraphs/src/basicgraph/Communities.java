@@ -0,0 +1,563 @@
+package basicgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import util.GraphLoader;
+
+/** Finds communities in a graph: groups of vertices with more edges
+ * among themselves than between them.  Edge directions are ignored, and
+ * parallel edges add weight, so the graph is treated as undirected with
+ * A[u][v] the number of edges between u and v either way (a self-loop
+ * counts twice in A[v][v]).  Communities are scored by their modularity,
+ * the fraction of edge weight inside communities less the fraction
+ * expected if edges were placed at random with the same degrees.
+ *
+ * labelPropagation gives every vertex its own label and then repeatedly
+ * moves each vertex to the label with the most edge weight among its
+ * neighbors (Raghavan, Albert and Kumara, 2007).  Vertices are updated in
+ * parallel over chunks of a fork-join pool.  In the asynchronous mode they
+ * read and write one label array in place, so an update is seen by the
+ * rest of the sweep at once (races only make a vertex see an older label),
+ * and the result depends on the timing of the threads.  In the
+ * deterministic mode the vertices are first colored greedily, so that no
+ * two neighbors have the same color; the colors take turns, and the
+ * vertices of one color, which do not read each other's labels, are
+ * updated together.  This gives the same labels as updating the vertices
+ * one at a time, by color, so the result does not depend on the number of
+ * threads.  Ties go to the current label, then to a hash of the label.
+ *
+ * louvain (Blondel et al., 2008) moves single vertices between
+ * communities while that raises modularity by at least MIN_GAIN a sweep,
+ * then merges each community into one vertex and repeats on the smaller
+ * graph.  It is sequential, and
+ * usually finds a higher modularity than label propagation.
+ *
+ * Community numbers in results run from 0, in order of their first vertex.
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class Communities {
+	public static final int MAX_ITERATIONS = 100;
+	public static final double MIN_GAIN = 1e-6;
+	private static final int BLOCK = 64;
+
+	private final GraphArrays arrays;
+	private final ForkJoinPool pool;
+	private final Adjacency adjacency;		// the weighted undirected graph
+	private int iterations;					// sweeps of the last computation
+
+	/**
+	 * Prepare to find communities in a graph.  Later changes to the graph are not seen.
+	 * @param graph the graph.
+	 * @param pool the pool that runs label propagation.
+	 */
+	public Communities(Graph graph, ForkJoinPool pool) {
+		this.arrays = new GraphArrays(graph);
+		this.pool = pool;
+		this.adjacency = new Adjacency(arrays, pool);
+	}
+
+	/** Return the number of sweeps over the vertices in the last computation */
+	public int getIterations() {
+		return iterations;
+	}
+
+	// An undirected graph with weighted edges, in compressed sparse rows: the neighbors
+	// of v are neighbor[start[v] .. start[v+1]-1], each once, in increasing order.
+	private static class Adjacency {
+		final int n;
+		final int[] start;
+		final int[] neighbor;
+		final double[] weight;
+		final double[] degree;		// sum of the weights of v's row
+		final double total;			// sum of all degrees: twice the total edge weight
+
+		Adjacency(int n, int[] start, int[] neighbor, double[] weight) {
+			this.n = n;
+			this.start = start;
+			this.neighbor = neighbor;
+			this.weight = weight;
+			degree = new double[n];
+			double sum = 0;
+			for (int v = 0; v < n; v++) {
+				for (int e = start[v]; e < start[v + 1]; e++) degree[v] += weight[e];
+				sum += degree[v];
+			}
+			total = sum;
+		}
+
+		// Merge each vertex's out- and in-neighbors, adding up repeats.
+		Adjacency(GraphArrays arrays, ForkJoinPool pool) {
+			this(arrays.n, rows(arrays, pool));
+		}
+
+		private Adjacency(int n, Object[] rows) {
+			this(n, (int[]) rows[0], (int[]) rows[1], (double[]) rows[2]);
+		}
+
+		// Return {start, neighbor, weight} for the merged rows.
+		private static Object[] rows(GraphArrays arrays, ForkJoinPool pool) {
+			int n = arrays.n;
+			int[] roomStart = new int[n + 1];
+			for (int v = 0; v < n; v++) {
+				roomStart[v + 1] = roomStart[v] + arrays.outStart[v + 1] - arrays.outStart[v]
+						+ arrays.inStart[v + 1] - arrays.inStart[v];
+			}
+			int[] room = new int[roomStart[n]];
+			double[] roomWeight = new double[roomStart[n]];
+			int[] size = new int[n];
+			arrays.forEachChunk(pool, "Community detection", (c, from, to) -> {
+				for (int v = from; v < to; v++) {
+					int out = arrays.outStart[v + 1] - arrays.outStart[v];
+					System.arraycopy(arrays.outTarget, arrays.outStart[v], room, roomStart[v], out);
+					System.arraycopy(arrays.inSource, arrays.inStart[v], room, roomStart[v] + out,
+							arrays.inStart[v + 1] - arrays.inStart[v]);
+					Arrays.sort(room, roomStart[v], roomStart[v + 1]);
+					int kept = 0;
+					for (int i = roomStart[v]; i < roomStart[v + 1]; i++) {
+						if (kept > 0 && room[roomStart[v] + kept - 1] == room[i]) {
+							roomWeight[roomStart[v] + kept - 1]++;
+						}
+						else {
+							room[roomStart[v] + kept] = room[i];
+							roomWeight[roomStart[v] + kept++] = 1;
+						}
+					}
+					size[v] = kept;
+				}
+			});
+			int[] start = new int[n + 1];
+			for (int v = 0; v < n; v++) start[v + 1] = start[v] + size[v];
+			int[] neighbor = new int[start[n]];
+			double[] weight = new double[start[n]];
+			for (int v = 0; v < n; v++) {
+				System.arraycopy(room, roomStart[v], neighbor, start[v], size[v]);
+				System.arraycopy(roomWeight, roomStart[v], weight, start[v], size[v]);
+			}
+			return new Object[] {start, neighbor, weight};
+		}
+	}
+
+	/**
+	 * Return the modularity of an assignment of vertices to communities.
+	 * @param community the community of each vertex, from 0 to n-1.
+	 */
+	public double modularity(int[] community) {
+		return modularity(adjacency, community);
+	}
+
+	private static double modularity(Adjacency graph, int[] community) {
+		double[] inside = new double[graph.n];
+		double[] total = new double[graph.n];
+		for (int v = 0; v < graph.n; v++) {
+			total[community[v]] += graph.degree[v];
+			for (int e = graph.start[v]; e < graph.start[v + 1]; e++) {
+				if (community[graph.neighbor[e]] == community[v]) inside[community[v]] += graph.weight[e];
+			}
+		}
+		double q = 0;
+		for (int c = 0; c < graph.n; c++) {
+			q += inside[c] / graph.total - (total[c] / graph.total) * (total[c] / graph.total);
+		}
+		return q;
+	}
+
+	/**
+	 * Return the communities found by label propagation.
+	 * @param deterministic true to give the same result on any number of threads.
+	 * @param seed seed for the order of the vertices in the asynchronous mode, and for ties.
+	 * @return the community of each vertex.
+	 */
+	public int[] labelPropagation(boolean deterministic, long seed) {
+		int n = adjacency.n;
+		int[] label = new int[n];
+		int[] next = new int[n];
+		for (int v = 0; v < n; v++) label[v] = v;
+		// The asynchronous mode visits blocks of BLOCK vertices in a random order, since
+		// the order of the file tends to flood a few labels, and random order of single
+		// vertices is slow on large graphs; the deterministic mode visits one color at
+		// a time.
+		int[] visit = new int[n];
+		int[] colorStart = null;
+		if (deterministic) {
+			int[] color = color();
+			int numColors = 0;
+			for (int c : color) numColors = Math.max(numColors, c + 1);
+			colorStart = new int[numColors + 1];
+			for (int v = 0; v < n; v++) colorStart[color[v] + 1]++;
+			for (int c = 0; c < numColors; c++) colorStart[c + 1] += colorStart[c];
+			int[] fill = Arrays.copyOf(colorStart, numColors);
+			for (int v = 0; v < n; v++) visit[fill[color[v]]++] = v;
+		}
+		else {
+			int[] block = new int[(n + BLOCK - 1) / BLOCK];
+			for (int b = 0; b < block.length; b++) block[b] = b;
+			Random random = new Random(seed);
+			for (int i = block.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int t = block[i];
+				block[i] = block[j];
+				block[j] = t;
+			}
+			int i = 0;
+			for (int b : block) {
+				for (int v = b * BLOCK; v < Math.min(n, (b + 1) * BLOCK); v++) visit[i++] = v;
+			}
+		}
+
+		int[] changedParts = new int[arrays.numChunks()];
+		// Running chunks borrow vote arrays from here, so there are at most as many as threads.
+		ConcurrentLinkedQueue<Tally> spare = new ConcurrentLinkedQueue<Tally>();
+		iterations = 0;
+		int changed = n;
+		while (changed > 0 && iterations < MAX_ITERATIONS) {
+			int iteration = iterations;
+			changed = 0;
+			if (!deterministic) {
+				Arrays.fill(changedParts, 0);
+				arrays.forEachChunk(pool, "Label propagation", (c, from, to) -> {
+					int count = 0;
+					Tally tally = Tally.take(spare, n);
+					for (int i = from; i < to; i++) {
+						int v = visit[i];
+						int best = bestLabel(v, label, tally.votes, tally.candidates, seed + iteration);
+						if (best != label[v]) {
+							label[v] = best;
+							count++;
+						}
+					}
+					spare.add(tally);
+					changedParts[c] = count;
+				});
+				for (int count : changedParts) changed += count;
+			}
+			else {
+				for (int r = 0; r + 1 < colorStart.length; r++) {
+					int first = colorStart[r], last = colorStart[r + 1];
+					Arrays.fill(changedParts, 0);
+					arrays.forEachChunk(pool, "Label propagation", (c, from, to) -> {
+						int count = 0;
+						Tally tally = Tally.take(spare, n);
+						for (int i = first + from; i < Math.min(first + to, last); i++) {
+							int v = visit[i];
+							next[v] = bestLabel(v, label, tally.votes, tally.candidates, seed + iteration);
+							if (next[v] != label[v]) count++;
+						}
+						spare.add(tally);
+						changedParts[c] = count;
+					});
+					for (int i = first; i < last; i++) label[visit[i]] = next[visit[i]];
+					for (int count : changedParts) changed += count;
+				}
+			}
+			iterations++;
+		}
+		return renumber(label);
+	}
+
+	// Color the vertices greedily, each with the smallest color none of its
+	// earlier neighbors has; return the color of each vertex.
+	private int[] color() {
+		int n = adjacency.n;
+		int[] color = new int[n];
+		Arrays.fill(color, -1);
+		int[] usedBy = new int[n + 1];		// color -> the last vertex one of whose neighbors has it
+		Arrays.fill(usedBy, -1);
+		for (int v = 0; v < n; v++) {
+			for (int e = adjacency.start[v]; e < adjacency.start[v + 1]; e++) {
+				int u = adjacency.neighbor[e];
+				if (color[u] >= 0) usedBy[color[u]] = v;
+			}
+			int c = 0;
+			while (usedBy[c] == v) c++;
+			color[v] = c;
+		}
+		return color;
+	}
+
+	private static long mix(long x) {
+		x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+		x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return x ^ (x >>> 33);
+	}
+
+	// The votes for each label and the labels voted for, for bestLabel.
+	private static class Tally {
+		final double[] votes;
+		final int[] candidates;
+
+		Tally(int n) {
+			votes = new double[n];
+			candidates = new int[n];
+		}
+
+		// Return a spare tally, or a new one if none is free.
+		static Tally take(ConcurrentLinkedQueue<Tally> spare, int n) {
+			Tally tally = spare.poll();
+			return tally == null ? new Tally(n) : tally;
+		}
+	}
+
+	// Return the label with the most weight among v's neighbors.  votes must be all 0,
+	// and is left so.
+	private int bestLabel(int v, int[] label, double[] votes, int[] candidates, long salt) {
+		int numCandidates = 0;
+		for (int e = adjacency.start[v]; e < adjacency.start[v + 1]; e++) {
+			int u = adjacency.neighbor[e];
+			if (u == v) continue;
+			int l = label[u];
+			if (votes[l] == 0) candidates[numCandidates++] = l;
+			votes[l] += adjacency.weight[e];
+		}
+		int current = label[v];
+		int best = current;
+		double bestVotes = votes[current];
+		long bestHash = Long.MAX_VALUE;
+		for (int i = 0; i < numCandidates; i++) {
+			int l = candidates[i];
+			double w = votes[l];
+			votes[l] = 0;
+			if (w < bestVotes || l == current || (w == bestVotes && best == current)) continue;
+			long hash = mix(l ^ salt);
+			if (w > bestVotes || hash < bestHash) {
+				best = l;
+				bestVotes = w;
+				bestHash = hash;
+			}
+		}
+		return best;
+	}
+
+	/** Return the communities found by the Louvain method */
+	public int[] louvain() {
+		int[] community = new int[adjacency.n];
+		for (int v = 0; v < adjacency.n; v++) community[v] = v;
+		Adjacency graph = adjacency;
+		iterations = 0;
+		while (true) {
+			int[] moved = moveVertices(graph);
+			int numCommunities = 0;
+			for (int c : moved) numCommunities = Math.max(numCommunities, c + 1);
+			for (int v = 0; v < adjacency.n; v++) community[v] = moved[community[v]];
+			if (numCommunities == graph.n) break;
+			graph = merge(graph, moved, numCommunities);
+		}
+		return community;
+	}
+
+	// Move single vertices to the neighboring community that raises modularity most, until
+	// a sweep gains less than MIN_GAIN; return the communities, renumbered.
+	private int[] moveVertices(Adjacency graph) {
+		int n = graph.n;
+		int[] community = new int[n];
+		double[] total = new double[n];		// community -> sum of its degrees
+		for (int v = 0; v < n; v++) {
+			community[v] = v;
+			total[v] = graph.degree[v];
+		}
+		double[] link = new double[n];		// community -> weight from the current vertex
+		int[] touched = new int[n];
+		double sweepGain = Double.POSITIVE_INFINITY;
+		for (int sweep = 0; sweep < MAX_ITERATIONS && sweepGain >= MIN_GAIN; sweep++) {
+			sweepGain = 0;
+			iterations++;
+			for (int v = 0; v < n; v++) {
+				int numTouched = 0;
+				for (int e = graph.start[v]; e < graph.start[v + 1]; e++) {
+					int u = graph.neighbor[e];
+					if (u == v) continue;
+					if (link[community[u]] == 0) touched[numTouched++] = community[u];
+					link[community[u]] += graph.weight[e];
+				}
+				int current = community[v];
+				double k = graph.degree[v];
+				total[current] -= k;
+				// The gain in modularity of joining c is proportional to this.
+				int best = current;
+				double stayGain = link[current] - total[current] * k / graph.total;
+				double bestGain = stayGain;
+				for (int i = 0; i < numTouched; i++) {
+					int c = touched[i];
+					double gain = link[c] - total[c] * k / graph.total;
+					if (gain > bestGain + 1e-12) {
+						best = c;
+						bestGain = gain;
+					}
+					link[c] = 0;
+				}
+				link[current] = 0;
+				total[best] += k;
+				if (best != current) {
+					community[v] = best;
+					sweepGain += 2 * (bestGain - stayGain) / graph.total;
+				}
+			}
+		}
+		return renumber(community);
+	}
+
+	// Return the graph with each community made one vertex; edges inside a community
+	// become its self-loop.
+	private static Adjacency merge(Adjacency graph, int[] community, int numCommunities) {
+		int[] memberStart = new int[numCommunities + 1];
+		for (int v = 0; v < graph.n; v++) memberStart[community[v] + 1]++;
+		for (int c = 0; c < numCommunities; c++) memberStart[c + 1] += memberStart[c];
+		int[] members = new int[graph.n];
+		int[] fill = Arrays.copyOf(memberStart, numCommunities);
+		for (int v = 0; v < graph.n; v++) members[fill[community[v]]++] = v;
+
+		int[] start = new int[numCommunities + 1];
+		int[] neighbor = new int[graph.neighbor.length];
+		double[] weight = new double[graph.neighbor.length];
+		double[] link = new double[numCommunities];
+		boolean[] seen = new boolean[numCommunities];
+		int[] touched = new int[numCommunities];
+		int size = 0;
+		for (int c = 0; c < numCommunities; c++) {
+			int numTouched = 0;
+			for (int i = memberStart[c]; i < memberStart[c + 1]; i++) {
+				int v = members[i];
+				for (int e = graph.start[v]; e < graph.start[v + 1]; e++) {
+					int d = community[graph.neighbor[e]];
+					if (!seen[d]) {
+						seen[d] = true;
+						touched[numTouched++] = d;
+					}
+					link[d] += graph.weight[e];
+				}
+			}
+			Arrays.sort(touched, 0, numTouched);
+			for (int i = 0; i < numTouched; i++) {
+				int d = touched[i];
+				neighbor[size] = d;
+				weight[size++] = link[d];
+				link[d] = 0;
+				seen[d] = false;
+			}
+			start[c + 1] = size;
+		}
+		return new Adjacency(numCommunities, start, Arrays.copyOf(neighbor, size), Arrays.copyOf(weight, size));
+	}
+
+	// Number the communities from 0 in order of their first vertex.
+	private static int[] renumber(int[] label) {
+		int[] number = new int[label.length];
+		Arrays.fill(number, -1);
+		int[] result = new int[label.length];
+		int count = 0;
+		for (int v = 0; v < label.length; v++) {
+			if (number[label[v]] == -1) number[label[v]] = count++;
+			result[v] = number[label[v]];
+		}
+		return result;
+	}
+
+	/** Return the number of communities in an assignment numbered from 0 */
+	public static int countCommunities(int[] community) {
+		int count = 0;
+		for (int c : community) count = Math.max(count, c + 1);
+		return count;
+	}
+
+	// Modularity from the List<Integer> methods of Graph: the fraction of edges inside
+	// communities less the expected fraction.  For checking modularity().
+	private static double modularityWithLists(Graph graph, int[] community) {
+		double edges = graph.getNumEdges();
+		double inside = 0;
+		double[] total = new double[graph.getNumVertices()];
+		for (int v = 0; v < graph.getNumVertices(); v++) {
+			for (int w : graph.getNeighbors(v)) {
+				if (community[w] == community[v]) inside++;
+				total[community[v]]++;
+				total[community[w]]++;
+			}
+		}
+		double q = inside / edges;
+		for (double t : total) q -= (t / (2 * edges)) * (t / (2 * edges));
+		return q;
+	}
+
+	// Print the time, size and modularity of a result, and check its modularity.
+	private static void report(String name, Communities communities, Graph graph, double ms, int[] community) {
+		double q = communities.modularity(community);
+		String check = Math.abs(q - modularityWithLists(graph, community)) < 1e-9 ? "" : " ERROR: modularity differs";
+		System.out.printf("\t%-36s %7.1f ms, %3d sweeps: %5d communities, modularity %.4f%s%n",
+				name, ms, communities.getIterations(), countCommunities(community), q, check);
+	}
+
+	// Run label propagation and Louvain a few times, so the last times are of compiled code.
+	private static void compare(String title, Graph graph) {
+		System.out.println(title + ": " + graph.getNumVertices() + " vertices, " + graph.getNumEdges() + " edges");
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		ForkJoinPool fourThreads = new ForkJoinPool(4);
+		Communities communities = new Communities(graph, pool);
+		Communities onFour = new Communities(graph, fourThreads);
+		int[] result = null;
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			result = communities.labelPropagation(false, 49);
+			double ms = (System.nanoTime() - start) / 1e6;
+			if (round == 2) report("asynchronous label propagation", communities, graph, ms, result);
+		}
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			result = communities.labelPropagation(true, 49);
+			double ms = (System.nanoTime() - start) / 1e6;
+			if (round == 2) report("deterministic label propagation", communities, graph, ms, result);
+		}
+		if (!Arrays.equals(result, onFour.labelPropagation(true, 49))) {
+			System.out.println("ERROR: deterministic result depends on the number of threads");
+		}
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			result = communities.louvain();
+			double ms = (System.nanoTime() - start) / 1e6;
+			if (round == 2) report("Louvain", communities, graph, ms, result);
+		}
+		fourThreads.shutdown();
+	}
+
+	/**
+	 * Find communities among the OpenFlights airports, then in a random graph
+	 * of a million vertices in planted groups.
+	 */
+	public static void main(String[] args) {
+		GraphCSR routes = new GraphCSR();
+		GraphLoader.loadRoutes(GraphBenchmark.ALL_ROUTES, routes);
+		compare(GraphBenchmark.ALL_ROUTES, routes);
+
+		int[] community = new Communities(routes, ForkJoinPool.commonPool()).louvain();
+		int[] size = new int[countCommunities(community)];
+		for (int c : community) size[c]++;
+		double[] degree = new double[routes.getNumVertices()];
+		for (int v = 0; v < degree.length; v++) degree[v] = routes.outDegree(v) + routes.inDegree(v);
+		List<Integer> largest = new ArrayList<Integer>();
+		for (int c = 0; c < size.length; c++) largest.add(c);
+		Collections.sort(largest, (a, b) -> size[b] - size[a]);
+		for (int c : largest.subList(0, 5)) {
+			// The busiest airports of the community.
+			double[] inCommunity = new double[degree.length];
+			for (int v = 0; v < degree.length; v++) inCommunity[v] = community[v] == c ? degree[v] : -1;
+			StringBuilder line = new StringBuilder(String.format("\t%4d airports:", size[c]));
+			for (int v : LinkAnalysis.top(inCommunity, 6)) line.append(" " + routes.getLabel(v));
+			System.out.println(line);
+		}
+
+		// A million vertices in groups of 100, with four edges in five inside a group.
+		GraphCSR planted = new GraphCSR();
+		Random random = new Random(49);
+		for (int v = 0; v < 1000000; v++) planted.addVertex();
+		for (int e = 0; e < 5000000; e++) {
+			int v = random.nextInt(1000000);
+			planted.addEdge(v, random.nextInt(5) > 0 ? v / 100 * 100 + random.nextInt(100) : random.nextInt(1000000));
+		}
+		compare("\nGraph with 10000 planted groups", planted);
+	}
+}
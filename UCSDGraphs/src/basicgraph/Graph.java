@@ -1,12 +1,12 @@
 package basicgraph;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.IntConsumer;
 
 import util.GraphLoader;
 
@@ -25,8 +25,11 @@ public abstract class Graph {
 
 	private int numVertices;
 	private int numEdges;
-	//optional association of String labels to vertices 
-	private Map<Integer,String> vertexLabels;
+	//optional association of String labels to vertices, indexed both ways:
+	//vertexLabels holds the label of each vertex (null if unlabeled) and
+	//labelIndex the vertex of each label, so lookups by label are O(1).
+	private ArrayList<String> vertexLabels;
+	private HashMap<String,Integer> labelIndex;
 	
 	/**
 	 * Create a new empty Graph
@@ -35,6 +38,7 @@ public abstract class Graph {
 		numVertices = 0;
 		numEdges = 0;
 		vertexLabels = null;
+		labelIndex = null;
 	}
 
 	
@@ -111,6 +115,78 @@ public abstract class Graph {
 	 */
 	public abstract List<Integer> getInNeighbors(int v);
 	
+	// The next methods visit neighbors without building a List<Integer>,
+	// so loops over every edge of a graph do not box or allocate per edge.
+	// The defaults go through the lists; subclasses override them with
+	// versions that read their own representation.
+	
+	/**
+	 * Call action with each out-neighbor of v, once for each edge.
+	 * @param v Index of vertex in question.
+	 * @param action What to do with the index of each neighbor.
+	 */
+	public void forEachNeighbor(int v, IntConsumer action) {
+		for (int w : getNeighbors(v)) action.accept(w);
+	}
+	
+	/**
+	 * Call action with each in-neighbor of v, once for each edge.
+	 * @param v Index of vertex in question.
+	 * @param action What to do with the index of each in-neighbor.
+	 */
+	public void forEachInNeighbor(int v, IntConsumer action) {
+		for (int u : getInNeighbors(v)) action.accept(u);
+	}
+	
+	/**
+	 * Copy the out-neighbors of v into an array, once for each edge.
+	 * The neighbors are buffer[0 .. returned count - 1].
+	 * @param v Index of vertex in question.
+	 * @param buffer Array of length at least outDegree(v).
+	 * @return The number of neighbors copied.
+	 */
+	public int getNeighbors(int v, int[] buffer) {
+		int count = 0;
+		for (int w : getNeighbors(v)) buffer[count++] = w;
+		return count;
+	}
+	
+	/**
+	 * Copy every edge into compressed sparse rows: the out-neighbors of v
+	 * are returned in targets[start[v] .. start[v+1]-1], once for each edge.
+	 * @param start Array of length numVertices + 1, filled with the row offsets.
+	 * @return targets, the out-neighbors of all vertices, row by row.
+	 */
+	public int[] getOutEdges(int[] start) {
+		int n = getNumVertices();
+		start[0] = 0;
+		for (int v = 0; v < n; v++) start[v + 1] = start[v] + outDegree(v);
+		int[] targets = new int[start[n]];
+		int[] buffer = new int[16];
+		for (int v = 0; v < n; v++) {
+			if (buffer.length < outDegree(v)) buffer = new int[outDegree(v)];
+			int count = getNeighbors(v, buffer);
+			System.arraycopy(buffer, 0, targets, start[v], count);
+		}
+		return targets;
+	}
+	
+	/**
+	 * @param v Index of vertex in question.
+	 * @return The number of edges leaving v.
+	 */
+	public int outDegree(int v) {
+		return getNeighbors(v).size();
+	}
+	
+	/**
+	 * @param v Index of vertex in question.
+	 * @return The number of edges ending at v.
+	 */
+	public int inDegree(int v) {
+		return getInNeighbors(v).size();
+	}
+	
 	/**
 	 * @return List of vertices in graph.
 	 */
@@ -125,15 +201,16 @@ public abstract class Graph {
 	 * @return The degree sequence of this graph.
 	 */
 	public List<Integer> degreeSequence() {	
-		List<Integer> vertices = getVertices();
-		List<Integer> degrees = new ArrayList<Integer>();
+		int n = getNumVertices();
+		int[] sorted = new int[n];
 		
-		for(int v: vertices) {
-			degrees.add(getNeighbors(v).size() + getInNeighbors(v).size());
+		for(int v=0; v < n; v++) {
+			sorted[v] = outDegree(v) + inDegree(v);
 		}
-		Collections.sort(degrees);
-		Collections.reverse(degrees);
+		Arrays.sort(sorted);
 		
+		List<Integer> degrees = new ArrayList<Integer>(n);
+		for(int i = n-1; i >= 0; i--) degrees.add(sorted[i]);
 		return(degrees);
 	}
 	
@@ -170,7 +247,8 @@ public abstract class Graph {
 	 * (Optional: only if using labeled vertices.)
 	 */
 	public void initializeLabels() {
-		vertexLabels = new HashMap<Integer,String>();
+		vertexLabels = new ArrayList<String>();
+		labelIndex = new HashMap<String,Integer>();
 	}	
 	/**
 	 * Test whether some vertex in the graph is labeled 
@@ -191,7 +269,7 @@ public abstract class Graph {
 	 */
 	public boolean hasVertex(String s)
 	{
-		return vertexLabels.containsValue(s);
+		return labelIndex != null && labelIndex.containsKey(s);
 	}
 	
 	/**
@@ -200,9 +278,12 @@ public abstract class Graph {
 	 * @param The label to be assigned to this vertex.
 	 */
 	public void addLabel(int v, String s) {
-		if (v < getNumVertices() && !vertexLabels.containsKey(v)) 
+		if (v < getNumVertices() && getLabel(v) == null) 
 		{
-			vertexLabels.put(v, s);
+			while (vertexLabels.size() <= v) vertexLabels.add(null);
+			vertexLabels.set(v, s);
+			// With duplicate labels, the label refers to the first vertex given it.
+			labelIndex.putIfAbsent(s, v);
 		}
 		else {
 			System.out.println("ERROR: tried to label a vertex that is out of range or already labeled");
@@ -215,7 +296,7 @@ public abstract class Graph {
 	 * @return The String label of this vertex 
 	 */
 	public String getLabel(int v) {
-		if (vertexLabels.containsKey(v)) {
+		if (vertexLabels != null && v >= 0 && v < vertexLabels.size()) {
 			return vertexLabels.get(v);
 		}
 		else return null;
@@ -228,9 +309,9 @@ public abstract class Graph {
 	 * @return The integer index of this vertex 
 	 */
 	public int getIndex(String s) {
-		for (Map.Entry<Integer,String> entry : vertexLabels.entrySet()) {
-			if (entry.getValue().equals(s))
-				return entry.getKey();
+		Integer v = labelIndex == null ? null : labelIndex.get(s);
+		if (v != null) {
+			return v;
 		}
 		System.out.println("ERROR: No vertex with this label");
 		return -1;
@@ -1,12 +1,13 @@
 package basicgraph;
 
 import java.util.ArrayList;
-
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.function.IntConsumer;
 
 /** A class that implements a directed graph. 
  * The graph may have self-loops, parallel edges. 
@@ -14,6 +15,9 @@ import java.util.HashSet;
  * and may also have String labels.
  * The edges of the graph are not labeled.
  * Representation of edges via adjacency lists.
+ * The reverse adjacency (the in-neighbors of each vertex) is kept
+ * in primitive int arrays, added to as edges are added, so that 
+ * in-neighbors are found without scanning every list.
  * 
  * @author UCSD MOOC development team and Karen Blakemore
  *
@@ -22,12 +26,18 @@ public class GraphAdjList extends Graph {
 
 
 	private Map<Integer,ArrayList<Integer>> adjListsMap;
+	// inLists[w][0 .. inCounts[w]-1] are the start points of the edges
+	// ending at w, in the order the edges were added.
+	private int[][] inLists;
+	private int[] inCounts;
 	
 	/** 
 	 * Create a new empty Graph
 	 */
 	public GraphAdjList () {
 		adjListsMap = new HashMap<Integer,ArrayList<Integer>>();
+		inLists = new int[8][];
+		inCounts = new int[8];
 	}
 
 	/** 
@@ -38,6 +48,11 @@ public class GraphAdjList extends Graph {
 		// System.out.println("Adding vertex "+v);
 		ArrayList<Integer> neighbors = new ArrayList<Integer>();
 		adjListsMap.put(v,  neighbors);
+		if (v == inLists.length) {
+			inLists = Arrays.copyOf(inLists, v * 2);
+			inCounts = Arrays.copyOf(inCounts, v * 2);
+		}
+		inLists[v] = new int[2];
 	}
 	
 	/** 
@@ -47,7 +62,10 @@ public class GraphAdjList extends Graph {
 	 */
 	public void implementAddEdge(int v, int w) {
 		(adjListsMap.get(v)).add(w);
-
+		if (inCounts[w] == inLists[w].length) {
+			inLists[w] = Arrays.copyOf(inLists[w], inCounts[w] * 2);
+		}
+		inLists[w][inCounts[w]++] = v;
 	}
 	
 	/** 
@@ -75,19 +93,66 @@ public class GraphAdjList extends Graph {
 	 * @return List<Integer> a list of indices of vertices.  
 	 */	
 	public List<Integer> getInNeighbors(int v) {
-		List<Integer> inNeighbors = new ArrayList<Integer>();
-		for (int u : adjListsMap.keySet()) {
-			//iterate through all edges in u's adjacency list and 
-			//add u to the inNeighbor list of v whenever an edge
-			//with startpoint u has endpoint v.
-			for (int w : adjListsMap.get(u)) {
-				if (v == w) {
-					inNeighbors.add(u);
-				}
-			}
+		List<Integer> inNeighbors = new ArrayList<Integer>(inCounts[v]);
+		for (int i = 0; i < inCounts[v]; i++) {
+			inNeighbors.add(inLists[v][i]);
 		}
 		return inNeighbors;
 	}
+	
+	/**
+	 * Return the number of edges ending at v, without building a list.
+	 * @param v the index of vertex.
+	 */
+	public int inDegree(int v) {
+		return inCounts[v];
+	}
+	
+	/**
+	 * Return the number of edges leaving v, without building a list.
+	 * @param v the index of vertex.
+	 */
+	public int outDegree(int v) {
+		return adjListsMap.get(v).size();
+	}
+	
+	/**
+	 * Call action with each out-neighbor of v, reading the adjacency list in place.
+	 * @param v the index of vertex.
+	 * @param action what to do with each neighbor.
+	 */
+	public void forEachNeighbor(int v, IntConsumer action) {
+		ArrayList<Integer> neighbors = adjListsMap.get(v);
+		for (int i = 0; i < neighbors.size(); i++) {
+			action.accept(neighbors.get(i));
+		}
+	}
+	
+	/**
+	 * Call action with each in-neighbor of v, reading the reverse adjacency in place.
+	 * @param v the index of vertex.
+	 * @param action what to do with each in-neighbor.
+	 */
+	public void forEachInNeighbor(int v, IntConsumer action) {
+		int[] inNeighbors = inLists[v];
+		for (int i = 0; i < inCounts[v]; i++) {
+			action.accept(inNeighbors[i]);
+		}
+	}
+	
+	/**
+	 * Copy the out-neighbors of v into buffer.
+	 * @param v the index of vertex.
+	 * @param buffer array of length at least outDegree(v).
+	 * @return the number of neighbors copied.
+	 */
+	public int getNeighbors(int v, int[] buffer) {
+		ArrayList<Integer> neighbors = adjListsMap.get(v);
+		for (int i = 0; i < neighbors.size(); i++) {
+			buffer[i] = neighbors.get(i);
+		}
+		return neighbors.size();
+	}
 	 
 	/**
 	 * @return list of vertices for graph.
@@ -99,17 +164,20 @@ public class GraphAdjList extends Graph {
 	}
 	
 	/** 
-	 * Find all vertices reachable by two hops from v. Convert list to
-	 * hash set to remove duplicates.
+	 * Find all vertices reachable by two hops from v.  A vertex appears
+	 * once for each path of two edges to it.  The adjacency lists are
+	 * read in place, so the only list built is the result.
 	 * 
 	 * @param v the index of vertex.
 	 * @return List<Integer> a list of indices of vertices.  
 	 */		
 	 public List<Integer> getDistance2(int v) {
-		 List<Integer> hop1Vertices = getNeighbors(v);
-		 List<Integer> hop2Vertices = new ArrayList<Integer>();
+		 ArrayList<Integer> hop1Vertices = adjListsMap.get(v);
+		 int size = 0;
+		 for(int i=0; i < hop1Vertices.size(); i++) size += outDegree(hop1Vertices.get(i));
+		 List<Integer> hop2Vertices = new ArrayList<Integer>(size);
 		 
-		 for(int hop1V: hop1Vertices) hop2Vertices.addAll(getNeighbors(hop1V));
+		 for(int i=0; i < hop1Vertices.size(); i++) hop2Vertices.addAll(adjListsMap.get(hop1Vertices.get(i)));
 		 
 		 return hop2Vertices;
 	}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 /** A class that implements a directed graph. 
  * The graph may have self-loops, parallel edges. 
@@ -99,6 +100,70 @@ public class GraphAdjMatrix extends Graph {
 		return inNeighbors;
 	}
 	
+	/**
+	 * Call action with each out-neighbor of v, scanning row v in place.
+	 * @param v the index of vertex.
+	 * @param action what to do with each neighbor.
+	 */
+	public void forEachNeighbor(int v, IntConsumer action) {
+		int[] row = adjMatrix[v];
+		for (int i = 0; i < getNumVertices(); i ++) {
+			for (int j=0; j < row[i]; j ++) {
+				action.accept(i);
+			}
+		}
+	}
+	
+	/**
+	 * Call action with each in-neighbor of v, scanning column v in place.
+	 * @param v the index of vertex.
+	 * @param action what to do with each in-neighbor.
+	 */
+	public void forEachInNeighbor(int v, IntConsumer action) {
+		for (int i = 0; i < getNumVertices(); i ++) {
+			for (int j=0; j < adjMatrix[i][v]; j ++) {
+				action.accept(i);
+			}
+		}
+	}
+	
+	/**
+	 * Copy the out-neighbors of v into buffer.
+	 * @param v the index of vertex.
+	 * @param buffer array of length at least outDegree(v).
+	 * @return the number of neighbors copied.
+	 */
+	public int getNeighbors(int v, int[] buffer) {
+		int[] row = adjMatrix[v];
+		int count = 0;
+		for (int i = 0; i < getNumVertices(); i ++) {
+			for (int j=0; j < row[i]; j ++) {
+				buffer[count++] = i;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Return the number of edges leaving v: the sum of row v.
+	 * @param v the index of vertex.
+	 */
+	public int outDegree(int v) {
+		int degree = 0;
+		for (int i = 0; i < getNumVertices(); i ++) degree += adjMatrix[v][i];
+		return degree;
+	}
+	
+	/**
+	 * Return the number of edges ending at v: the sum of column v.
+	 * @param v the index of vertex.
+	 */
+	public int inDegree(int v) {
+		int degree = 0;
+		for (int i = 0; i < getNumVertices(); i ++) degree += adjMatrix[i][v];
+		return degree;
+	}
+	
 	/**
 	 * @return list of vertices for graph.
 	 */
@@ -114,7 +179,8 @@ public class GraphAdjMatrix extends Graph {
 	 * Find all vertices reachable from v in two hops.
 	 * Multiply row v of the adjacency matrix by the entire matrix.
 	 * Entry i of the resulting vector is the number of paths of length 2, from
-	 * node i to node j.
+	 * node v to node i.  Only the rows of v's neighbors contribute, so only
+	 * those rows are added: O(n * out-degree) rather than O(n^2).
 	 * 
 	 * @param v the index of vertex.
 	 * @return List<Integer> a list of indices of vertices.  
@@ -123,10 +189,12 @@ public class GraphAdjMatrix extends Graph {
 		int n = getNumVertices();
 		int[] twoHops = new int[n];	 // Java initializes all int vars to 0.
 		
-		// Multiply row v of adjacency matrix by entire matrix.
-		for(int i=0; i < n; i++) {
-			for(int j=0; j < n; j++) {
-				twoHops[i] += (adjMatrix[v][j] * adjMatrix[j][i]);
+		// Add row j, times the number of edges v -> j, for each neighbor j of v.
+		for(int j=0; j < n; j++) {
+			int paths = adjMatrix[v][j];
+			if (paths == 0) continue;
+			for(int i=0; i < n; i++) {
+				twoHops[i] += paths * adjMatrix[j][i];
 			}
 		}
 		
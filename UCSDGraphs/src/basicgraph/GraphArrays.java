@@ -0,0 +1,82 @@
+package basicgraph;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/** A copy of a graph's edges in compressed sparse rows, for the whole-graph
+ * analyses (KHop, LinkAnalysis, ...), which read every edge many times:
+ * the out-neighbors of v are outTarget[outStart[v] .. outStart[v+1]-1] and
+ * its in-neighbors inSource[inStart[v] .. inStart[v+1]-1].  A vertex appears
+ * once per edge, so parallel edges are kept.  Later changes to the graph
+ * are not seen.
+ *
+ * forEachChunk runs a loop over the vertices in parallel, in chunks of
+ * CHUNK vertices.  Analyses keep one partial result per chunk and merge
+ * them in chunk order, so their answers do not depend on the number of
+ * threads.
+ *
+ * @author Karen Blakemore
+ *
+ */
+class GraphArrays {
+	static final int CHUNK = 4096;
+
+	final int n;
+	final int m;
+	final int[] outStart;
+	final int[] outTarget;
+	final int[] inStart;
+	final int[] inSource;
+
+	/**
+	 * Copy the edges of a graph.  The in-neighbors of each vertex are in
+	 * increasing order.
+	 * @param graph the graph to copy.
+	 */
+	GraphArrays(Graph graph) {
+		n = graph.getNumVertices();
+		outStart = new int[n + 1];
+		outTarget = graph.getOutEdges(outStart);
+		m = outStart[n];
+
+		inStart = new int[n + 1];
+		for (int e = 0; e < m; e++) inStart[outTarget[e] + 1]++;
+		for (int v = 0; v < n; v++) inStart[v + 1] += inStart[v];
+		inSource = new int[m];
+		int[] next = new int[n];
+		System.arraycopy(inStart, 0, next, 0, n);
+		for (int v = 0; v < n; v++) {
+			for (int e = outStart[v]; e < outStart[v + 1]; e++) inSource[next[outTarget[e]]++] = v;
+		}
+	}
+
+	/** Return the number of chunks of CHUNK vertices */
+	int numChunks() {
+		return (n + CHUNK - 1) / CHUNK;
+	}
+
+	/**
+	 * Run body for every chunk of vertices, in parallel on the pool.
+	 * @param pool the pool to run on.
+	 * @param task what is being computed, for error messages.
+	 */
+	void forEachChunk(ForkJoinPool pool, String task, ChunkBody body) {
+		try {
+			pool.submit(() -> IntStream.range(0, numChunks()).parallel().forEach(c ->
+				body.run(c, c * CHUNK, Math.min(n, (c + 1) * CHUNK)))).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(task + " interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException(task + " failed", e.getCause());
+		}
+	}
+
+	interface ChunkBody {
+		/** Process vertices from .. to-1, which are chunk number chunk */
+		void run(int chunk, int from, int to);
+	}
+}
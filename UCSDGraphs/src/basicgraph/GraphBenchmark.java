@@ -0,0 +1,259 @@
+package basicgraph;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import util.GraphLoader;
+
+/** Benchmarks of the basicgraph implementations on the airport route files:
+ * data/airports/routesUA.dat (United only) and the full OpenFlights
+ * routes file from the UnfoldingMaps project (about 67k routes).
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class GraphBenchmark {
+	static final String UA_ROUTES = "data/airports/routesUA.dat";
+	static final String ALL_ROUTES = "../UCSDUnfoldingMaps/data/routes.dat";
+
+	/**
+	 * Load a route file with GraphLoader.loadRoutes, which finds each airport
+	 * through the graph's label index.
+	 * @return the time taken in ms.
+	 */
+	static double timeLoad(String filename, Graph graph) {
+		long start = System.nanoTime();
+		GraphLoader.loadRoutes(filename, graph);
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Load a route file finding airports by scanning every label, as loadRoutes
+	 * did before Graph indexed its labels.  Only used for comparison.
+	 * @return the time taken in ms.
+	 */
+	static double timeScanLoad(String filename, Graph graph) throws IOException {
+		long start = System.nanoTime();
+		graph.initializeLabels();
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] flightInfo = line.split(",");
+				graph.addEdge(scanIndex(graph, flightInfo[2]), scanIndex(graph, flightInfo[4]));
+			}
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	private static int scanIndex(Graph graph, String label) {
+		for (int v = 0; v < graph.getNumVertices(); v++) {
+			if (label.equals(graph.getLabel(v))) return v;
+		}
+		int v = graph.addVertex();
+		graph.addLabel(v, label);
+		return v;
+	}
+
+	/**
+	 * Load a route file into each kind of graph and time neighbor, in-neighbor
+	 * and two-hop queries on every vertex.  Every graph must give the same
+	 * answers as the first, up to order; two-hop answers are compared by an
+	 * order independent hash, since keeping them all would time the garbage
+	 * collector rather than the graphs.
+	 */
+	static void compareBackends(String file, String[] names, List<Supplier<Graph>> makers) {
+		System.out.println(file + ":");
+		List<List<Integer>> expected = null;
+		for (int k = 0; k < names.length; k++) {
+			Graph graph = makers.get(k).get();
+			double loadMs = timeLoad(file, graph);
+			List<List<Integer>> answers = new ArrayList<List<Integer>>();
+
+			long start = System.nanoTime();
+			for (int v = 0; v < graph.getNumVertices(); v++) {
+				answers.add(graph.getNeighbors(v));
+				answers.add(graph.getInNeighbors(v));
+			}
+			double neighborMs = (System.nanoTime() - start) / 1e6;
+
+			start = System.nanoTime();
+			long twoHops = 0;
+			List<Integer> hashes = new ArrayList<Integer>();
+			for (int v = 0; v < graph.getNumVertices(); v++) {
+				List<Integer> hops = graph.getDistance2(v);
+				twoHops += hops.size();
+				int hash = 0;
+				for (int w : hops) hash += w * 0x9E3779B1 ^ (w >>> 7);
+				hashes.add(hash);
+			}
+			answers.add(hashes);
+			double distance2Ms = (System.nanoTime() - start) / 1e6;
+
+			for (List<Integer> answer : answers) Collections.sort(answer);
+			if (expected == null) expected = answers;
+			else if (!expected.equals(answers)) System.out.println("ERROR: " + names[k] + " disagrees with " + names[0]);
+			System.out.printf("\t%-15s load %7.1f ms, neighbors + in-neighbors %7.1f ms, distance 2 (%d) %8.1f ms%n",
+					names[k], loadMs, neighborMs, twoHops, distance2Ms);
+		}
+	}
+
+	/**
+	 * Return the degree sequence found by scanning every adjacency list for
+	 * the in-neighbors of each vertex, as GraphAdjList did before it kept a
+	 * reverse adjacency: O(V * E).  Only used for comparison.
+	 */
+	static List<Integer> scanDegreeSequence(Graph graph) {
+		List<List<Integer>> lists = new ArrayList<List<Integer>>();
+		for (int v = 0; v < graph.getNumVertices(); v++) lists.add(graph.getNeighbors(v));
+		List<Integer> degrees = new ArrayList<Integer>();
+		for (int v = 0; v < graph.getNumVertices(); v++) {
+			int degree = lists.get(v).size();
+			for (List<Integer> list : lists) {
+				for (int w : list) if (w == v) degree++;
+			}
+			degrees.add(degree);
+		}
+		Collections.sort(degrees);
+		Collections.reverse(degrees);
+		return degrees;
+	}
+
+	/** Return a random graph with n vertices and m edges */
+	static Graph randomGraph(Graph graph, int n, int m, long seed) {
+		Random random = new Random(seed);
+		for (int v = 0; v < n; v++) graph.addVertex();
+		for (int e = 0; e < m; e++) graph.addEdge(random.nextInt(n), random.nextInt(n));
+		return graph;
+	}
+
+	// Time degreeSequence, and the O(V * E) scan if it would finish in a few seconds.
+	static void timeDegreeSequence(String name, Graph graph) {
+		graph.degreeSequence();		// warm up
+		long start = System.nanoTime();
+		List<Integer> degrees = graph.degreeSequence();
+		double ms = (System.nanoTime() - start) / 1e6;
+		String scan = "scan skipped";
+		if ((long) graph.getNumVertices() * graph.getNumEdges() <= 2e9) {
+			start = System.nanoTime();
+			List<Integer> scanned = scanDegreeSequence(graph);
+			scan = String.format("scan %.1f ms", (System.nanoTime() - start) / 1e6);
+			if (!scanned.equals(degrees)) scan += " ERROR: sequences differ";
+		}
+		System.out.printf("\t%-28s %8d vertices %9d edges: degreeSequence %8.2f ms, %s%n",
+				name, graph.getNumVertices(), graph.getNumEdges(), ms, scan);
+	}
+
+	// Return the bytes allocated so far by this thread.
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Visit every edge of a graph three ways: through the List<Integer> methods,
+	 * through forEachNeighbor / forEachInNeighbor, and through int[] slices; and
+	 * report the time and bytes allocated per edge of each, and of degreeSequence.
+	 * Each is run several times first, so the times are of compiled code.
+	 */
+	static void compareIteration(String name, Graph graph) {
+		int n = graph.getNumVertices();
+		long[] sum = new long[1];
+		IntConsumer add = w -> sum[0] += w;
+		int maxDegree = 0;
+		for (int v = 0; v < n; v++) maxDegree = Math.max(maxDegree, graph.outDegree(v));
+		int[] buffer = new int[maxDegree];
+
+		String[] ways = {"lists", "forEach", "int[] slices", "degreeSequence"};
+		long[] checks = new long[ways.length];
+		StringBuilder line = new StringBuilder(String.format("\t%-15s", name));
+		for (int way = 0; way < ways.length; way++) {
+			long bytes = 0, nanos = 0;
+			for (int round = 0; round < 6; round++) {
+				sum[0] = 0;
+				long startBytes = allocatedBytes();
+				long start = System.nanoTime();
+				for (int v = 0; v < n; v++) {
+					if (way == 0) {
+						for (int w : graph.getNeighbors(v)) sum[0] += w;
+						for (int u : graph.getInNeighbors(v)) sum[0] += u;
+					}
+					else if (way == 1) {
+						graph.forEachNeighbor(v, add);
+						graph.forEachInNeighbor(v, add);
+					}
+					else if (way == 2) {
+						int count = graph.getNeighbors(v, buffer);
+						for (int i = 0; i < count; i++) sum[0] += buffer[i];
+					}
+				}
+				if (way == 3) sum[0] = graph.degreeSequence().size();
+				nanos = System.nanoTime() - start;		// the last round is reported
+				bytes = allocatedBytes() - startBytes;
+			}
+			checks[way] = sum[0];
+			line.append(String.format(" %s %6.1f ns %6.1f B;", ways[way],
+					(double) nanos / graph.getNumEdges(), (double) bytes / graph.getNumEdges()));
+		}
+		System.out.println(line);
+		if (checks[0] != checks[1]) System.out.println("ERROR: forEach visits different edges");
+	}
+
+	public static void main(String[] args) throws IOException {
+		System.out.println("Loading routes (label index vs. label scan):");
+		for (String file : new String[] {UA_ROUTES, ALL_ROUTES}) {
+			for (int warmup = 0; warmup < 2; warmup++) timeLoad(file, new GraphAdjList());
+			GraphAdjList indexed = new GraphAdjList();
+			double indexedMs = timeLoad(file, indexed);
+			GraphAdjList scanned = new GraphAdjList();
+			double scannedMs = timeScanLoad(file, scanned);
+			if (indexed.getNumVertices() != scanned.getNumVertices() || indexed.getNumEdges() != scanned.getNumEdges()) {
+				System.out.println("ERROR: loaders disagree on " + file);
+			}
+			System.out.printf("\t%s: %d airports, %d routes; indexed %.1f ms (%.2f us/route), scan %.1f ms%n",
+					file, indexed.getNumVertices(), indexed.getNumEdges(), indexedMs,
+					indexedMs * 1000 / indexed.getNumEdges(), scannedMs);
+		}
+
+		System.out.println("\nGraph representations:");
+		compareBackends(UA_ROUTES,
+				new String[] {"GraphAdjList", "GraphAdjMatrix", "GraphCSR", "GraphBitMatrix"},
+				List.of(GraphAdjList::new, GraphAdjMatrix::new, GraphCSR::new, GraphBitMatrix::new));
+		// GraphAdjMatrix's O(n^2) distance 2 would take minutes on the full file.
+		compareBackends(ALL_ROUTES,
+				new String[] {"GraphAdjList", "GraphCSR", "GraphBitMatrix"},
+				List.of(GraphAdjList::new, GraphCSR::new, GraphBitMatrix::new));
+
+		System.out.println("\nGraphAdjList degree sequences (reverse adjacency vs. scan):");
+		for (int i = 1; i <= 4; i++) {
+			GraphAdjList graph = new GraphAdjList();
+			GraphLoader.loadGraph("data/graders/mod1/graph" + i + ".txt", graph);
+			timeDegreeSequence("mod1/graph" + i + ".txt", graph);
+		}
+		GraphAdjList ucsd = new GraphAdjList();
+		GraphLoader.loadRoadMap("data/graders/mod1/ucsd.map", ucsd);
+		timeDegreeSequence("mod1/ucsd.map", ucsd);
+		GraphAdjList united = new GraphAdjList();
+		GraphLoader.loadRoutes("data/graders/mod1/routesUA.dat", united);
+		timeDegreeSequence("mod1/routesUA.dat", united);
+		for (int n = 1000; n <= 1000000; n *= 10) {
+			timeDegreeSequence("random, 4 edges per vertex", randomGraph(new GraphAdjList(), n, 4 * n, n));
+		}
+
+		System.out.println("\nVisiting every edge, per edge (int[] slices visit out-neighbors only):");
+		GraphAdjMatrix matrix = new GraphAdjMatrix();
+		GraphLoader.loadRoutes(UA_ROUTES, matrix);
+		compareIteration("GraphAdjMatrix (routesUA)", matrix);
+		for (Supplier<Graph> maker : List.<Supplier<Graph>>of(GraphAdjList::new, GraphCSR::new, GraphBitMatrix::new)) {
+			Graph graph = maker.get();
+			GraphLoader.loadRoutes(ALL_ROUTES, graph);
+			compareIteration(graph.getClass().getSimpleName(), graph);
+		}
+	}
+}
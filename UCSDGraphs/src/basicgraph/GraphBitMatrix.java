@@ -0,0 +1,288 @@
+package basicgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/** A class that implements a directed graph.
+ * The graph may have self-loops, parallel edges.
+ * Vertices are labeled by integers 0 .. n-1
+ * and may also have String labels.
+ * The edges of the graph are not labeled.
+ * Representation of edges via an adjacency matrix of bits:
+ * bit w of row v is set if there is an edge from v to w, and
+ * the columns are kept as rows too, for in-neighbors.
+ *
+ * For dense graphs (or dense subgraphs, such as the hubs of a
+ * route network) this uses 1/32 of the memory of GraphAdjMatrix's
+ * int matrix, and rows are scanned 64 vertices at a time.  Each
+ * row is only as long as its highest set bit needs, so vertices
+ * can be added without copying the matrix.  Parallel edges beyond
+ * the first are counted in a small open-addressing hash table of
+ * primitives, which is only consulted for vertices that have some.
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class GraphBitMatrix extends Graph {
+
+	private long[][] outRows;		// vertex -> bits of its out-neighbors
+	private long[][] inRows;		// vertex -> bits of its in-neighbors
+	private int[] outDegree;		// vertex -> number of edges leaving it
+	private int[] inDegree;			// vertex -> number of edges ending at it
+	private int[] extraOut;			// vertex -> parallel edges leaving it, beyond the first of each
+	private int[] extraIn;
+	// Open-addressing table: extraKeys[i] = v * 2^32 + w (or -1 if empty),
+	// extraCounts[i] = the number of edges from v to w beyond the first.
+	private long[] extraKeys;
+	private int[] extraCounts;
+	private int numExtra;
+
+	/** Create a new empty Graph */
+	public GraphBitMatrix() {
+		outRows = new long[8][];
+		inRows = new long[8][];
+		outDegree = new int[8];
+		inDegree = new int[8];
+		extraOut = new int[8];
+		extraIn = new int[8];
+		extraKeys = new long[16];
+		extraCounts = new int[16];
+		Arrays.fill(extraKeys, -1);
+	}
+
+	/**
+	 * Implement the abstract method for adding a vertex.
+	 * Double the vertex arrays when they are full.
+	 */
+	public void implementAddVertex() {
+		int v = getNumVertices();
+		if (v == outRows.length) {
+			outRows = Arrays.copyOf(outRows, v * 2);
+			inRows = Arrays.copyOf(inRows, v * 2);
+			outDegree = Arrays.copyOf(outDegree, v * 2);
+			inDegree = Arrays.copyOf(inDegree, v * 2);
+			extraOut = Arrays.copyOf(extraOut, v * 2);
+			extraIn = Arrays.copyOf(extraIn, v * 2);
+		}
+		outRows[v] = new long[0];
+		inRows[v] = new long[0];
+	}
+
+	/**
+	 * Implement the abstract method for adding an edge.
+	 * @param v the index of the start point for the edge.
+	 * @param w the index of the end point for the edge.
+	 */
+	public void implementAddEdge(int v, int w) {
+		outDegree[v]++;
+		inDegree[w]++;
+		if (hasEdge(v, w)) {
+			addExtra(key(v, w));
+			extraOut[v]++;
+			extraIn[w]++;
+			return;
+		}
+		outRows[v] = setBit(outRows[v], w);
+		inRows[w] = setBit(inRows[w], v);
+	}
+
+	private static long[] setBit(long[] row, int i) {
+		int word = i >>> 6;
+		if (word >= row.length) row = Arrays.copyOf(row, Math.max(word + 1, row.length * 2));
+		row[word] |= 1L << i;
+		return row;
+	}
+
+	private static long key(int v, int w) {
+		return (long) v << 32 | w;
+	}
+
+	// Return the slot of key in the table, or the empty slot where it belongs.
+	private int slot(long key) {
+		int mask = extraKeys.length - 1;
+		int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (extraKeys[i] != -1 && extraKeys[i] != key) i = (i + 1) & mask;
+		return i;
+	}
+
+	private void addExtra(long key) {
+		if (2 * (numExtra + 1) > extraKeys.length) {
+			long[] keys = extraKeys;
+			int[] counts = extraCounts;
+			extraKeys = new long[keys.length * 2];
+			extraCounts = new int[keys.length * 2];
+			Arrays.fill(extraKeys, -1);
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == -1) continue;
+				int j = slot(keys[i]);
+				extraKeys[j] = keys[i];
+				extraCounts[j] = counts[i];
+			}
+		}
+		int i = slot(key);
+		if (extraKeys[i] == -1) {
+			extraKeys[i] = key;
+			numExtra++;
+		}
+		extraCounts[i]++;
+	}
+
+	// Return the number of edges for key beyond the first.
+	private int getExtra(long key) {
+		int i = slot(key);
+		return extraKeys[i] == -1 ? 0 : extraCounts[i];
+	}
+
+	/**
+	 * Return true if there is at least one edge from v to w.
+	 * @param v the index of the start point.
+	 * @param w the index of the end point.
+	 */
+	public boolean hasEdge(int v, int w) {
+		long[] row = outRows[v];
+		int word = w >>> 6;
+		return word < row.length && (row[word] & (1L << w)) != 0;
+	}
+
+	/**
+	 * Return the number of edges leaving v.
+	 * @param v the index of vertex.
+	 */
+	public int outDegree(int v) {
+		return outDegree[v];
+	}
+
+	/**
+	 * Return the number of edges ending at v.
+	 * @param v the index of vertex.
+	 */
+	public int inDegree(int v) {
+		return inDegree[v];
+	}
+
+	/**
+	 * Call action with each out-neighbor of v, scanning its row 64 vertices at a time.
+	 * @param v the index of vertex.
+	 * @param action what to do with each neighbor.
+	 */
+	public void forEachNeighbor(int v, IntConsumer action) {
+		forEachInRow(outRows[v], v, extraOut[v] > 0, true, action);
+	}
+
+	/**
+	 * Call action with each in-neighbor of v, scanning its column 64 vertices at a time.
+	 * @param v the index of vertex.
+	 * @param action what to do with each in-neighbor.
+	 */
+	public void forEachInNeighbor(int v, IntConsumer action) {
+		forEachInRow(inRows[v], v, extraIn[v] > 0, false, action);
+	}
+
+	/**
+	 * Copy the out-neighbors of v into buffer.
+	 * @param v the index of vertex.
+	 * @param buffer array of length at least outDegree(v).
+	 * @return the number of neighbors copied.
+	 */
+	public int getNeighbors(int v, int[] buffer) {
+		int count = 0;
+		long[] row = outRows[v];
+		for (int word = 0; word < row.length; word++) {
+			long bits = row[word];
+			while (bits != 0) {
+				int w = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				buffer[count++] = w;
+				if (extraOut[v] > 0) {
+					for (int i = getExtra(key(v, w)); i > 0; i--) buffer[count++] = w;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Implement the abstract method for finding all
+	 * out-neighbors of a vertex.
+	 * If there are multiple edges between the vertex
+	 * and one of its out-neighbors, this neighbor
+	 * appears once in the list for each of these edges.
+	 *
+	 * @param v the index of vertex.
+	 * @return List<Integer> a list of indices of vertices.
+	 */
+	public List<Integer> getNeighbors(int v) {
+		List<Integer> neighbors = new ArrayList<Integer>(outDegree[v]);
+		forEachInRow(outRows[v], v, extraOut[v] > 0, true, neighbors::add);
+		return neighbors;
+	}
+
+	/**
+	 * Implement the abstract method for finding all
+	 * in-neighbors of a vertex.
+	 * If there are multiple edges from another vertex
+	 * to this one, the neighbor
+	 * appears once in the list for each of these edges.
+	 *
+	 * @param v the index of vertex.
+	 * @return List<Integer> a list of indices of vertices.
+	 */
+	public List<Integer> getInNeighbors(int v) {
+		List<Integer> inNeighbors = new ArrayList<Integer>(inDegree[v]);
+		forEachInRow(inRows[v], v, extraIn[v] > 0, false, inNeighbors::add);
+		return inNeighbors;
+	}
+
+	// Call action with the vertices of a row, each once per edge.
+	private void forEachInRow(long[] row, int v, boolean hasExtra, boolean out, IntConsumer action) {
+		for (int word = 0; word < row.length; word++) {
+			long bits = row[word];
+			while (bits != 0) {
+				int w = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				action.accept(w);
+				if (hasExtra) {
+					for (int i = getExtra(out ? key(v, w) : key(w, v)); i > 0; i--) action.accept(w);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return list of vertices for graph.
+	 */
+	public List<Integer> getVertices() {
+		List<Integer> vertices = new ArrayList<Integer>(getNumVertices());
+		for (int v = 0; v < getNumVertices(); v++) vertices.add(v);
+		return vertices;
+	}
+
+	/**
+	 * Find all vertices reachable by two hops from v.  A vertex appears
+	 * once for each path of two edges to it, as in the other graphs.
+	 *
+	 * @param v the index of vertex.
+	 * @return List<Integer> a list of indices of vertices.
+	 */
+	public List<Integer> getDistance2(int v) {
+		List<Integer> hop2Vertices = new ArrayList<Integer>();
+		forEachNeighbor(v, w -> forEachInRow(outRows[w], w, extraOut[w] > 0, true, hop2Vertices::add));
+		return hop2Vertices;
+	}
+
+	/**
+	 * Generate string representation of the bit matrix
+	 * @return the String
+	 */
+	public String adjacencyString() {
+		StringBuilder s = new StringBuilder("Bit matrix");
+		s.append(" (" + numExtra + " parallel edge counts):");
+		for (int v = 0; v < getNumVertices(); v++) {
+			s.append("\n\t" + v + ": ");
+			for (int w = 0; w < getNumVertices(); w++) s.append(hasEdge(v, w) ? '1' : '0');
+		}
+		return s.toString();
+	}
+}
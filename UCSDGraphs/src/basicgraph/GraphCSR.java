@@ -0,0 +1,229 @@
+package basicgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/** A class that implements a directed graph.
+ * The graph may have self-loops, parallel edges.
+ * Vertices are labeled by integers 0 .. n-1
+ * and may also have String labels.
+ * The edges of the graph are not labeled.
+ * Representation of edges via compressed sparse rows (CSR):
+ * the out-neighbors of v are outTarget[outStart[v] .. outStart[v+1]-1]
+ * and its in-neighbors inSource[inStart[v] .. inStart[v+1]-1],
+ * in the order the edges were added.
+ *
+ * Edges are appended to an edge list as they are added, and the rows
+ * are built from it (in O(n + m)) by the first query after a change.
+ * The graph is meant to be loaded and then queried; mixing many adds
+ * with queries rebuilds the rows each time.  Queries then take time
+ * proportional to the size of their answer, rather than to the number
+ * of vertices or edges.
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class GraphCSR extends Graph {
+
+	private int[] edgeFrom;		// edges in the order added
+	private int[] edgeTo;
+	private int numAdded;
+
+	private int[] outStart;
+	private int[] outTarget;
+	private int[] inStart;
+	private int[] inSource;
+	private int builtVertices;	// the size of the graph when the rows were built
+	private int builtEdges;
+
+	/** Create a new empty Graph */
+	public GraphCSR() {
+		edgeFrom = new int[16];
+		edgeTo = new int[16];
+		outStart = new int[1];
+		inStart = new int[1];
+		outTarget = new int[0];
+		inSource = new int[0];
+	}
+
+	/**
+	 * Implement the abstract method for adding a vertex.
+	 * The vertex gets empty rows when the rows are next built.
+	 */
+	public void implementAddVertex() {
+	}
+
+	/**
+	 * Implement the abstract method for adding an edge.
+	 * @param v the index of the start point for the edge.
+	 * @param w the index of the end point for the edge.
+	 */
+	public void implementAddEdge(int v, int w) {
+		if (numAdded == edgeFrom.length) {
+			edgeFrom = Arrays.copyOf(edgeFrom, numAdded * 2);
+			edgeTo = Arrays.copyOf(edgeTo, numAdded * 2);
+		}
+		edgeFrom[numAdded] = v;
+		edgeTo[numAdded] = w;
+		numAdded++;
+	}
+
+	// Build the rows from the edge list, by counting sort, if edges or
+	// vertices were added since they were last built.
+	private void build() {
+		int n = getNumVertices();
+		if (builtVertices == n && builtEdges == numAdded) return;
+		outStart = new int[n + 1];
+		inStart = new int[n + 1];
+		for (int e = 0; e < numAdded; e++) {
+			outStart[edgeFrom[e] + 1]++;
+			inStart[edgeTo[e] + 1]++;
+		}
+		for (int v = 0; v < n; v++) {
+			outStart[v + 1] += outStart[v];
+			inStart[v + 1] += inStart[v];
+		}
+		outTarget = new int[numAdded];
+		inSource = new int[numAdded];
+		int[] nextOut = Arrays.copyOf(outStart, n);
+		int[] nextIn = Arrays.copyOf(inStart, n);
+		for (int e = 0; e < numAdded; e++) {
+			outTarget[nextOut[edgeFrom[e]]++] = edgeTo[e];
+			inSource[nextIn[edgeTo[e]]++] = edgeFrom[e];
+		}
+		builtVertices = n;
+		builtEdges = numAdded;
+	}
+
+	/**
+	 * Return the number of edges leaving v.
+	 * @param v the index of vertex.
+	 */
+	public int outDegree(int v) {
+		build();
+		return outStart[v + 1] - outStart[v];
+	}
+
+	/**
+	 * Return the number of edges ending at v.
+	 * @param v the index of vertex.
+	 */
+	public int inDegree(int v) {
+		build();
+		return inStart[v + 1] - inStart[v];
+	}
+
+	/**
+	 * Call action with each out-neighbor of v, in the order the edges were added.
+	 * @param v the index of vertex.
+	 * @param action what to do with each neighbor.
+	 */
+	public void forEachNeighbor(int v, IntConsumer action) {
+		build();
+		for (int e = outStart[v]; e < outStart[v + 1]; e++) action.accept(outTarget[e]);
+	}
+
+	/**
+	 * Call action with each in-neighbor of v, in the order the edges were added.
+	 * @param v the index of vertex.
+	 * @param action what to do with each in-neighbor.
+	 */
+	public void forEachInNeighbor(int v, IntConsumer action) {
+		build();
+		for (int e = inStart[v]; e < inStart[v + 1]; e++) action.accept(inSource[e]);
+	}
+
+	/**
+	 * Copy the out-neighbors of v, a slice of the rows, into buffer.
+	 * @param v the index of vertex.
+	 * @param buffer array of length at least outDegree(v).
+	 * @return the number of neighbors copied.
+	 */
+	public int getNeighbors(int v, int[] buffer) {
+		build();
+		int count = outStart[v + 1] - outStart[v];
+		System.arraycopy(outTarget, outStart[v], buffer, 0, count);
+		return count;
+	}
+
+	/**
+	 * Implement the abstract method for finding all
+	 * out-neighbors of a vertex.
+	 * If there are multiple edges between the vertex
+	 * and one of its out-neighbors, this neighbor
+	 * appears once in the list for each of these edges.
+	 *
+	 * @param v the index of vertex.
+	 * @return List<Integer> a list of indices of vertices.
+	 */
+	public List<Integer> getNeighbors(int v) {
+		build();
+		return slice(outTarget, outStart[v], outStart[v + 1]);
+	}
+
+	/**
+	 * Implement the abstract method for finding all
+	 * in-neighbors of a vertex.
+	 * If there are multiple edges from another vertex
+	 * to this one, the neighbor
+	 * appears once in the list for each of these edges.
+	 *
+	 * @param v the index of vertex.
+	 * @return List<Integer> a list of indices of vertices.
+	 */
+	public List<Integer> getInNeighbors(int v) {
+		build();
+		return slice(inSource, inStart[v], inStart[v + 1]);
+	}
+
+	private static List<Integer> slice(int[] values, int begin, int end) {
+		List<Integer> list = new ArrayList<Integer>(end - begin);
+		for (int i = begin; i < end; i++) list.add(values[i]);
+		return list;
+	}
+
+	/**
+	 * @return list of vertices for graph.
+	 */
+	public List<Integer> getVertices() {
+		List<Integer> vertices = new ArrayList<Integer>(getNumVertices());
+		for (int v = 0; v < getNumVertices(); v++) vertices.add(v);
+		return vertices;
+	}
+
+	/**
+	 * Find all vertices reachable by two hops from v.  A vertex appears
+	 * once for each path of two edges to it, as in the other graphs.
+	 *
+	 * @param v the index of vertex.
+	 * @return List<Integer> a list of indices of vertices.
+	 */
+	public List<Integer> getDistance2(int v) {
+		build();
+		int size = 0;
+		for (int e = outStart[v]; e < outStart[v + 1]; e++) size += outDegree(outTarget[e]);
+		List<Integer> hop2Vertices = new ArrayList<Integer>(size);
+		for (int e = outStart[v]; e < outStart[v + 1]; e++) {
+			int w = outTarget[e];
+			for (int f = outStart[w]; f < outStart[w + 1]; f++) hop2Vertices.add(outTarget[f]);
+		}
+		return hop2Vertices;
+	}
+
+	/**
+	 * Generate string representation of the rows
+	 * @return the String
+	 */
+	public String adjacencyString() {
+		build();
+		StringBuilder s = new StringBuilder("Compressed sparse rows");
+		s.append(" (size 2*" + (getNumVertices() + 1) + "+2*" + numAdded + " integers):");
+		for (int v = 0; v < getNumVertices(); v++) {
+			s.append("\n\t" + v + ": ");
+			for (int e = outStart[v]; e < outStart[v + 1]; e++) s.append(outTarget[e] + ", ");
+		}
+		return s.toString();
+	}
+}
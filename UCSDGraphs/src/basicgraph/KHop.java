@@ -0,0 +1,259 @@
+package basicgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import util.GraphLoader;
+
+/** Answers k-hop neighborhood queries on a graph: the distinct vertices
+ * w != v that can be reached from v by following at most k edges.
+ * (Graph.getDistance2 instead lists every walk of exactly two edges,
+ * with repeats.)
+ *
+ * The graph's out-edges are copied once into compressed sparse rows.
+ * A single query is a breadth first search whose frontier and visited
+ * set are bitsets, so each of the k levels costs the edges leaving the
+ * frontier plus n/64 words.  Batched queries run 64 sources at once
+ * (multi-source BFS): bit i of seen[w] says that source i has reached w,
+ * and one pass over the edges advances all 64 searches, since
+ * next[w] |= frontier[v] moves every search that is at v together.
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class KHop {
+
+	private final int n;
+	private final int[] start;		// out-neighbors of v are target[start[v] .. start[v+1]-1]
+	private final int[] target;
+
+	/**
+	 * Copy the out-edges of a graph.  Later changes to the graph are not seen.
+	 * @param graph the graph to query.
+	 */
+	public KHop(Graph graph) {
+		GraphArrays arrays = new GraphArrays(graph);
+		n = arrays.n;
+		start = arrays.outStart;
+		target = arrays.outTarget;
+	}
+
+	/**
+	 * Return the vertices within k hops of v, not counting v itself.
+	 * @param v the starting vertex.
+	 * @param k the largest number of edges to follow.
+	 * @return the vertices in increasing order.
+	 */
+	public int[] kHop(int v, int k) {
+		long[] visited = search(v, k);
+		int count = 0;
+		for (long word : visited) count += Long.bitCount(word);
+		int[] result = new int[count];
+		int i = 0;
+		for (int word = 0; word < visited.length; word++) {
+			for (long bits = visited[word]; bits != 0; bits &= bits - 1) {
+				result[i++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the number of vertices within k hops of v, not counting v itself.
+	 * @param v the starting vertex.
+	 * @param k the largest number of edges to follow.
+	 */
+	public int count(int v, int k) {
+		int count = 0;
+		for (long word : search(v, k)) count += Long.bitCount(word);
+		return count;
+	}
+
+	// Breadth first search from v for k levels; return the bitset of vertices
+	// reached, without v.
+	private long[] search(int v, int k) {
+		checkArguments(v, k);
+		int words = (n + 63) >>> 6;
+		long[] visited = new long[words];
+		long[] frontier = new long[words];
+		long[] next = new long[words];
+		visited[v >>> 6] |= 1L << v;
+		frontier[v >>> 6] |= 1L << v;
+		boolean active = true;
+		for (int level = 0; level < k && active; level++) {
+			active = false;
+			for (int word = 0; word < words; word++) {
+				for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+					int u = (word << 6) + Long.numberOfTrailingZeros(bits);
+					for (int e = start[u]; e < start[u + 1]; e++) {
+						int w = target[e];
+						long bit = 1L << w;
+						if ((visited[w >>> 6] & bit) == 0) {
+							visited[w >>> 6] |= bit;
+							next[w >>> 6] |= bit;
+							active = true;
+						}
+					}
+				}
+			}
+			long[] t = frontier;
+			frontier = next;
+			next = t;
+			Arrays.fill(next, 0);
+		}
+		visited[v >>> 6] &= ~(1L << v);
+		return visited;
+	}
+
+	private void checkArguments(int v, int k) {
+		if (v < 0 || v >= n) throw new IndexOutOfBoundsException("No vertex " + v);
+		if (k < 0) throw new IllegalArgumentException("k must be at least 0");
+	}
+
+	/**
+	 * Return, for each source, the number of vertices within k hops of it,
+	 * not counting the source itself.  Sources are searched 64 at a time.
+	 * @param sources the starting vertices; repeats are allowed.
+	 * @param k the largest number of edges to follow.
+	 */
+	public int[] counts(int[] sources, int k) {
+		int[] counts = new int[sources.length];
+		for (int first = 0; first < sources.length; first += 64) {
+			int batch = Math.min(64, sources.length - first);
+			long[] seen = multiSourceSearch(sources, first, batch, k);
+			for (int w = 0; w < n; w++) {
+				for (long bits = seen[w]; bits != 0; bits &= bits - 1) {
+					counts[first + Long.numberOfTrailingZeros(bits)]++;
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Return, for each source, the vertices within k hops of it, not counting
+	 * the source itself.  Sources are searched 64 at a time.
+	 * @param sources the starting vertices; repeats are allowed.
+	 * @param k the largest number of edges to follow.
+	 * @return one array per source, each in increasing order.
+	 */
+	public int[][] kHop(int[] sources, int k) {
+		int[][] result = new int[sources.length][];
+		int[] filled = new int[64];
+		for (int first = 0; first < sources.length; first += 64) {
+			int batch = Math.min(64, sources.length - first);
+			long[] seen = multiSourceSearch(sources, first, batch, k);
+			int[] counts = new int[batch];
+			for (int w = 0; w < n; w++) {
+				for (long bits = seen[w]; bits != 0; bits &= bits - 1) counts[Long.numberOfTrailingZeros(bits)]++;
+			}
+			for (int i = 0; i < batch; i++) result[first + i] = new int[counts[i]];
+			Arrays.fill(filled, 0);
+			for (int w = 0; w < n; w++) {
+				for (long bits = seen[w]; bits != 0; bits &= bits - 1) {
+					int i = Long.numberOfTrailingZeros(bits);
+					result[first + i][filled[i]++] = w;
+				}
+			}
+		}
+		return result;
+	}
+
+	// Search from sources[first .. first+batch-1] together for k levels.
+	// Return seen, where bit i of seen[w] is set if source first+i reached w;
+	// each source's own bit is cleared at the source.
+	private long[] multiSourceSearch(int[] sources, int first, int batch, int k) {
+		long[] seen = new long[n];
+		long[] frontier = new long[n];
+		long[] next = new long[n];
+		for (int i = 0; i < batch; i++) {
+			checkArguments(sources[first + i], k);
+			seen[sources[first + i]] |= 1L << i;
+			frontier[sources[first + i]] |= 1L << i;
+		}
+		boolean active = true;
+		for (int level = 0; level < k && active; level++) {
+			for (int v = 0; v < n; v++) {
+				long bits = frontier[v];
+				if (bits == 0) continue;
+				for (int e = start[v]; e < start[v + 1]; e++) next[target[e]] |= bits;
+			}
+			active = false;
+			for (int w = 0; w < n; w++) {
+				long reached = next[w] & ~seen[w];
+				seen[w] |= reached;
+				frontier[w] = reached;
+				next[w] = 0;
+				if (reached != 0) active = true;
+			}
+		}
+		for (int i = 0; i < batch; i++) seen[sources[first + i]] &= ~(1L << i);
+		return seen;
+	}
+
+	// Count the vertices within k hops of v with hash sets of boxed neighbors,
+	// for checking the bitset searches.
+	private static int countWithSets(Graph graph, int v, int k) {
+		HashSet<Integer> visited = new HashSet<Integer>();
+		List<Integer> frontier = new ArrayList<Integer>();
+		visited.add(v);
+		frontier.add(v);
+		for (int level = 0; level < k; level++) {
+			List<Integer> next = new ArrayList<Integer>();
+			for (int u : frontier) {
+				for (int w : graph.getNeighbors(u)) {
+					if (visited.add(w)) next.add(w);
+				}
+			}
+			frontier = next;
+		}
+		return visited.size() - 1;
+	}
+
+	/**
+	 * Find the 3-hop reach of every airport in the OpenFlights routes file,
+	 * with hash sets, single-source bitset searches and 64-source searches.
+	 */
+	public static void main(String[] args) {
+		GraphCSR graph = new GraphCSR();
+		GraphLoader.loadRoutes(GraphBenchmark.ALL_ROUTES, graph);
+		int n = graph.getNumVertices();
+		int k = 3;
+		int[] all = new int[n];
+		for (int v = 0; v < n; v++) all[v] = v;
+		System.out.println(n + " airports, " + graph.getNumEdges() + " routes; reach within " + k + " flights:");
+
+		for (int round = 0; round < 3; round++) {
+			long t0 = System.nanoTime();
+			int[] expected = new int[n];
+			for (int v = 0; v < n; v++) expected[v] = countWithSets(graph, v, k);
+			long t1 = System.nanoTime();
+			KHop hops = new KHop(graph);
+			int[] single = new int[n];
+			for (int v = 0; v < n; v++) single[v] = hops.count(v, k);
+			long t2 = System.nanoTime();
+			int[] batched = hops.counts(all, k);
+			long t3 = System.nanoTime();
+			int[][] lists = hops.kHop(all, k);
+			long t4 = System.nanoTime();
+
+			int mismatches = 0;
+			for (int v = 0; v < n; v++) {
+				if (single[v] != expected[v] || batched[v] != expected[v] || lists[v].length != expected[v]) mismatches++;
+			}
+			if (!Arrays.equals(lists[0], hops.kHop(0, k))) mismatches++;
+			System.out.printf("\thash sets %.1f ms, bitset BFS %.1f ms, 64-source BFS counts %.1f ms, lists %.1f ms; %d mismatches%n",
+					(t1 - t0) / 1e6, (t2 - t1) / 1e6, (t3 - t2) / 1e6, (t4 - t3) / 1e6, mismatches);
+			if (round == 2) {
+				Integer[] order = new Integer[n];
+				for (int v = 0; v < n; v++) order[v] = v;
+				Arrays.sort(order, (a, b) -> batched[b] - batched[a]);
+				StringBuilder top = new StringBuilder("\tWidest reach:");
+				for (int i = 0; i < 5; i++) top.append(" " + graph.getLabel(order[i]) + " " + batched[order[i]] + ",");
+				System.out.println(top.substring(0, top.length() - 1));
+			}
+		}
+	}
+}
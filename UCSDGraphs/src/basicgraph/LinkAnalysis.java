@@ -0,0 +1,317 @@
+package basicgraph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import util.GraphLoader;
+
+/** Ranks the vertices of a graph by its links: PageRank, and HITS hub and
+ * authority scores.
+ *
+ * Both are power iterations over a copy of the graph in primitive arrays
+ * (GraphArrays).  Each iteration pulls along the in-edges of every vertex,
+ * in parallel over chunks of vertices on a fork-join pool, so no two
+ * threads write the same score; sums over all vertices are kept per chunk
+ * and added in chunk order, so the scores do not depend on the number of
+ * threads.  Iteration stops when the scores change by less than a
+ * tolerance (in L1 norm), or after a maximum number of iterations.
+ *
+ * PageRank gives the rank of dangling vertices (with no out-edges) to
+ * every vertex equally, so the ranks always sum to 1.  Parallel edges
+ * count once each.
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class LinkAnalysis {
+	public static final double DAMPING = 0.85;
+	public static final double TOLERANCE = 1e-10;
+	public static final int MAX_ITERATIONS = 200;
+
+	private final GraphArrays arrays;
+	private final ForkJoinPool pool;
+	private int iterations;		// of the last computation
+	private double residual;	// L1 change in the last iteration
+
+	/**
+	 * Copy a graph to analyze.  Later changes to the graph are not seen.
+	 * @param graph the graph to analyze.
+	 * @param pool the pool that runs the iterations.
+	 */
+	public LinkAnalysis(Graph graph, ForkJoinPool pool) {
+		this.arrays = new GraphArrays(graph);
+		this.pool = pool;
+	}
+
+	/** Return the number of iterations the last computation took */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/** Return the L1 change in the scores in the last iteration */
+	public double getResidual() {
+		return residual;
+	}
+
+	/** Return the PageRank of each vertex, with the default damping and tolerance */
+	public double[] pageRank() {
+		return pageRank(DAMPING, TOLERANCE, MAX_ITERATIONS);
+	}
+
+	/**
+	 * Return the PageRank of each vertex: the chance that a surfer who follows a
+	 * random out-edge with probability damping, and otherwise jumps to a random
+	 * vertex, is at that vertex.
+	 * @param damping the chance of following an edge, from 0 to 1.
+	 * @param tolerance stop when the ranks change by less than this, in L1 norm.
+	 * @param maxIterations stop after this many iterations in any case.
+	 * @return the ranks, which sum to 1.
+	 */
+	public double[] pageRank(double damping, double tolerance, int maxIterations) {
+		if (damping < 0 || damping > 1) throw new IllegalArgumentException("Damping must be from 0 to 1");
+		int n = arrays.n;
+		int[] outStart = arrays.outStart;
+		int[] inStart = arrays.inStart;
+		int[] inSource = arrays.inSource;
+		double[] rank = new double[n];
+		double[] next = new double[n];
+		double[] share = new double[n];		// rank[u] / outDegree(u), or 0 if u is dangling
+		double[] danglingParts = new double[arrays.numChunks()];
+		double[] changeParts = new double[arrays.numChunks()];
+		Arrays.fill(rank, 1.0 / n);
+
+		arrays.forEachChunk(pool, "PageRank", (c, from, to) -> {
+			double dangling = 0;
+			for (int v = from; v < to; v++) {
+				int degree = outStart[v + 1] - outStart[v];
+				if (degree == 0) dangling += rank[v];
+				else share[v] = rank[v] / degree;
+			}
+			danglingParts[c] = dangling;
+		});
+
+		iterations = 0;
+		residual = Double.POSITIVE_INFINITY;
+		double[] current = rank;
+		while (iterations < maxIterations && residual >= tolerance) {
+			double base = (1 - damping) / n + damping * sum(danglingParts) / n;
+			double[] old = current;
+			double[] updated = current == rank ? next : rank;
+			arrays.forEachChunk(pool, "PageRank", (c, from, to) -> {
+				double change = 0;
+				for (int v = from; v < to; v++) {
+					double sum = 0;
+					for (int e = inStart[v]; e < inStart[v + 1]; e++) sum += share[inSource[e]];
+					updated[v] = base + damping * sum;
+					change += Math.abs(updated[v] - old[v]);
+				}
+				changeParts[c] = change;
+			});
+			// Shares are only read in the pass above, so they can be updated now.
+			arrays.forEachChunk(pool, "PageRank", (c, from, to) -> {
+				double dangling = 0;
+				for (int v = from; v < to; v++) {
+					int degree = outStart[v + 1] - outStart[v];
+					if (degree == 0) dangling += updated[v];
+					else share[v] = updated[v] / degree;
+				}
+				danglingParts[c] = dangling;
+			});
+			current = updated;
+			residual = sum(changeParts);
+			iterations++;
+		}
+		return current;
+	}
+
+	/** Return {hub scores, authority scores}, with the default tolerance */
+	public double[][] hits() {
+		return hits(TOLERANCE, MAX_ITERATIONS);
+	}
+
+	/**
+	 * Return the HITS hub and authority scores of each vertex.  A vertex's
+	 * authority is the sum of the hub scores of the vertices linking to it, and
+	 * its hub score the sum of the authorities it links to; each is scaled to
+	 * unit length (L2 norm) after every step.
+	 * @param tolerance stop when hubs and authorities together change by less
+	 * than this, in L1 norm.
+	 * @param maxIterations stop after this many iterations in any case.
+	 * @return {hub scores, authority scores}.
+	 */
+	public double[][] hits(double tolerance, int maxIterations) {
+		int n = arrays.n;
+		int[] outStart = arrays.outStart;
+		int[] outTarget = arrays.outTarget;
+		int[] inStart = arrays.inStart;
+		int[] inSource = arrays.inSource;
+		double[] hub = new double[n];
+		double[] authority = new double[n];
+		double[] raw = new double[n];
+		double[] parts = new double[arrays.numChunks()];
+		Arrays.fill(hub, 1 / Math.sqrt(n));
+
+		iterations = 0;
+		residual = Double.POSITIVE_INFINITY;
+		while (iterations < maxIterations && residual >= tolerance) {
+			arrays.forEachChunk(pool, "HITS", (c, from, to) -> {
+				double squares = 0;
+				for (int v = from; v < to; v++) {
+					double sum = 0;
+					for (int e = inStart[v]; e < inStart[v + 1]; e++) sum += hub[inSource[e]];
+					raw[v] = sum;
+					squares += sum * sum;
+				}
+				parts[c] = squares;
+			});
+			double change = normalize(raw, authority, parts, "HITS");
+
+			arrays.forEachChunk(pool, "HITS", (c, from, to) -> {
+				double squares = 0;
+				for (int u = from; u < to; u++) {
+					double sum = 0;
+					for (int e = outStart[u]; e < outStart[u + 1]; e++) sum += authority[outTarget[e]];
+					raw[u] = sum;
+					squares += sum * sum;
+				}
+				parts[c] = squares;
+			});
+			residual = change + normalize(raw, hub, parts, "HITS");
+			iterations++;
+		}
+		return new double[][] {hub, authority};
+	}
+
+	// Set scores to raw scaled to unit length, given the sums of squares of raw
+	// per chunk in parts; return the L1 change in scores.
+	private double normalize(double[] raw, double[] scores, double[] parts, String task) {
+		double length = Math.sqrt(sum(parts));
+		double scale = length == 0 ? 0 : 1 / length;
+		arrays.forEachChunk(pool, task, (c, from, to) -> {
+			double change = 0;
+			for (int v = from; v < to; v++) {
+				double score = raw[v] * scale;
+				change += Math.abs(score - scores[v]);
+				scores[v] = score;
+			}
+			parts[c] = change;
+		});
+		return sum(parts);
+	}
+
+	// Add the partial sums in chunk order.
+	private static double sum(double[] parts) {
+		double sum = 0;
+		for (double part : parts) sum += part;
+		return sum;
+	}
+
+	/**
+	 * Return the k vertices with the highest scores, highest first; ties go to
+	 * the lower vertex.
+	 * @param scores a score for each vertex.
+	 * @param k how many vertices to return, at most; none if k <= 0.
+	 */
+	public static int[] top(double[] scores, int k) {
+		if (k <= 0) return new int[0];
+		k = Math.min(k, scores.length);
+		int[] top = new int[k];
+		int size = 0;
+		for (int v = 0; v < scores.length; v++) {
+			if (size == k && scores[v] <= scores[top[k - 1]]) continue;
+			int i = size < k ? size++ : k - 1;
+			while (i > 0 && scores[top[i - 1]] < scores[v]) {
+				top[i] = top[i - 1];
+				i--;
+			}
+			top[i] = v;
+		}
+		return top;
+	}
+
+	// PageRank through the List<Integer> methods of Graph, one vertex at a
+	// time, for checking the parallel iteration.
+	private static double[] pageRankWithLists(Graph graph, double damping, double tolerance, int maxIterations) {
+		int n = graph.getNumVertices();
+		double[] rank = new double[n];
+		Arrays.fill(rank, 1.0 / n);
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			double dangling = 0;
+			for (int v = 0; v < n; v++) {
+				if (graph.getNeighbors(v).isEmpty()) dangling += rank[v];
+			}
+			double[] next = new double[n];
+			double change = 0;
+			for (int v = 0; v < n; v++) {
+				double sum = 0;
+				for (int u : graph.getInNeighbors(v)) sum += rank[u] / graph.getNeighbors(u).size();
+				next[v] = (1 - damping) / n + damping * (sum + dangling / n);
+				change += Math.abs(next[v] - rank[v]);
+			}
+			rank = next;
+			if (change < tolerance) break;
+		}
+		return rank;
+	}
+
+	private static void printTop(String title, Graph graph, double[] scores, int k) {
+		StringBuilder line = new StringBuilder("\t" + title + ":");
+		for (int v : top(scores, k)) {
+			String label = graph.getLabel(v);
+			line.append(String.format(" %s %.3g,", label == null ? Integer.toString(v) : label, scores[v]));
+		}
+		System.out.println(line.substring(0, line.length() - 1));
+	}
+
+	// Time PageRank and HITS on a graph, a few times so the last times are of compiled code.
+	private static LinkAnalysis time(String name, Graph graph, ForkJoinPool pool, double[][] results) {
+		LinkAnalysis analysis = new LinkAnalysis(graph, pool);
+		double pageRankMs = 0, hitsMs = 0;
+		int pageRankIterations = 0;
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			results[0] = analysis.pageRank();
+			pageRankMs = (System.nanoTime() - start) / 1e6;
+			pageRankIterations = analysis.getIterations();
+			start = System.nanoTime();
+			double[][] hits = analysis.hits();
+			hitsMs = (System.nanoTime() - start) / 1e6;
+			results[1] = hits[0];
+			results[2] = hits[1];
+		}
+		System.out.printf("%s: %d vertices, %d edges, %d threads%n\tPageRank %d iterations %.1f ms; HITS %d iterations %.1f ms%n",
+				name, graph.getNumVertices(), graph.getNumEdges(), pool.getParallelism(),
+				pageRankIterations, pageRankMs, analysis.getIterations(), hitsMs);
+		return analysis;
+	}
+
+	/**
+	 * Rank the airports of the OpenFlights routes file, checking PageRank
+	 * against a simple version, then time a random graph of a million
+	 * vertices and ten million edges.
+	 */
+	public static void main(String[] args) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		GraphCSR routes = new GraphCSR();
+		GraphLoader.loadRoutes(GraphBenchmark.ALL_ROUTES, routes);
+		double[][] results = new double[3][];
+		time(GraphBenchmark.ALL_ROUTES, routes, pool, results);
+
+		long start = System.nanoTime();
+		double[] expected = pageRankWithLists(routes, DAMPING, TOLERANCE, MAX_ITERATIONS);
+		double listMs = (System.nanoTime() - start) / 1e6;
+		double error = 0;
+		for (int v = 0; v < expected.length; v++) error = Math.max(error, Math.abs(expected[v] - results[0][v]));
+		System.out.printf("\tPageRank through List<Integer>s %.1f ms; largest difference %.2e%n", listMs, error);
+		printTop("PageRank", routes, results[0], 10);
+		printTop("Hubs", routes, results[1], 10);
+		printTop("Authorities", routes, results[2], 10);
+
+		Graph random = GraphBenchmark.randomGraph(new GraphCSR(), 1000000, 10000000, 46);
+		time("\nRandom graph", random, pool, results);
+		printTop("PageRank", random, results[0], 5);
+		List<Integer> degrees = random.degreeSequence();
+		System.out.println("\tLargest degrees: " + degrees.subList(0, 5));
+	}
+}
@@ -0,0 +1,293 @@
+package basicgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import util.GraphLoader;
+
+/** Counts the triangles of a graph, and its clustering coefficients.
+ * Triangles are those of the simple undirected graph underneath:
+ * edge directions, self-loops and parallel edges are ignored, so
+ * u, v, w form a triangle if each pair is joined by an edge either way.
+ *
+ * The undirected neighbors of each vertex are sorted by number.  Each
+ * edge is then kept only at the end of lower degree (ties by number), so
+ * every vertex keeps at most about sqrt(2m) neighbors, and each triangle
+ * is found exactly once, from its lowest vertex v: for each kept neighbor
+ * u of v, the triangles are the vertices kept by both v and u, found by
+ * merging the two sorted lists, or by galloping through the longer one
+ * when it is much longer.  This takes O(m^1.5) time in the worst case.
+ *
+ * The vertices are processed in parallel over chunks of a fork-join pool.
+ * Each chunk counts triangles per vertex in an array no other running chunk
+ * is using, taken from a queue of spares (or made, if none is free) and
+ * put back when the chunk is done, so there are at most as many arrays as
+ * threads; the arrays are added at the end.
+ *
+ * @author Karen Blakemore
+ *
+ */
+public class Triangles {
+	private static final int GALLOP = 32;		// gallop when one list is this many times longer
+
+	private final int n;
+	private final int[] degree;			// undirected degree, without self-loops or repeats
+	private final long[] triangles;		// vertex -> triangles it is in
+	private final long numTriangles;
+
+	/**
+	 * Count the triangles of a graph.  Later changes to the graph are not seen.
+	 * @param graph the graph.
+	 * @param pool the pool to count on.
+	 */
+	public Triangles(Graph graph, ForkJoinPool pool) {
+		GraphArrays arrays = new GraphArrays(graph);
+		n = arrays.n;
+
+		// Sorted undirected neighbors, first in a list with room for repeats.
+		int[] roomStart = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			roomStart[v + 1] = roomStart[v] + arrays.outStart[v + 1] - arrays.outStart[v]
+					+ arrays.inStart[v + 1] - arrays.inStart[v];
+		}
+		int[] room = new int[roomStart[n]];
+		degree = new int[n];
+		arrays.forEachChunk(pool, "Triangle counting", (c, from, to) -> {
+			for (int v = from; v < to; v++) {
+				int out = arrays.outStart[v + 1] - arrays.outStart[v];
+				int in = arrays.inStart[v + 1] - arrays.inStart[v];
+				System.arraycopy(arrays.outTarget, arrays.outStart[v], room, roomStart[v], out);
+				System.arraycopy(arrays.inSource, arrays.inStart[v], room, roomStart[v] + out, in);
+				Arrays.sort(room, roomStart[v], roomStart[v + 1]);
+				int kept = 0;
+				for (int i = roomStart[v]; i < roomStart[v + 1]; i++) {
+					int u = room[i];
+					if (u != v && (kept == 0 || room[roomStart[v] + kept - 1] != u)) room[roomStart[v] + kept++] = u;
+				}
+				degree[v] = kept;
+			}
+		});
+
+		// Keep each edge at its lower end.
+		int[] higherStart = new int[n + 1];
+		arrays.forEachChunk(pool, "Triangle counting", (c, from, to) -> {
+			for (int v = from; v < to; v++) {
+				int count = 0;
+				for (int i = roomStart[v]; i < roomStart[v] + degree[v]; i++) {
+					if (below(v, room[i])) count++;
+				}
+				higherStart[v + 1] = count;
+			}
+		});
+		for (int v = 0; v < n; v++) higherStart[v + 1] += higherStart[v];
+		int[] higher = new int[higherStart[n]];
+		arrays.forEachChunk(pool, "Triangle counting", (c, from, to) -> {
+			for (int v = from; v < to; v++) {
+				int next = higherStart[v];
+				for (int i = roomStart[v]; i < roomStart[v] + degree[v]; i++) {
+					if (below(v, room[i])) higher[next++] = room[i];
+				}
+			}
+		});
+
+		List<long[]> counts = Collections.synchronizedList(new ArrayList<long[]>());
+		ConcurrentLinkedQueue<long[]> spare = new ConcurrentLinkedQueue<long[]>();
+		arrays.forEachChunk(pool, "Triangle counting", (c, from, to) -> {
+			long[] count = spare.poll();
+			if (count == null) {
+				count = new long[n];
+				counts.add(count);
+			}
+			for (int v = from; v < to; v++) {
+				for (int i = higherStart[v]; i < higherStart[v + 1]; i++) {
+					int u = higher[i];
+					int found = intersect(higher, higherStart[v], higherStart[v + 1],
+							higherStart[u], higherStart[u + 1], count);
+					count[v] += found;
+					count[u] += found;
+				}
+			}
+			spare.add(count);
+		});
+		triangles = new long[n];
+		for (long[] count : counts) {
+			for (int v = 0; v < n; v++) triangles[v] += count[v];
+		}
+		long total = 0;
+		for (long t : triangles) total += t;
+		numTriangles = total / 3;
+	}
+
+	// Return true if the edge v-u is kept at v: v has lower degree, or the same and a lower number.
+	private boolean below(int v, int u) {
+		return degree[v] < degree[u] || (degree[v] == degree[u] && v < u);
+	}
+
+	// Add 1 to count[w] for each w in both sorted ranges of lists; return how many there are.
+	private static int intersect(int[] lists, int aFrom, int aTo, int bFrom, int bTo, long[] count) {
+		if ((long) (aTo - aFrom) * GALLOP < bTo - bFrom) return gallop(lists, aFrom, aTo, bFrom, bTo, count);
+		if ((long) (bTo - bFrom) * GALLOP < aTo - aFrom) return gallop(lists, bFrom, bTo, aFrom, aTo, count);
+		int found = 0;
+		int i = aFrom, j = bFrom;
+		while (i < aTo && j < bTo) {
+			int a = lists[i], b = lists[j];
+			if (a < b) i++;
+			else if (a > b) j++;
+			else {
+				count[a]++;
+				found++;
+				i++;
+				j++;
+			}
+		}
+		return found;
+	}
+
+	// Intersect a short range with a long one, finding each element of the short range in
+	// the rest of the long one by doubling steps and then binary search.
+	private static int gallop(int[] lists, int shortFrom, int shortTo, int longFrom, int longTo, long[] count) {
+		int found = 0;
+		int j = longFrom;
+		for (int i = shortFrom; i < shortTo && j < longTo; i++) {
+			int x = lists[i];
+			int step = 1;
+			while (j + step < longTo && lists[j + step] < x) step <<= 1;
+			int k = Arrays.binarySearch(lists, j, Math.min(j + step + 1, longTo), x);
+			if (k >= 0) {
+				count[x]++;
+				found++;
+				j = k + 1;
+			}
+			else {
+				j = -k - 1;
+			}
+		}
+		return found;
+	}
+
+	/** Return the number of triangles */
+	public long getNumTriangles() {
+		return numTriangles;
+	}
+
+	/** Return the number of triangles each vertex is in */
+	public long[] getTriangles() {
+		return triangles.clone();
+	}
+
+	/** Return the undirected degree of each vertex, not counting self-loops or repeated edges */
+	public int[] getDegrees() {
+		return degree.clone();
+	}
+
+	/**
+	 * Return the local clustering coefficient of each vertex: the fraction of
+	 * pairs of its neighbors that are joined by an edge, or 0 if it has fewer
+	 * than two neighbors.
+	 */
+	public double[] localClustering() {
+		double[] clustering = new double[n];
+		for (int v = 0; v < n; v++) {
+			long pairs = (long) degree[v] * (degree[v] - 1) / 2;
+			clustering[v] = pairs == 0 ? 0 : (double) triangles[v] / pairs;
+		}
+		return clustering;
+	}
+
+	/** Return the average of the local clustering coefficients */
+	public double averageClustering() {
+		double sum = 0;
+		for (double c : localClustering()) sum += c;
+		return n == 0 ? 0 : sum / n;
+	}
+
+	/**
+	 * Return the global clustering coefficient (transitivity): three times the
+	 * number of triangles over the number of paths of two edges.
+	 */
+	public double globalClustering() {
+		long paths = 0;
+		for (int v = 0; v < n; v++) paths += (long) degree[v] * (degree[v] - 1) / 2;
+		return paths == 0 ? 0 : 3.0 * numTriangles / paths;
+	}
+
+	// Count triangles per vertex through the List<Integer> methods and hash sets of
+	// neighbors, checking every pair of neighbors: for checking the counts.
+	private static long[] trianglesWithSets(Graph graph) {
+		int n = graph.getNumVertices();
+		List<HashSet<Integer>> neighbors = new ArrayList<HashSet<Integer>>();
+		for (int v = 0; v < n; v++) {
+			HashSet<Integer> set = new HashSet<Integer>(graph.getNeighbors(v));
+			set.addAll(graph.getInNeighbors(v));
+			set.remove(v);
+			neighbors.add(set);
+		}
+		long[] triangles = new long[n];
+		for (int v = 0; v < n; v++) {
+			List<Integer> list = new ArrayList<Integer>(neighbors.get(v));
+			for (int i = 0; i < list.size(); i++) {
+				for (int j = i + 1; j < list.size(); j++) {
+					if (neighbors.get(list.get(i)).contains(list.get(j))) triangles[v]++;
+				}
+			}
+		}
+		return triangles;
+	}
+
+	// Count the triangles of a graph a few times, so the last time is of compiled code.
+	private static Triangles time(String name, Graph graph, ForkJoinPool pool) {
+		Triangles result = null;
+		double ms = 0;
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			result = new Triangles(graph, pool);
+			ms = (System.nanoTime() - start) / 1e6;
+		}
+		System.out.printf("%s: %d vertices, %d edges: %d triangles in %.1f ms on %d threads%n"
+				+ "\tglobal clustering %.4f, average local clustering %.4f%n",
+				name, graph.getNumVertices(), graph.getNumEdges(), result.getNumTriangles(), ms,
+				pool.getParallelism(), result.globalClustering(), result.averageClustering());
+		return result;
+	}
+
+	/**
+	 * Count the triangles of the OpenFlights airports, checking them against
+	 * hash sets, then of a random graph and of a graph with a few large hubs.
+	 */
+	public static void main(String[] args) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		GraphCSR routes = new GraphCSR();
+		GraphLoader.loadRoutes(GraphBenchmark.ALL_ROUTES, routes);
+		Triangles airports = time(GraphBenchmark.ALL_ROUTES, routes, pool);
+		long start = System.nanoTime();
+		long[] expected = trianglesWithSets(routes);
+		double setMs = (System.nanoTime() - start) / 1e6;
+		System.out.printf("\thash sets %.1f ms; %s%n", setMs,
+				Arrays.equals(expected, airports.getTriangles()) ? "same counts" : "ERROR: counts differ");
+		double[] clustering = airports.localClustering();
+		int[] degrees = airports.getDegrees();
+		StringBuilder line = new StringBuilder("\tClustering of the busiest airports:");
+		for (int v : LinkAnalysis.top(Arrays.stream(degrees).asDoubleStream().toArray(), 6)) {
+			line.append(String.format(" %s %.3f,", routes.getLabel(v), clustering[v]));
+		}
+		System.out.println(line.substring(0, line.length() - 1));
+
+		time("\nRandom graph", GraphBenchmark.randomGraph(new GraphCSR(), 1000000, 10000000, 48), pool);
+
+		// Each edge goes to one of 100 hubs one time in ten, so hubs have about 10^4 neighbors.
+		GraphCSR hubs = new GraphCSR();
+		Random random = new Random(48);
+		for (int v = 0; v < 1000000; v++) hubs.addVertex();
+		for (int e = 0; e < 10000000; e++) {
+			int w = random.nextInt(10) == 0 ? random.nextInt(100) : random.nextInt(1000000);
+			hubs.addEdge(random.nextInt(1000000), w);
+		}
+		time("\nGraph with 100 hubs", hubs, pool);
+	}
+}
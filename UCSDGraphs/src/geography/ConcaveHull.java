@@ -0,0 +1,203 @@
+package geography;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * ConcaveHull.java
+ *
+ * @author Karen Blakemore
+ *
+ * Computes a polygon that outlines a set of geographic points more tightly than their convex
+ * hull.  The polygon starts as the convex hull and is then "dug" inwards (Park and Oh, 2012):
+ * a hull edge of length L is replaced by two edges through the nearest inner point p when
+ * L / min(|a p|, |p b|) exceeds the concavity threshold, unless the new edges would cross
+ * the polygon.  Larger thresholds give smoother, more convex outlines.
+ *
+ * Points are first snapped to a grid of at most GRID_CELLS x GRID_CELLS cells, keeping one
+ * point per cell, so the digging works on at most c = 65,536 points however many are given
+ * (e.g., every intersection reachable from a depot).  Snapping is linear in the number of
+ * points, but digging is O(c^2): each of the O(c) edges it tries is checked against every
+ * point and every polygon edge.  A densely filled grid takes a few seconds; a coarser grid
+ * (smaller GRID_CELLS) is the way to make it cheaper.
+ */
+public class ConcaveHull {
+	private static final int GRID_CELLS = 256;	// points are snapped to at most 256 x 256 cells.
+
+	/**
+	 * Compute the outline of a set of points.
+	 * @param latitude - latitude of each point.
+	 * @param longitude - longitude of each point.
+	 * @param count - number of points to use from the arrays.
+	 * @param concavity - digging threshold; 2 is a typical value, larger is more convex.
+	 * @return the polygon vertices in counter-clockwise order (without repeating the first).
+	 */
+	public static List<GeographicPoint> compute(double[] latitude, double[] longitude, int count, double concavity) {
+		List<GeographicPoint> polygon = new ArrayList<GeographicPoint>();
+		if(count == 0) return polygon;
+
+		// Project to a plane where x and y distances are comparable.
+		double meanLat = 0;
+		for(int i=0; i < count; i++) meanLat += latitude[i];
+		double scale = Math.cos(Math.toRadians(meanLat / count));
+
+		double[][] pts = snapToGrid(latitude, longitude, count, scale);
+		int n = pts.length;
+		if(n < 4) {
+			for(double[] p: convexHullOrder(pts)) polygon.add(new GeographicPoint(p[1], p[0] / scale));
+			return polygon;
+		}
+
+		// Sort by x then y, and build the convex hull (monotone chain).
+		Arrays.sort(pts, new Comparator<double[]>() {
+			public int compare(double[] a, double[] b) {
+				return a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]);
+			}
+		});
+		int[] hull = convexHull(pts);
+
+		// The polygon is a circular linked list of point indices: next[i] follows i.
+		int[] next = new int[n];
+		boolean[] onHull = new boolean[n];
+		Arrays.fill(next, -1);
+		for(int i=0; i < hull.length; i++) {
+			next[hull[i]] = hull[(i + 1) % hull.length];
+			onHull[hull[i]] = true;
+		}
+
+		ArrayDeque<int[]> edges = new ArrayDeque<int[]>();
+		for(int i=0; i < hull.length; i++) edges.add(new int[] {hull[i], hull[(i + 1) % hull.length]});
+
+		while(!edges.isEmpty()) {
+			int[] edge = edges.remove();
+			int a = edge[0];
+			int b = edge[1];
+			if(next[a] != b) continue;		// edge was already dug.
+
+			double length = dist(pts[a], pts[b]);
+			int best = -1;
+			double bestDist = Double.POSITIVE_INFINITY;
+			for(int p=0; p < n; p++) {
+				if(onHull[p]) continue;
+				double d = segmentDist(pts[p], pts[a], pts[b]);
+				if(d < bestDist) {
+					bestDist = d;
+					best = p;
+				}
+			}
+			if(best == -1) continue;
+
+			double nearEnd = Math.min(dist(pts[a], pts[best]), dist(pts[best], pts[b]));
+			if(nearEnd > 0 && length / nearEnd > concavity && !crossesPolygon(pts, next, hull[0], a, b, best)) {
+				next[a] = best;
+				next[best] = b;
+				onHull[best] = true;
+				edges.add(new int[] {a, best});
+				edges.add(new int[] {best, b});
+			}
+		}
+
+		int start = hull[0];
+		int i = start;
+		do {
+			polygon.add(new GeographicPoint(pts[i][1], pts[i][0] / scale));
+			i = next[i];
+		} while(i != start);
+		return polygon;
+	}
+
+	// Snap points to a grid over their bounding box, keeping one point per cell.
+	// Returns {x, y} pairs with x = longitude * scale and y = latitude.
+	private static double[][] snapToGrid(double[] latitude, double[] longitude, int count, double scale) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i=0; i < count; i++) {
+			double x = longitude[i] * scale;
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, latitude[i]);
+			maxY = Math.max(maxY, latitude[i]);
+		}
+		double cell = Math.max(maxX - minX, maxY - minY) / GRID_CELLS;
+
+		HashMap<Long, double[]> cells = new HashMap<Long, double[]>();
+		for(int i=0; i < count; i++) {
+			double x = longitude[i] * scale;
+			long cx = cell > 0 ? (long)((x - minX) / cell) : 0;
+			long cy = cell > 0 ? (long)((latitude[i] - minY) / cell) : 0;
+			Long key = cx * (GRID_CELLS + 1) + cy;
+			if(!cells.containsKey(key)) cells.put(key, new double[] {x, latitude[i]});
+		}
+		return cells.values().toArray(new double[cells.size()][]);
+	}
+
+	// Return the convex hull of sorted points, as indices in counter-clockwise order.
+	private static int[] convexHull(double[][] pts) {
+		int n = pts.length;
+		int[] hull = new int[2 * n];
+		int k = 0;
+		for(int i=0; i < n; i++) {
+			while(k >= 2 && cross(pts[hull[k - 2]], pts[hull[k - 1]], pts[i]) <= 0) k--;
+			hull[k++] = i;
+		}
+		for(int i=n - 2, lower=k + 1; i >= 0; i--) {
+			while(k >= lower && cross(pts[hull[k - 2]], pts[hull[k - 1]], pts[i]) <= 0) k--;
+			hull[k++] = i;
+		}
+		return Arrays.copyOf(hull, Math.max(1, k - 1));
+	}
+
+	// Order up to three points as a convex polygon.
+	private static List<double[]> convexHullOrder(double[][] pts) {
+		List<double[]> list = new ArrayList<double[]>(Arrays.asList(pts));
+		if(list.size() == 3 && cross(pts[0], pts[1], pts[2]) < 0) {
+			list.set(1, pts[2]);
+			list.set(2, pts[1]);
+		}
+		return list;
+	}
+
+	// Return true if the edges a-p or p-b would cross an edge of the polygon other than a-b.
+	private static boolean crossesPolygon(double[][] pts, int[] next, int start, int a, int b, int p) {
+		int i = start;
+		do {
+			int j = next[i];
+			if(!(i == a && j == b)) {
+				if(i != a && j != a && intersects(pts[a], pts[p], pts[i], pts[j])) return true;
+				if(i != b && j != b && intersects(pts[p], pts[b], pts[i], pts[j])) return true;
+			}
+			i = j;
+		} while(i != start);
+		return false;
+	}
+
+	private static boolean intersects(double[] p1, double[] p2, double[] q1, double[] q2) {
+		double d1 = cross(q1, q2, p1);
+		double d2 = cross(q1, q2, p2);
+		double d3 = cross(p1, p2, q1);
+		double d4 = cross(p1, p2, q2);
+		return ((d1 > 0) != (d2 > 0)) && ((d3 > 0) != (d4 > 0));
+	}
+
+	private static double cross(double[] o, double[] a, double[] b) {
+		return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+	}
+
+	private static double dist(double[] a, double[] b) {
+		return Math.hypot(a[0] - b[0], a[1] - b[1]);
+	}
+
+	// Distance from p to the segment a-b.
+	private static double segmentDist(double[] p, double[] a, double[] b) {
+		double dx = b[0] - a[0];
+		double dy = b[1] - a[1];
+		double len2 = dx * dx + dy * dy;
+		double t = len2 == 0 ? 0 : ((p[0] - a[0]) * dx + (p[1] - a[1]) * dy) / len2;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(p[0] - (a[0] + t * dx), p[1] - (a[1] + t * dy));
+	}
+}
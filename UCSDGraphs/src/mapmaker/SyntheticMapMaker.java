@@ -0,0 +1,258 @@
+package mapmaker;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import geography.GeographicPoint;
+import roadgraph.FrozenMapGraph;
+
+/**
+ * Generates synthetic road networks for scale testing, in the .map format read by
+ * GraphLoader.loadRoadMap and in the binary format of FrozenMapGraph.
+ *
+ * The network is a grid of rows x cols intersections about 100 m apart, with each
+ * intersection moved randomly by up to a third of the spacing.  Every 32nd street is a
+ * primary road, every 8th a secondary and the ones halfway between them tertiary.  Streets
+ * 2 and 3 of each block of 8 are a pair of one-way streets running in opposite directions.
+ * A few residential segments are left out, which makes dead ends and irregular blocks.
+ * The same size and seed always give the same network.
+ */
+public class SyntheticMapMaker {
+    private static final double SPACING = 0.001;        // degrees between grid lines
+    private static final double JITTER = 0.33;          // fraction of the spacing
+    private static final double MISSING_RATE = 0.06;    // fraction of residential segments left out
+    private static final String[] TYPES = {"residential", "tertiary", "secondary", "primary"};
+
+    private final int rows;
+    private final int cols;
+    private final long seed;
+    private final double originLat;
+    private final double originLon;
+
+    /**
+     * @param rows number of east-west streets
+     * @param cols number of north-south avenues
+     * @param seed seed of the random layout
+     */
+    public SyntheticMapMaker(int rows, int cols, long seed) {
+        if (rows < 2 || cols < 2 || (long) rows * cols > Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("Invalid grid size " + rows + " x " + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.seed = seed;
+        this.originLat = 32.7;
+        this.originLon = -117.2;
+    }
+
+    /**
+     * Build the network as a graph snapshot.  Vertex r * cols + c is the intersection
+     * of street r and avenue c.
+     */
+    public FrozenMapGraph generate() {
+        int n = rows * cols;
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int v = r * cols + c;
+                lat[v] = quantize(originLat + (r + JITTER * (2 * random(v, 0) - 1)) * SPACING);
+                lon[v] = quantize(originLon + (c + JITTER * (2 * random(v, 1) - 1)) * SPACING);
+            }
+        }
+
+        int[] firstEdge = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            int count = 0;
+            for (int dir = 0; dir < 4; dir++) {
+                if (neighbor(v, dir) != -1) count++;
+            }
+            firstEdge[v + 1] = firstEdge[v] + count;
+        }
+
+        int m = firstEdge[n];
+        int[] target = new int[m];
+        double[] length = new double[m];
+        int[] type = new int[m];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            GeographicPoint from = new GeographicPoint(lat[v], lon[v]);
+            for (int dir = 0; dir < 4; dir++) {
+                int w = neighbor(v, dir);
+                if (w == -1) continue;
+                target[e] = w;
+                length[e] = from.distance(new GeographicPoint(lat[w], lon[w]));
+                type[e] = dir < 2 ? streetClass(v / cols) : streetClass(v % cols);
+                e++;
+            }
+        }
+        return new FrozenMapGraph(lat, lon, firstEdge, target, length, TYPES.clone(), type);
+    }
+
+    /**
+     * Write a network built by generate() in .map format, one line per one-way road segment.
+     * @return the number of lines written
+     */
+    public long writeMap(FrozenMapGraph graph, File file) throws IOException {
+        long lines = 0;
+        byte[] line = new byte[160];
+        byte[][] streetNames = new byte[rows][];
+        byte[][] avenueNames = new byte[cols][];
+        for (int r = 0; r < rows; r++) {
+            streetNames[r] = bytes(ordinal(r + 1) + (streetClass(r) == 3 ? " Boulevard" : " Street"));
+        }
+        for (int c = 0; c < cols; c++) {
+            avenueNames[c] = bytes(ordinal(c + 1) + " Avenue");
+        }
+        byte[][] typeNames = new byte[TYPES.length][];
+        for (int i = 0; i < TYPES.length; i++) {
+            typeNames[i] = bytes(TYPES[i]);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+            for (int v = 0; v < graph.getNumVertices(); v++) {
+                for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+                    int w = graph.edgeTarget(e);
+                    int pos = 0;
+                    pos = appendCoordinate(line, pos, graph.latitude(v));
+                    pos = appendCoordinate(line, pos, graph.longitude(v));
+                    pos = appendCoordinate(line, pos, graph.latitude(w));
+                    pos = appendCoordinate(line, pos, graph.longitude(w));
+                    line[pos++] = '"';
+                    pos = append(line, pos, v / cols == w / cols ? streetNames[v / cols] : avenueNames[v % cols]);
+                    line[pos++] = '"';
+                    line[pos++] = ' ';
+                    pos = append(line, pos, typeNames[v / cols == w / cols ? streetClass(v / cols) : streetClass(v % cols)]);
+                    line[pos++] = '\n';
+                    out.write(line, 0, pos);
+                    lines++;
+                }
+            }
+        }
+        return lines;
+    }
+
+    // Return the intersection reached from v going east, west, north or south (dir 0 .. 3),
+    // or -1 if there is no such road segment.
+    private int neighbor(int v, int dir) {
+        int r = v / cols;
+        int c = v % cols;
+        switch (dir) {
+            case 0:  return c + 1 < cols && hasSegment(v, false) && oneWayAllows(r, true) ? v + 1 : -1;
+            case 1:  return c > 0 && hasSegment(v - 1, false) && oneWayAllows(r, false) ? v - 1 : -1;
+            case 2:  return r + 1 < rows && hasSegment(v, true) && oneWayAllows(c, true) ? v + cols : -1;
+            default: return r > 0 && hasSegment(v - cols, true) && oneWayAllows(c, false) ? v - cols : -1;
+        }
+    }
+
+    // Return true unless the segment from v to the next intersection east (or north) is left out.
+    private boolean hasSegment(int v, boolean vertical) {
+        int street = vertical ? v % cols : v / cols;
+        if (streetClass(street) != 0 || isOneWay(street)) return true;
+        return random(v, vertical ? 3 : 2) >= MISSING_RATE;
+    }
+
+    // Streets 2 and 3 of each block of 8 are one-way, in opposite directions.
+    private static boolean isOneWay(int street) {
+        return street % 8 == 2 || street % 8 == 3;
+    }
+
+    private static boolean oneWayAllows(int street, boolean increasing) {
+        return !isOneWay(street) || (street % 8 == 2) == increasing;
+    }
+
+    // Return the index into TYPES of a street.
+    private static int streetClass(int street) {
+        if (street % 32 == 0) return 3;
+        if (street % 8 == 0) return 2;
+        if (street % 8 == 4) return 1;
+        return 0;
+    }
+
+    private static String ordinal(int i) {
+        int mod100 = i % 100;
+        String suffix = mod100 >= 11 && mod100 <= 13 ? "th"
+                : i % 10 == 1 ? "st" : i % 10 == 2 ? "nd" : i % 10 == 3 ? "rd" : "th";
+        return i + suffix;
+    }
+
+    // Return a number in [0, 1) determined by the seed, a vertex and a stream (SplitMix64).
+    private double random(int v, int stream) {
+        long z = seed + 0x9E3779B97F4A7C15L * ((long) v * 4 + stream + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    // Round to 6 decimal places, the precision written to .map files.
+    private static double quantize(double degrees) {
+        return Math.round(degrees * 1e6) / 1e6;
+    }
+
+    // Append degrees with 6 decimal places and a trailing space, without going through
+    // Double.toString, which dominates the time of writing large files.
+    private static int appendCoordinate(byte[] line, int pos, double degrees) {
+        long micro = Math.round(degrees * 1e6);
+        if (micro < 0) {
+            line[pos++] = '-';
+            micro = -micro;
+        }
+        long whole = micro / 1000000;
+        long fraction = micro % 1000000;
+        int digits = 1;
+        for (long w = whole; w >= 10; w /= 10) digits++;
+        for (int i = digits - 1; i >= 0; i--, whole /= 10) {
+            line[pos + i] = (byte) ('0' + whole % 10);
+        }
+        pos += digits;
+        line[pos++] = '.';
+        for (long div = 100000; div > 0; div /= 10) {
+            line[pos++] = (byte) ('0' + fraction / div % 10);
+        }
+        line[pos++] = ' ';
+        return pos;
+    }
+
+    private static int append(byte[] line, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, line, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Usage: SyntheticMapMaker rows cols seed file.map [file.bin]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: SyntheticMapMaker rows cols seed file.map [file.bin]");
+            return;
+        }
+        int rows = Integer.parseInt(args[0]);
+        int cols = Integer.parseInt(args[1]);
+        long seed = Long.parseLong(args[2]);
+
+        SyntheticMapMaker maker = new SyntheticMapMaker(rows, cols, seed);
+        long t0 = System.nanoTime();
+        FrozenMapGraph graph = maker.generate();
+        long t1 = System.nanoTime();
+        System.out.println("Generated " + graph.getNumVertices() + " intersections and " + graph.getNumEdges()
+                + " road segments in " + (t1 - t0) / 1000000 + " ms.");
+
+        long lines = maker.writeMap(graph, new File(args[3]));
+        long t2 = System.nanoTime();
+        System.out.println("Wrote " + lines + " lines to " + args[3] + " in " + (t2 - t1) / 1000000 + " ms.");
+
+        if (args.length > 4) {
+            graph.write(new File(args[4]));
+            long t3 = System.nanoTime();
+            System.out.println("Wrote binary snapshot to " + args[4] + " in " + (t3 - t2) / 1000000 + " ms.");
+        }
+    }
+}
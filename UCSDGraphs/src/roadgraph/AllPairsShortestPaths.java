@@ -0,0 +1,199 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * AllPairsShortestPaths.java
+ *
+ * @author Karen Blakemore
+ *
+ * A precomputed table of shortest paths between every pair of intersections, for small maps
+ * that answer the same queries many times a second.  Two flat n x n arrays are kept:
+ * 		dist[s*n + t] - length of the shortest path from s to t (infinity if none).
+ * 		nextHop[s*n + t] - the vertex after s on that path (-1 if none, t if adjacent).
+ * A distance lookup is a single array read, and a path is rebuilt by following next hops.
+ *
+ * The table is built by running Dijkstra from every vertex in parallel on a fork-join pool.
+ * Road maps are sparse, so n searches cost O(n (n + m) log n), much less than Floyd-Warshall's
+ * O(n^3), and each search only writes its own row of the table.
+ */
+public class AllPairsShortestPaths {
+	/** Default limit on the memory used by the tables: 256 MB */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private static final int BYTES_PER_PAIR = 8 + 4;	// one double and one int per pair
+
+	private final FrozenMapGraph graph;
+	private final int n;
+	private final double[] dist;
+	private final int[] nextHop;
+
+	/**
+	 * Build the table for a map, with the default memory limit and the common pool.
+	 * @param map - the road map.
+	 * @throws IllegalArgumentException If the tables would need more than DEFAULT_MAX_BYTES.
+	 */
+	public AllPairsShortestPaths(MapGraph map) {
+		this(map.freeze(), CostProfile.DISTANCE, DEFAULT_MAX_BYTES, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Build the table for a map snapshot.
+	 * @param graph - the road map snapshot.
+	 * @param profile - cost of each road segment.
+	 * @param maxBytes - the most memory the tables may use.
+	 * @param pool - pool that runs the searches.
+	 * @throws IllegalArgumentException If the tables would need more than maxBytes.
+	 */
+	public AllPairsShortestPaths(FrozenMapGraph graph, CostProfile profile, long maxBytes, ForkJoinPool pool) {
+		long n = graph.getNumVertices();
+		long bytes = n * n * BYTES_PER_PAIR;
+		if(bytes > maxBytes || n * n > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("All pairs table for " + n + " vertices needs " + bytes +
+											   " bytes; the limit is " + maxBytes);
+
+		this.graph = graph;
+		this.n = (int)n;
+		this.dist = new double[this.n * this.n];
+		this.nextHop = new int[this.n * this.n];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(nextHop, -1);
+
+		double[] weights = profile == CostProfile.DISTANCE ? null : profile.edgeWeights(graph);
+		// The sources are split into a few chunks per thread; each chunk owns one search.
+		int chunks = Math.min(this.n, 2 * pool.getParallelism());
+		try {
+			pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+				ShortestPathSearch search = new ShortestPathSearch(graph, weights);
+				int end = (int)((long)this.n * (c + 1) / chunks);
+				for(int s = (int)((long)this.n * c / chunks); s < end; s++) fillRow(search, s);
+			})).get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("All pairs computation interrupted", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("All pairs computation failed", e.getCause());
+		}
+	}
+
+	// Search from s and fill in row s of the tables.  Vertices are settled after their
+	// parents, so the next hop of each vertex is known by the time it is settled.
+	private void fillRow(ShortestPathSearch search, int s) {
+		search.run(new int[] {s}, null, Double.POSITIVE_INFINITY);
+		int row = s * n;
+		for(int i=0; i < search.getNumSettled(); i++) {
+			int t = search.getSettled(i);
+			int parent = search.getParent(t);
+			dist[row + t] = search.getDistance(t);
+			nextHop[row + t] = parent == -1 ? t : (parent == s ? t : nextHop[row + parent]);
+		}
+	}
+
+	/** Return the graph the table was built for */
+	public FrozenMapGraph getGraph() {
+		return graph;
+	}
+
+	/** Return the shortest distance from vertex s to vertex t (infinity if there is no path) */
+	public double distance(int s, int t) {
+		return dist[s * n + t];
+	}
+
+	/**
+	 * Return the shortest distance between two intersections.
+	 * @return the distance, or infinity if either point is not in the map or there is no path.
+	 */
+	public double distance(GeographicPoint start, GeographicPoint goal) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		return s == -1 || t == -1 ? Double.POSITIVE_INFINITY : distance(s, t);
+	}
+
+	/** Return the vertex after s on the shortest path to t (t itself if s == t, -1 if no path) */
+	public int nextHop(int s, int t) {
+		return nextHop[s * n + t];
+	}
+
+	/**
+	 * Return the vertices on the shortest path from s to t, including both.
+	 * @return the vertex ids, or null if there is no path.
+	 */
+	public int[] vertexPath(int s, int t) {
+		if(nextHop[s * n + t] == -1) return null;
+
+		int length = 1;
+		for(int v = s; v != t; v = nextHop[v * n + t]) length++;
+
+		int[] path = new int[length];
+		path[0] = s;
+		for(int i=1, v = s; v != t; i++) {
+			v = nextHop[v * n + t];
+			path[i] = v;
+		}
+		return path;
+	}
+
+	/**
+	 * Return the shortest path between two intersections, in the same format as MapGraph's
+	 * search methods.
+	 * @return the intersections on the path (including start and goal), or null if there is none.
+	 */
+	public List<GeographicPoint> getPath(GeographicPoint start, GeographicPoint goal) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		if(s == -1 || t == -1) return null;
+
+		int[] vertices = vertexPath(s, t);
+		if(vertices == null) return null;
+
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>(vertices.length);
+		for(int v: vertices) path.add(graph.getLocation(v));
+		return path;
+	}
+
+	/** Return the memory used by the tables, in bytes */
+	public long getTableBytes() {
+		return (long)n * n * BYTES_PER_PAIR;
+	}
+
+	public static void main(String[] args)
+	{
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap("data/maps/utc.map", theMap);
+		System.out.println("DONE.");
+
+		long t0 = System.nanoTime();
+		AllPairsShortestPaths apsp = new AllPairsShortestPaths(theMap);
+		long t1 = System.nanoTime();
+		System.out.println("Built table for " + theMap.getNumVertices() + " intersections ("
+						   + apsp.getTableBytes() / 1024 + " KB) in " + (t1 - t0) / 1000000 + " ms.");
+
+		GeographicPoint start = new GeographicPoint(32.8648772, -117.2254046);
+		GeographicPoint end = new GeographicPoint(32.8660691, -117.217393);
+		System.out.println("Distance from " + start + " to " + end + ": " + apsp.distance(start, end) + " km");
+		System.out.println("Path: " + apsp.getPath(start, end));
+
+		int queries = 1000000;
+		int n = apsp.getGraph().getNumVertices();
+		double total = 0;
+		t0 = System.nanoTime();
+		for(int i=0; i < queries; i++) {
+			double d = apsp.distance(i % n, (i * 31) % n);
+			if(d != Double.POSITIVE_INFINITY) total += d;
+		}
+		t1 = System.nanoTime();
+		System.out.println(queries + " distance queries in " + (t1 - t0) / 1000000 + " ms (checksum " + total + ").");
+	}
+}
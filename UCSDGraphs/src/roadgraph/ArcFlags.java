@@ -0,0 +1,360 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+import util.IndexedMinHeap;
+
+/**
+ * ArcFlags.java
+ *
+ * @author Karen Blakemore
+ *
+ * Arc-flag preprocessing for goal-directed shortest path queries.  The map is cut into regions
+ * by a kd-tree over intersection locations, and every edge gets one flag per region: the flag
+ * for region r is set if the edge lies on some shortest path to an intersection in r.
+ * A query towards a goal in region r then only follows edges whose flag r is set, which prunes
+ * most of the map that plain Dijkstra or A* would explore.
+ *
+ * Flags are found with one backward Dijkstra from each boundary intersection of each region (an
+ * intersection with a road coming in from another region); these searches run in parallel on a
+ * fork-join pool.  Edges inside a region always carry that region's flag.  The flags of edge e
+ * are stored in flags[e*words .. e*words+words-1], one bit per region, so they line up with the
+ * edge arrays of the FrozenMapGraph.
+ */
+public class ArcFlags {
+	private final FrozenMapGraph graph;
+	private final double[] weights;			// edge id -> cost
+	private final int numRegions;
+	private final int words;				// longs of flags per edge
+	private final int[] region;				// vertex -> region
+	private final long[] flags;
+	private final double costPerKm;			// lower bound on cost per km of straight-line distance, for A*
+	private final GeographicPoint[] locations;
+
+	// Query state, reused between queries.
+	private final double[] dist;
+	private final int[] parent;
+	private final int[] touched;
+	private int numTouched;
+	private int numSettled;
+	private final IndexedMinHeap heap;
+
+	/**
+	 * Preprocess a map, using road lengths as costs, on the common pool.
+	 * @param map - the road map.
+	 * @param numRegions - number of regions to cut the map into.
+	 */
+	public ArcFlags(MapGraph map, int numRegions) {
+		this(map.freeze(), CostProfile.DISTANCE, numRegions, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Preprocess a map snapshot.
+	 * @param graph - the road map snapshot.
+	 * @param profile - cost of each road segment.
+	 * @param numRegions - number of regions to cut the map into.
+	 * @param pool - pool that runs the boundary searches.
+	 */
+	public ArcFlags(FrozenMapGraph graph, CostProfile profile, int numRegions, ForkJoinPool pool) {
+		if(numRegions < 1) throw new IllegalArgumentException("At least one region is required");
+		int n = graph.getNumVertices();
+		int m = graph.getNumEdges();
+		this.graph = graph;
+		this.weights = profile.edgeWeights(graph);
+		this.numRegions = Math.min(numRegions, Math.max(n, 1));
+		this.words = (this.numRegions + 63) / 64;
+		this.region = partition(graph, this.numRegions);
+
+		double ratio = Double.POSITIVE_INFINITY;
+		for(int e=0; e < m; e++) {
+			if(graph.edgeLength(e) > 0) ratio = Math.min(ratio, weights[e] / graph.edgeLength(e));
+		}
+		this.costPerKm = ratio == Double.POSITIVE_INFINITY ? 0.0 : ratio;
+		this.locations = new GeographicPoint[n];
+		for(int v=0; v < n; v++) locations[v] = graph.getLocation(v);
+
+		this.flags = computeFlags(pool);
+
+		this.dist = new double[n];
+		this.parent = new int[n];
+		this.touched = new int[n];
+		this.heap = new IndexedMinHeap(n);
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(parent, -1);
+	}
+
+	// Cut the vertices into regions of nearly equal size, splitting the wider side of each
+	// box at the median.  Returns the region of each vertex.  The first half of each split gets
+	// the lower region ids, so when numRegions is 2^k, region >>> j is the region's ancestor
+	// after k - j splits.
+	static int[] partition(FrozenMapGraph graph, int numRegions) {
+		int n = graph.getNumVertices();
+		Integer[] vertices = new Integer[n];
+		for(int v=0; v < n; v++) vertices[v] = v;
+		int[] region = new int[n];
+		split(graph, vertices, 0, n, 0, numRegions, region);
+		return region;
+	}
+
+	// Assign vertices[from..to) to regions firstRegion .. firstRegion+count-1.
+	private static void split(FrozenMapGraph graph, Integer[] vertices, int from, int to,
+							  int firstRegion, int count, int[] region) {
+		if(count == 1 || to - from <= 1) {
+			for(int i=from; i < to; i++) region[vertices[i]] = firstRegion;
+			return;
+		}
+
+		double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+		for(int i=from; i < to; i++) {
+			minLat = Math.min(minLat, graph.latitude(vertices[i]));
+			maxLat = Math.max(maxLat, graph.latitude(vertices[i]));
+			minLon = Math.min(minLon, graph.longitude(vertices[i]));
+			maxLon = Math.max(maxLon, graph.longitude(vertices[i]));
+		}
+		boolean byLatitude = maxLat - minLat >= (maxLon - minLon) * Math.cos(Math.toRadians((minLat + maxLat) / 2));
+		Arrays.sort(vertices, from, to, (a, b) -> byLatitude ? Double.compare(graph.latitude(a), graph.latitude(b))
+														 : Double.compare(graph.longitude(a), graph.longitude(b)));
+
+		int leftCount = count / 2;
+		int mid = from + (int)((long)(to - from) * leftCount / count);
+		split(graph, vertices, from, mid, firstRegion, leftCount, region);
+		split(graph, vertices, mid, to, firstRegion + leftCount, count - leftCount, region);
+	}
+
+	// Set the flags of every edge: the own-region flag of edges inside a region, and the flags
+	// found by backward searches from the boundary intersections.
+	private long[] computeFlags(ForkJoinPool pool) {
+		int n = graph.getNumVertices();
+		int m = graph.getNumEdges();
+		AtomicLongArray shared = new AtomicLongArray(m * words);
+		for(int v=0; v < n; v++) {
+			for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+				int r = region[v];
+				if(region[graph.edgeTarget(e)] == r) setFlag(shared, e, r);
+			}
+		}
+
+		FrozenMapGraph reverse = graph.reverse();
+		int[] reverseIds = graph.reverseEdgeIds();
+		int[] forwardIds = new int[m];			// reverse edge id -> forward edge id
+		double[] reverseWeights = new double[m];
+		for(int e=0; e < m; e++) {
+			forwardIds[reverseIds[e]] = e;
+			reverseWeights[reverseIds[e]] = weights[e];
+		}
+
+		int[] boundary = IntStream.range(0, n).filter(v -> {
+			for(int e=reverse.edgeBegin(v); e < reverse.edgeEnd(v); e++) {
+				if(region[reverse.edgeTarget(e)] != region[v]) return true;
+			}
+			return false;
+		}).toArray();
+
+		// The boundary is split into a few chunks per thread; each chunk owns one search.
+		int chunks = Math.min(boundary.length, 2 * pool.getParallelism());
+		try {
+			pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+				ShortestPathSearch search = new ShortestPathSearch(reverse, reverseWeights);
+				int end = (int)((long)boundary.length * (c + 1) / chunks);
+				for(int i = (int)((long)boundary.length * c / chunks); i < end; i++)
+					flagPathsTo(search, boundary[i], forwardIds, shared);
+			})).get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Arc flag preprocessing interrupted", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Arc flag preprocessing failed", e.getCause());
+		}
+
+		long[] result = new long[m * words];
+		for(int i=0; i < result.length; i++) result[i] = shared.get(i);
+		return result;
+	}
+
+	// Search backwards from boundary vertex b and flag every edge on a shortest path to b.
+	// Edge u -> w is on such a path if dist(u) = cost(u, w) + dist(w).
+	private void flagPathsTo(ShortestPathSearch search, int b, int[] forwardIds, AtomicLongArray shared) {
+		FrozenMapGraph reverse = search.getGraph();
+		int r = region[b];
+		search.run(new int[] {b}, null, Double.POSITIVE_INFINITY);
+		for(int i=0; i < search.getNumSettled(); i++) {
+			int w = search.getSettled(i);
+			double dw = search.getDistance(w);
+			for(int e=reverse.edgeBegin(w); e < reverse.edgeEnd(w); e++) {
+				int f = forwardIds[e];
+				double du = search.getDistance(reverse.edgeTarget(e));
+				if(dw + weights[f] <= du * (1 + 1e-12)) setFlag(shared, f, r);
+			}
+		}
+	}
+
+	private void setFlag(AtomicLongArray shared, int e, int r) {
+		int i = e * words + (r >>> 6);
+		long bit = 1L << (r & 63);
+		if((shared.get(i) & bit) == 0) shared.getAndAccumulate(i, bit, (a, b) -> a | b);
+	}
+
+	/** Return the number of regions */
+	public int getNumRegions() {
+		return numRegions;
+	}
+
+	/** Return the region of vertex v */
+	public int getRegion(int v) {
+		return region[v];
+	}
+
+	/** Return true if edge e lies on a shortest path into region r */
+	public boolean hasFlag(int e, int r) {
+		return (flags[e * words + (r >>> 6)] & (1L << (r & 63))) != 0;
+	}
+
+	/** Return the memory used by the flags, in bytes */
+	public long getFlagBytes() {
+		return 8L * flags.length;
+	}
+
+	/** Return the number of intersections settled by the last query */
+	public synchronized int getNumSettled() {
+		return numSettled;
+	}
+
+	/**
+	 * Find the shortest path with Dijkstra's algorithm, following only flagged edges.
+	 * @param start - the starting location.
+	 * @param goal - the goal location.
+	 * @return the path from start to goal (including both), or null if there is none.
+	 */
+	public synchronized List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
+		return search(start, goal, false);
+	}
+
+	/**
+	 * Find the shortest path with A*, following only flagged edges.
+	 * @param start - the starting location.
+	 * @param goal - the goal location.
+	 * @return the path from start to goal (including both), or null if there is none.
+	 */
+	public synchronized List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
+		return search(start, goal, true);
+	}
+
+	/**
+	 * Return the shortest distance from vertex s to vertex t, following only flagged edges.
+	 * @param useHeuristic - true to search with A*, false for Dijkstra.
+	 * @return the distance, or infinity if there is no path.
+	 */
+	public synchronized double distance(int s, int t, boolean useHeuristic) {
+		run(s, t, useHeuristic);
+		return dist[t];
+	}
+
+	private List<GeographicPoint> search(GeographicPoint start, GeographicPoint goal, boolean useHeuristic) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		if(s == -1 || t == -1) {
+			System.out.println("Start or goal location not in graph !  No path exists.");
+			return null;
+		}
+
+		run(s, t, useHeuristic);
+		if(dist[t] == Double.POSITIVE_INFINITY) return null;
+
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+		for(int v = t; v != -1; v = parent[v]) path.add(locations[v]);
+		Collections.reverse(path);
+		return path;
+	}
+
+	// Search from s to t over the edges flagged for t's region.
+	private void run(int s, int t, boolean useHeuristic) {
+		for(int i=0; i < numTouched; i++) {
+			dist[touched[i]] = Double.POSITIVE_INFINITY;
+			parent[touched[i]] = -1;
+		}
+		numTouched = 0;
+		numSettled = 0;
+		heap.clear();
+
+		int word = region[t] >>> 6;
+		long bit = 1L << (region[t] & 63);
+		GeographicPoint goal = locations[t];
+
+		dist[s] = 0.0;
+		touched[numTouched++] = s;
+		heap.insertOrDecrease(s, useHeuristic ? costPerKm * locations[s].distance(goal) : 0.0);
+		while(!heap.isEmpty()) {
+			int v = heap.removeMin();
+			numSettled++;
+			if(v == t) break;
+
+			double d = dist[v];
+			for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+				if((flags[e * words + word] & bit) == 0) continue;
+				int w = graph.edgeTarget(e);
+				double nd = d + weights[e];
+				if(nd < dist[w]) {
+					if(dist[w] == Double.POSITIVE_INFINITY) touched[numTouched++] = w;
+					dist[w] = nd;
+					parent[w] = v;
+					heap.insertOrDecrease(w, useHeuristic ? nd + costPerKm * locations[w].distance(goal) : nd);
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		String file = args.length > 0 ? args[0] : "data/maps/san_diego.map";
+		int numRegions = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap(file, theMap);
+		System.out.println("DONE.");
+		FrozenMapGraph graph = theMap.freeze();
+		int n = graph.getNumVertices();
+
+		long t0 = System.nanoTime();
+		ArcFlags arcFlags = new ArcFlags(graph, CostProfile.DISTANCE, numRegions, ForkJoinPool.commonPool());
+		long t1 = System.nanoTime();
+		System.out.println("Computed " + arcFlags.getNumRegions() + " region flags for " + graph.getNumEdges()
+						   + " road segments in " + (t1 - t0) / 1000000 + " ms (" + arcFlags.getFlagBytes() / 1024 + " KB).");
+
+		Random random = new Random(1);
+		ShortestPathSearch search = new ShortestPathSearch(graph);
+		int queries = 500;
+		int mismatches = 0;
+		long plainSettled = 0, dijkstraSettled = 0, aStarSettled = 0;
+		for(int i=0; i < queries; i++) {
+			int s = random.nextInt(n);
+			int t = random.nextInt(n);
+			double expected = search.run(s, t);
+			plainSettled += search.getNumSettled();
+			double d = arcFlags.distance(s, t, false);
+			dijkstraSettled += arcFlags.getNumSettled();
+			double a = arcFlags.distance(s, t, true);
+			aStarSettled += arcFlags.getNumSettled();
+			if(Math.abs(d - expected) > 1e-9 || Math.abs(a - expected) > 1e-9) {
+				if(!(d == expected && a == expected)) mismatches++;
+			}
+		}
+		System.out.println(queries + " random queries, " + mismatches + " distance mismatches. Average intersections settled:");
+		System.out.println("\tDijkstra:             " + plainSettled / queries);
+		System.out.println("\tArc-flag Dijkstra:    " + dijkstraSettled / queries);
+		System.out.println("\tArc-flag A*:          " + aStarSettled / queries);
+	}
+}
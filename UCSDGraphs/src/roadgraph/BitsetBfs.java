@@ -0,0 +1,306 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * BitsetBfs.java
+ *
+ * @author Karen Blakemore
+ *
+ * Breadth first search over a FrozenMapGraph for hop counts, with a bitset of visited vertices
+ * and int arrays for parents and frontiers, so a search allocates nothing per vertex.
+ *
+ * Whole-graph searches are direction-optimizing (Beamer, Asanovic and Patterson, 2012).  While
+ * the frontier is small, each frontier vertex scans its out-edges (top-down).  Once the edges
+ * leaving the frontier outnumber the edges of the unvisited vertices / ALPHA, each unvisited
+ * vertex instead scans its in-edges for a parent in the frontier and stops at the first one
+ * (bottom-up).  It switches back when the frontier shrinks below n / BETA.
+ *
+ * Point-to-point searches are bidirectional: a forward search from the start and a backward
+ * search from the goal each expand a whole level at a time, always the side with the smaller
+ * frontier, until they meet.
+ *
+ * Hop counts equal those of MapGraph.bfs, but where several shortest paths exist this class
+ * may return a different one.  A BitsetBfs holds the state of one search at a time.
+ */
+public class BitsetBfs {
+	private static final int ALPHA = 14;
+	private static final int BETA = 24;
+
+	private final FrozenMapGraph graph;
+	private final FrozenMapGraph reverse;
+	private final int n;
+	private final long[] visited;			// bit v is set once v has been reached (forward search)
+	private final long[] visitedBack;		// the same for the backward search
+	private final long[] frontierBits;
+	private final int[] parent;				// forward search: previous vertex on the path, or -1
+	private final int[] child;				// backward search: next vertex on the path to the goal, or -1
+	private final int[] hops;				// hops from the source (forward search)
+	private final int[] backHops;			// hops to the goal (backward search)
+	private int[] frontier;
+	private int[] next;
+	private int[] backFrontier;
+	private int[] backNext;
+
+	/**
+	 * Create a search over a map snapshot.
+	 * @param graph - the road map snapshot.
+	 */
+	public BitsetBfs(FrozenMapGraph graph) {
+		this.graph = graph;
+		this.reverse = graph.reverse();
+		this.n = graph.getNumVertices();
+		int words = (n + 63) >>> 6;
+		visited = new long[words];
+		visitedBack = new long[words];
+		frontierBits = new long[words];
+		parent = new int[n];
+		child = new int[n];
+		hops = new int[n];
+		backHops = new int[n];
+		frontier = new int[n];
+		next = new int[n];
+		backFrontier = new int[n];
+		backNext = new int[n];
+	}
+
+	/**
+	 * Find the number of hops from source to every vertex.
+	 * @param source - the source vertex.
+	 * @return hop counts indexed by vertex id, -1 for vertices that can not be reached.
+	 *   The array is reused by the next search.
+	 */
+	public int[] hopCounts(int source) {
+		Arrays.fill(visited, 0);
+		Arrays.fill(parent, -1);
+		Arrays.fill(hops, -1);
+
+		set(visited, source);
+		hops[source] = 0;
+		frontier[0] = source;
+		int frontierSize = 1;
+		long frontierEdges = graph.outDegree(source);
+		long unvisitedEdges = graph.getNumEdges() - frontierEdges;
+		boolean bottomUp = false;
+
+		for(int level=1; frontierSize > 0; level++) {
+			if(!bottomUp && frontierEdges > unvisitedEdges / ALPHA) bottomUp = true;
+			else if(bottomUp && frontierSize < n / BETA) bottomUp = false;
+
+			int nextSize = 0;
+			frontierEdges = 0;
+			if(bottomUp) {
+				Arrays.fill(frontierBits, 0);
+				for(int i=0; i < frontierSize; i++) set(frontierBits, frontier[i]);
+				for(int v=0; v < n; v++) {
+					if(get(visited, v)) continue;
+					for(int e=reverse.edgeBegin(v); e < reverse.edgeEnd(v); e++) {
+						int u = reverse.edgeTarget(e);
+						if(get(frontierBits, u)) {
+							set(visited, v);
+							parent[v] = u;
+							hops[v] = level;
+							next[nextSize++] = v;
+							frontierEdges += graph.outDegree(v);
+							break;
+						}
+					}
+				}
+			}
+			else {
+				for(int i=0; i < frontierSize; i++) {
+					int u = frontier[i];
+					for(int e=graph.edgeBegin(u); e < graph.edgeEnd(u); e++) {
+						int v = graph.edgeTarget(e);
+						if(!get(visited, v)) {
+							set(visited, v);
+							parent[v] = u;
+							hops[v] = level;
+							next[nextSize++] = v;
+							frontierEdges += graph.outDegree(v);
+						}
+					}
+				}
+			}
+			unvisitedEdges -= frontierEdges;
+
+			int[] swap = frontier;
+			frontier = next;
+			next = swap;
+			frontierSize = nextSize;
+		}
+		return hops;
+	}
+
+	/** Return the previous vertex on the path to v found by the last call to hopCounts(), or -1 */
+	public int getParent(int v) {
+		return parent[v];
+	}
+
+	/**
+	 * Return the fewest hops from s to t, searching from both ends.
+	 * @return the number of hops, or -1 if t can not be reached from s.
+	 */
+	public int hopCount(int s, int t) {
+		int[] path = vertexPath(s, t);
+		return path == null ? -1 : path.length - 1;
+	}
+
+	/**
+	 * Return the vertices on a path from s to t with the fewest hops, searching from both ends.
+	 * @return the vertex ids, including s and t, or null if there is no path.
+	 */
+	public int[] vertexPath(int s, int t) {
+		Arrays.fill(visited, 0);
+		Arrays.fill(visitedBack, 0);
+		if(s == t) return new int[] {s};
+
+		set(visited, s);
+		set(visitedBack, t);
+		parent[s] = -1;
+		child[t] = -1;
+		hops[s] = 0;
+		backHops[t] = 0;
+		frontier[0] = s;
+		backFrontier[0] = t;
+		int size = 1, backSize = 1;
+
+		// Finish the level in which the searches first meet, keeping the shortest join.
+		int meet = -1;
+		int best = Integer.MAX_VALUE;
+		while(meet == -1 && size > 0 && backSize > 0) {
+			if(size <= backSize) {
+				int nextSize = 0;
+				for(int i=0; i < size; i++) {
+					int u = frontier[i];
+					for(int e=graph.edgeBegin(u); e < graph.edgeEnd(u); e++) {
+						int v = graph.edgeTarget(e);
+						if(get(visited, v)) continue;
+						set(visited, v);
+						parent[v] = u;
+						hops[v] = hops[u] + 1;
+						if(get(visitedBack, v) && hops[v] + backHops[v] < best) {
+							best = hops[v] + backHops[v];
+							meet = v;
+						}
+						next[nextSize++] = v;
+					}
+				}
+				int[] swap = frontier;
+				frontier = next;
+				next = swap;
+				size = nextSize;
+			}
+			else {
+				int nextSize = 0;
+				for(int i=0; i < backSize; i++) {
+					int u = backFrontier[i];
+					for(int e=reverse.edgeBegin(u); e < reverse.edgeEnd(u); e++) {
+						int v = reverse.edgeTarget(e);
+						if(get(visitedBack, v)) continue;
+						set(visitedBack, v);
+						child[v] = u;
+						backHops[v] = backHops[u] + 1;
+						if(get(visited, v) && hops[v] + backHops[v] < best) {
+							best = hops[v] + backHops[v];
+							meet = v;
+						}
+						backNext[nextSize++] = v;
+					}
+				}
+				int[] swap = backFrontier;
+				backFrontier = backNext;
+				backNext = swap;
+				backSize = nextSize;
+			}
+		}
+		if(meet == -1) return null;
+
+		int length = 1;
+		for(int v = meet; parent[v] != -1; v = parent[v]) length++;
+		int forward = length;
+		for(int v = meet; child[v] != -1; v = child[v]) length++;
+
+		int[] path = new int[length];
+		int i = forward - 1;
+		for(int v = meet; v != -1; v = parent[v]) path[i--] = v;
+		i = forward;
+		for(int v = child[meet]; v != -1; v = child[v]) path[i++] = v;
+		return path;
+	}
+
+	/**
+	 * Find a path from start to goal with the fewest hops.
+	 * @return the intersections on the path (including start and goal), or null if there is none.
+	 */
+	public List<GeographicPoint> getPath(GeographicPoint start, GeographicPoint goal) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		if(s == -1 || t == -1) {
+			System.out.println("Start or goal location not in graph !  No path exists.");
+			return null;
+		}
+
+		int[] vertices = vertexPath(s, t);
+		if(vertices == null) return null;
+
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>(vertices.length);
+		for(int v: vertices) path.add(graph.getLocation(v));
+		return path;
+	}
+
+	private static boolean get(long[] bits, int v) {
+		return (bits[v >>> 6] & (1L << v)) != 0;
+	}
+
+	private static void set(long[] bits, int v) {
+		bits[v >>> 6] |= 1L << v;
+	}
+
+	public static void main(String[] args)
+	{
+		String file = args.length > 0 ? args[0] : "data/maps/san_diego.map";
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap(file, theMap);
+		System.out.println("DONE.");
+		FrozenMapGraph graph = theMap.freeze();
+		int n = graph.getNumVertices();
+		BitsetBfs bfs = new BitsetBfs(graph);
+
+		// Check hop counts against MapGraph.bfs.
+		Random random = new Random(1);
+		int queries = 200;
+		int mismatches = 0;
+		int[] sources = new int[queries];
+		int[] targets = new int[queries];
+		for(int i=0; i < queries; i++) {
+			sources[i] = random.nextInt(n);
+			targets[i] = random.nextInt(n);
+			List<GeographicPoint> path = theMap.bfs(graph.getLocation(sources[i]), graph.getLocation(targets[i]));
+			int expected = path == null ? -1 : path.size() - 1;
+			if(bfs.hopCount(sources[i], targets[i]) != expected) mismatches++;
+			if(bfs.hopCounts(sources[i])[targets[i]] != expected) mismatches++;
+		}
+		System.out.println("Checked " + queries + " queries against MapGraph.bfs: " + mismatches + " mismatches.");
+
+		for(int i=0; i < queries; i++) bfs.hopCounts(sources[i]);	// warm up
+		long t0 = System.nanoTime();
+		for(int i=0; i < queries; i++) theMap.bfs(graph.getLocation(sources[i]), graph.getLocation(targets[i]));
+		long t1 = System.nanoTime();
+		for(int i=0; i < queries; i++) bfs.hopCount(sources[i], targets[i]);
+		long t2 = System.nanoTime();
+		for(int i=0; i < queries; i++) bfs.hopCounts(sources[i]);
+		long t3 = System.nanoTime();
+		System.out.println("MapGraph.bfs:               " + (t1 - t0) / 1000 / queries + " us per query");
+		System.out.println("Bidirectional bitset BFS:   " + (t2 - t1) / 1000 / queries + " us per query");
+		System.out.println("Direction-optimizing BFS:   " + (t3 - t2) / 1000 / queries + " us per source (whole map)");
+	}
+}
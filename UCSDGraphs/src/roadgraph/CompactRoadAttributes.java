@@ -0,0 +1,224 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import util.GraphLoader;
+
+/**
+ * CompactRoadAttributes.java
+ *
+ * @author Karen Blakemore
+ *
+ * A compact copy of the attributes of a map: locations, road names and types, and the geometry
+ * of each road segment.  Vertex and edge ids match MapGraph.freeze().
+ * 		latE7[v], lonE7[v] - location of vertex v in units of 1e-7 degrees (about 1 cm).
+ * 		nameId[e], typeId[e] - road name and type of edge e, as ids into shared string tables.
+ * 		geometryStart[e] .. geometryStart[e+1]-1 - the intermediate points of edge e (not
+ * 			including its end points), stored in geometryLatE7 and geometryLonE7.
+ *
+ * A GeographicPoint costs an object header and two doubles, and every MapEdge and RoadSegment
+ * holds its own references; here each point costs two ints and each edge four ints.
+ */
+public class CompactRoadAttributes {
+	private static final double E7 = 1e7;
+
+	private final int[] latE7;
+	private final int[] lonE7;
+	private final int[] nameId;
+	private final int[] typeId;
+	private final StringTable names;
+	private final StringTable types;
+	private final int[] geometryStart;
+	private final int[] geometryLatE7;
+	private final int[] geometryLonE7;
+
+	/**
+	 * Build the compact attributes of a map.
+	 * @param map - the road map.
+	 * @param segments - road geometry as loaded by GraphLoader.loadRoadMap, or null if the
+	 *   geometry is not needed.
+	 */
+	public CompactRoadAttributes(MapGraph map, HashMap<GeographicPoint, HashSet<RoadSegment>> segments) {
+		int n = map.getNumVertices();
+		int m = map.getNumEdges();
+		latE7 = new int[n];
+		lonE7 = new int[n];
+		nameId = new int[m];
+		typeId = new int[m];
+		names = new StringTable();
+		types = new StringTable();
+		geometryStart = new int[m + 1];
+
+		IntList geoLat = new IntList();
+		IntList geoLon = new IntList();
+		int e = 0;
+		for(int v=0; v < n; v++) {
+			MapNode node = map.getNode(v);
+			GeographicPoint start = node.getLoc();
+			latE7[v] = quantize(start.getX());
+			lonE7[v] = quantize(start.getY());
+
+			for(MapEdge edge: node.getEdges()) {
+				nameId[e] = names.intern(edge.getName());
+				typeId[e] = types.intern(edge.getType());
+
+				RoadSegment segment = segments == null ? null : findSegment(segments, start, edge);
+				if(segment != null) {
+					List<GeographicPoint> points = segment.getPoints(start, edge.getEndNode().getLoc());
+					for(int i=1; i < points.size() - 1; i++) {
+						geoLat.add(quantize(points.get(i).getX()));
+						geoLon.add(quantize(points.get(i).getY()));
+					}
+				}
+				geometryStart[++e] = geoLat.size();
+			}
+		}
+		geometryLatE7 = geoLat.toArray();
+		geometryLonE7 = geoLon.toArray();
+	}
+
+	// Find the road segment drawn for an edge: the one joining its end points with the same length.
+	private static RoadSegment findSegment(HashMap<GeographicPoint, HashSet<RoadSegment>> segments,
+										   GeographicPoint start, MapEdge edge) {
+		HashSet<RoadSegment> candidates = segments.get(start);
+		if(candidates == null) return null;
+
+		GeographicPoint end = edge.getEndNode().getLoc();
+		for(RoadSegment segment: candidates) {
+			if(segment.getLength() == edge.getDistance() && end.equals(segment.getOtherPoint(start))) return segment;
+		}
+		return null;
+	}
+
+	// Convert degrees to 1e-7 degree units.
+	private static int quantize(double degrees) {
+		return (int)Math.round(degrees * E7);
+	}
+
+	/** Return the number of vertices */
+	public int getNumVertices() {
+		return latE7.length;
+	}
+
+	/** Return the number of edges */
+	public int getNumEdges() {
+		return nameId.length;
+	}
+
+	/** Return the latitude of vertex v, to 1e-7 degrees */
+	public double latitude(int v) {
+		return latE7[v] / E7;
+	}
+
+	/** Return the longitude of vertex v, to 1e-7 degrees */
+	public double longitude(int v) {
+		return lonE7[v] / E7;
+	}
+
+	/** Return the road name of edge e */
+	public String getName(int e) {
+		return names.get(nameId[e]);
+	}
+
+	/** Return the road type of edge e */
+	public String getType(int e) {
+		return types.get(typeId[e]);
+	}
+
+	/** Return the id of the road name of edge e; ids are shared by edges of the same road */
+	public int getNameId(int e) {
+		return nameId[e];
+	}
+
+	/** Return the id of the road type of edge e */
+	public int getTypeId(int e) {
+		return typeId[e];
+	}
+
+	/** Return the number of distinct road names */
+	public int getNumNames() {
+		return names.size();
+	}
+
+	/** Return the number of distinct road types */
+	public int getNumTypes() {
+		return types.size();
+	}
+
+	/**
+	 * Return the intermediate points of edge e, between its end points.
+	 * @param e - edge id.
+	 * @return the points, in order from the start of the edge.
+	 */
+	public List<GeographicPoint> getGeometry(int e) {
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(geometryStart[e + 1] - geometryStart[e]);
+		for(int i=geometryStart[e]; i < geometryStart[e + 1]; i++) {
+			points.add(new GeographicPoint(geometryLatE7[i] / E7, geometryLonE7[i] / E7));
+		}
+		return points;
+	}
+
+	/** Return the number of bytes used by the arrays, not counting the string tables */
+	public long getArrayBytes() {
+		return 4L * (latE7.length + lonE7.length + nameId.length + typeId.length + geometryStart.length
+					 + geometryLatE7.length + geometryLonE7.length);
+	}
+
+	// A growable array of ints.
+	private static class IntList {
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int value) {
+			if(size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	// Return the heap in use after garbage collection, in bytes.
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i=0; i < 5; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Compare the heap footprint of a map loaded as a MapGraph plus RoadSegments with the
+	 * footprint of its compact attributes.
+	 */
+	public static void main(String[] args)
+	{
+		String file = args.length > 0 ? args[0] : "data/maps/hollywood_large.map";
+
+		long before = usedHeap();
+		MapGraph theMap = new MapGraph();
+		HashMap<GeographicPoint, HashSet<RoadSegment>> segments = new HashMap<GeographicPoint, HashSet<RoadSegment>>();
+		GraphLoader.loadRoadMap(file, theMap, segments, null);
+		long loaded = usedHeap();
+
+		CompactRoadAttributes compact = new CompactRoadAttributes(theMap, segments);
+		long built = usedHeap();
+
+		System.out.println(file + ": " + compact.getNumVertices() + " intersections, " + compact.getNumEdges()
+						   + " road segments, " + compact.getNumNames() + " road names, "
+						   + compact.getNumTypes() + " road types.");
+		System.out.println("MapGraph + RoadSegments:  " + (loaded - before) / 1024 + " KB");
+		System.out.println("Compact attributes:       " + (built - loaded) / 1024 + " KB ("
+						   + compact.getArrayBytes() / 1024 + " KB of arrays)");
+		System.out.println("Map still loaded: " + theMap.getNumVertices() + " intersections.");
+	}
+}
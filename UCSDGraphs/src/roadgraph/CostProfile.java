@@ -0,0 +1,177 @@
+package roadgraph;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CostProfile.java
+ *
+ * @author Karen Blakemore
+ *
+ * Defines the cost of travelling along a road segment.  The DISTANCE profile uses segment
+ * lengths in km.  Travel time profiles give a speed for each road type (the types used in the
+ * map files, e.g., residential, primary, motorway) and cost a segment in minutes.
+ * Road types without a speed use the profile's default speed; a speed of 0 closes the road.
+ */
+public class CostProfile {
+	/** Cost is the length of the road segment, in km */
+	public static final CostProfile DISTANCE = new CostProfile("distance", "km", null, 0.0);
+
+	private String name;
+	private String units;
+	private Map<String, Double> speeds;		// road type -> km/h; null for the DISTANCE profile.
+	private double defaultSpeed;			// km/h for road types not in speeds.
+
+	private CostProfile(String name, String units, Map<String, Double> speeds, double defaultSpeed) {
+		this.name = name;
+		this.units = units;
+		this.speeds = speeds;
+		this.defaultSpeed = defaultSpeed;
+	}
+
+	/**
+	 * Create a travel time profile.
+	 * @param name - name of the profile (e.g., car, truck, bike).
+	 * @param speeds - speed in km/h for each road type.
+	 * @param defaultSpeed - speed in km/h for road types not in speeds.
+	 * @return the profile, with costs in minutes.
+	 */
+	public static CostProfile travelTime(String name, Map<String, Double> speeds, double defaultSpeed) {
+		if(name == null || speeds == null || defaultSpeed < 0) throw new IllegalArgumentException();
+		return new CostProfile(name, "min", Collections.unmodifiableMap(new HashMap<String, Double>(speeds)),
+							   defaultSpeed);
+	}
+
+	/** Return a travel time profile with typical car speeds */
+	public static CostProfile car() {
+		HashMap<String, Double> speeds = new HashMap<String, Double>();
+		speeds.put("motorway", 105.0);
+		speeds.put("motorway_link", 60.0);
+		speeds.put("trunk", 85.0);
+		speeds.put("primary", 65.0);
+		speeds.put("primary_link", 45.0);
+		speeds.put("secondary", 55.0);
+		speeds.put("secondary_link", 40.0);
+		speeds.put("tertiary", 45.0);
+		speeds.put("tertiary_link", 35.0);
+		speeds.put("unclassified", 35.0);
+		speeds.put("residential", 30.0);
+		speeds.put("living_street", 10.0);
+		return travelTime("car", speeds, 30.0);
+	}
+
+	/** Return a travel time profile with typical truck speeds */
+	public static CostProfile truck() {
+		HashMap<String, Double> speeds = new HashMap<String, Double>();
+		speeds.put("motorway", 85.0);
+		speeds.put("motorway_link", 45.0);
+		speeds.put("trunk", 70.0);
+		speeds.put("primary", 55.0);
+		speeds.put("primary_link", 35.0);
+		speeds.put("secondary", 45.0);
+		speeds.put("secondary_link", 30.0);
+		speeds.put("tertiary", 35.0);
+		speeds.put("tertiary_link", 25.0);
+		speeds.put("unclassified", 25.0);
+		speeds.put("residential", 20.0);
+		speeds.put("living_street", 0.0);
+		return travelTime("truck", speeds, 20.0);
+	}
+
+	/** Return a travel time profile with typical bicycle speeds; motorways are closed */
+	public static CostProfile bicycle() {
+		HashMap<String, Double> speeds = new HashMap<String, Double>();
+		speeds.put("motorway", 0.0);
+		speeds.put("motorway_link", 0.0);
+		speeds.put("trunk", 16.0);
+		speeds.put("primary", 16.0);
+		speeds.put("secondary", 17.0);
+		speeds.put("tertiary", 18.0);
+		speeds.put("residential", 18.0);
+		speeds.put("living_street", 12.0);
+		return travelTime("bicycle", speeds, 16.0);
+	}
+
+	/** Return the name of the profile */
+	public String getName() {
+		return name;
+	}
+
+	/** Return the units of costs in this profile (km or min) */
+	public String getUnits() {
+		return units;
+	}
+
+	/**
+	 * Return the speed used for a road type.
+	 * @param roadType - type of road.
+	 * @return speed in km/h.
+	 */
+	public double getSpeed(String roadType) {
+		if(speeds == null) return Double.NaN;
+		Double speed = roadType == null ? null : speeds.get(roadType);
+		return speed == null ? defaultSpeed : speed;
+	}
+
+	/**
+	 * Return the cost of a road segment.
+	 * @param roadType - type of road.
+	 * @param length - length of the segment in km.
+	 * @return the cost, or infinity if the road is closed in this profile.
+	 */
+	public double cost(String roadType, double length) {
+		if(speeds == null) return length;
+		double speed = getSpeed(roadType);
+		return speed > 0 ? length / speed * 60.0 : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Return the cost of every edge of a graph.
+	 * @param graph - the graph.
+	 * @return array of costs indexed by edge id.
+	 */
+	public double[] edgeWeights(FrozenMapGraph graph) {
+		double[] weights = new double[graph.getNumEdges()];
+		for(int e=0; e < weights.length; e++) weights[e] = cost(graph.edgeType(e), graph.edgeLength(e));
+		return weights;
+	}
+
+	/**
+	 * Return a 64-bit hash of the name, units, default speed and speeds (in road type order),
+	 * which is the same in every run, e.g., to key stored results by profile.
+	 */
+	public long fingerprint() {
+		StringBuilder text = new StringBuilder();
+		text.append(name).append('\n').append(units).append('\n').append(Double.doubleToLongBits(defaultSpeed));
+		if(speeds != null) {
+			for(Map.Entry<String, Double> speed: new TreeMap<String, Double>(speeds).entrySet())
+				text.append('\n').append(speed.getKey()).append('=').append(Double.doubleToLongBits(speed.getValue()));
+		}
+		// 64-bit FNV-1a over the characters.
+		long h = 0xcbf29ce484222325L;
+		for(int i=0; i < text.length(); i++) {
+			h ^= text.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/** Two profiles are equal if they have the same name, units, default speed and speeds */
+	public boolean equals(Object o) {
+		if(!(o instanceof CostProfile)) return false;
+		CostProfile other = (CostProfile)o;
+		return name.equals(other.name) && units.equals(other.units) && defaultSpeed == other.defaultSpeed &&
+			   (speeds == null ? other.speeds == null : speeds.equals(other.speeds));
+	}
+
+	public int hashCode() {
+		int h = (name.hashCode() * 31 + units.hashCode()) * 31 + Double.hashCode(defaultSpeed);
+		return h * 31 + (speeds == null ? 0 : speeds.hashCode());
+	}
+
+	public String toString() {
+		return name + " (" + units + ")";
+	}
+}
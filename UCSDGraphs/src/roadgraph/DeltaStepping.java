@@ -0,0 +1,363 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import util.GraphLoader;
+
+/**
+ * DeltaStepping.java
+ *
+ * @author Karen Blakemore
+ *
+ * Parallel single-source shortest paths by delta-stepping (Meyer and Sanders, 2003), for
+ * one-to-all workloads such as scoring every depot.  Vertices are kept in buckets of width
+ * delta by tentative distance.  Edges are split into light edges (weight <= delta), which can
+ * put a vertex back into the current bucket, and heavy edges, which can not.  Each bucket is
+ * emptied by relaxing the light edges of all its vertices in parallel, repeating until no
+ * vertex re-enters it, and then relaxing the heavy edges of the bucket's vertices once.
+ *
+ * Distances are held in an AtomicLongArray as double bits; for non-negative doubles the bit
+ * patterns order the same way as the values, so relaxation is a compare-and-set loop.
+ * A small delta approaches Dijkstra (little wasted work, little parallelism); a large delta
+ * approaches Bellman-Ford.  The distances are the same as ShortestPathSearch's.
+ */
+public class DeltaStepping {
+	private static final int SEQUENTIAL_THRESHOLD = 512;	// frontiers smaller than this are relaxed in one task
+
+	private final int n;
+	private final double delta;
+	private final ForkJoinPool pool;
+	// Light and heavy edges of each vertex, as separate compressed rows.
+	private final int[] lightStart, lightTarget;
+	private final double[] lightWeight;
+	private final int[] heavyStart, heavyTarget;
+	private final double[] heavyWeight;
+	private final int numBuckets;			// buckets in the circular bucket array
+
+	// Search state, allocated once and reused between runs.  A run clears the entries of the
+	// vertices it reached as it copies out their distances, so the next run starts clean; a
+	// run that fails part way leaves the state dirty, and the next one clears all of it.
+	private final AtomicLongArray dist;
+	private final double[] relaxedAt;		// distance at which v's light edges were last relaxed
+	private final int[] stamp;				// marks the vertices already in a bucket's settled set
+	private int stampCount;					// only grows, so old stamps never need clearing
+	private boolean dirty;
+
+	/**
+	 * Prepare delta-stepping over a map snapshot, using edge lengths as costs.
+	 * @param graph - the road map snapshot.
+	 * @param delta - bucket width in km; see suggestDelta().
+	 * @param pool - pool that relaxes edges.
+	 */
+	public DeltaStepping(FrozenMapGraph graph, double delta, ForkJoinPool pool) {
+		this(graph, null, delta, pool);
+	}
+
+	/**
+	 * Prepare delta-stepping over a map snapshot.
+	 * @param graph - the road map snapshot.
+	 * @param weights - non-negative cost of each edge, or null to use edge lengths.
+	 * @param delta - bucket width, in the units of the weights.
+	 * @param pool - pool that relaxes edges.
+	 */
+	public DeltaStepping(FrozenMapGraph graph, double[] weights, double delta, ForkJoinPool pool) {
+		if(delta <= 0) throw new IllegalArgumentException("delta must be positive");
+		this.n = graph.getNumVertices();
+		this.delta = delta;
+		this.pool = pool;
+
+		lightStart = new int[n + 1];
+		heavyStart = new int[n + 1];
+		double maxWeight = 0;
+		for(int v=0; v < n; v++) {
+			lightStart[v + 1] = lightStart[v];
+			heavyStart[v + 1] = heavyStart[v];
+			for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+				double w = weights == null ? graph.edgeLength(e) : weights[e];
+				if(w < 0) throw new IllegalArgumentException("Negative edge weight");
+				if(w <= delta) lightStart[v + 1]++;
+				else heavyStart[v + 1]++;
+				if(w != Double.POSITIVE_INFINITY) maxWeight = Math.max(maxWeight, w);
+			}
+		}
+		lightTarget = new int[lightStart[n]];
+		lightWeight = new double[lightStart[n]];
+		heavyTarget = new int[heavyStart[n]];
+		heavyWeight = new double[heavyStart[n]];
+		for(int v=0; v < n; v++) {
+			int light = lightStart[v];
+			int heavy = heavyStart[v];
+			for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+				double w = weights == null ? graph.edgeLength(e) : weights[e];
+				if(w <= delta) {
+					lightTarget[light] = graph.edgeTarget(e);
+					lightWeight[light++] = w;
+				}
+				else {
+					heavyTarget[heavy] = graph.edgeTarget(e);
+					heavyWeight[heavy++] = w;
+				}
+			}
+		}
+		// A relaxation moves a vertex at most maxWeight past the current bucket.
+		numBuckets = (int)Math.min(Integer.MAX_VALUE / 2, Math.ceil(maxWeight / delta) + 2);
+
+		dist = new AtomicLongArray(n);
+		relaxedAt = new double[n];
+		stamp = new int[n];
+		clear();
+	}
+
+	/**
+	 * Suggest a bucket width for a graph: the mean edge weight, which keeps most road
+	 * segments light while giving buckets enough vertices to share between threads.
+	 */
+	public static double suggestDelta(FrozenMapGraph graph) {
+		double total = 0;
+		for(int e=0; e < graph.getNumEdges(); e++) total += graph.edgeLength(e);
+		return graph.getNumEdges() == 0 ? 1.0 : Math.max(total / graph.getNumEdges(), 1e-9);
+	}
+
+	/**
+	 * Compute the distance from source to every vertex.
+	 * @param source - the source vertex.
+	 * @return distances indexed by vertex id (infinity for unreachable vertices).
+	 */
+	public synchronized double[] run(int source) {
+		if(dirty) clear();
+		dirty = true;
+
+		IntList[] buckets = new IntList[numBuckets];
+		for(int b=0; b < numBuckets; b++) buckets[b] = new IntList();
+		long pending = 0;
+
+		dist.set(source, Double.doubleToRawLongBits(0.0));
+		buckets[0].add(source);
+		pending++;
+
+		for(long current=0; pending > 0; current++) {
+			IntList bucket = buckets[(int)(current % numBuckets)];
+			if(bucket.size() == 0) continue;
+
+			// Empty the bucket, relaxing light edges until no vertex re-enters it.
+			IntList settled = new IntList();
+			int settledStamp = ++stampCount;
+			while(bucket.size() > 0) {
+				pending -= bucket.size();
+				IntList frontier = new IntList();
+				for(int i=0; i < bucket.size(); i++) {
+					int v = bucket.get(i);
+					double d = distance(v);
+					// Skip stale entries: v moved to an earlier bucket, or was already relaxed at this distance.
+					if((long)(d / delta) != current || d >= relaxedAt[v]) continue;
+					relaxedAt[v] = d;
+					frontier.add(v);
+					if(stamp[v] != settledStamp) {
+						stamp[v] = settledStamp;
+						settled.add(v);
+					}
+				}
+				bucket.clear();
+
+				pending += distribute(relax(frontier, lightStart, lightTarget, lightWeight), buckets);
+			}
+
+			// Heavy edges can not lead back into this bucket, so relax them once.
+			pending += distribute(relax(settled, heavyStart, heavyTarget, heavyWeight), buckets);
+		}
+
+		long inf = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+		double[] result = new double[n];
+		for(int v=0; v < n; v++) {
+			result[v] = distance(v);
+			if(result[v] != Double.POSITIVE_INFINITY) {
+				dist.lazySet(v, inf);
+				relaxedAt[v] = Double.POSITIVE_INFINITY;
+			}
+		}
+		dirty = false;
+		return result;
+	}
+
+	// Set every distance to infinity and mark no light edges as relaxed.
+	private void clear() {
+		long inf = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+		for(int v=0; v < n; v++) dist.lazySet(v, inf);
+		Arrays.fill(relaxedAt, Double.POSITIVE_INFINITY);
+		dirty = false;
+	}
+
+	private double distance(int v) {
+		return Double.longBitsToDouble(dist.get(v));
+	}
+
+	// Put each updated vertex into the bucket of its new distance; return the number added.
+	private int distribute(IntList updated, IntList[] buckets) {
+		for(int i=0; i < updated.size(); i++) {
+			int w = updated.get(i);
+			buckets[(int)((long)(distance(w) / delta) % numBuckets)].add(w);
+		}
+		return updated.size();
+	}
+
+	// Relax the given edges of every vertex in frontier, in parallel for large frontiers.
+	private IntList relax(IntList frontier, int[] start, int[] target, double[] weight) {
+		RelaxTask task = new RelaxTask(frontier, 0, frontier.size(), start, target, weight);
+		return frontier.size() < SEQUENTIAL_THRESHOLD ? task.compute() : pool.invoke(task);
+	}
+
+	// Relaxes the edges of frontier[from..to), splitting the range across the pool.
+	// Returns the targets whose distance was lowered.
+	@SuppressWarnings("serial")
+	private class RelaxTask extends RecursiveTask<IntList> {
+		private final IntList frontier;
+		private final int from, to;
+		private final int[] start, target;
+		private final double[] weight;
+
+		RelaxTask(IntList frontier, int from, int to, int[] start, int[] target, double[] weight) {
+			this.frontier = frontier;
+			this.from = from;
+			this.to = to;
+			this.start = start;
+			this.target = target;
+			this.weight = weight;
+		}
+
+		protected IntList compute() {
+			if(to - from > SEQUENTIAL_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				RelaxTask left = new RelaxTask(frontier, from, mid, start, target, weight);
+				left.fork();
+				IntList right = new RelaxTask(frontier, mid, to, start, target, weight).compute();
+				IntList result = left.join();
+				result.addAll(right);
+				return result;
+			}
+
+			IntList updated = new IntList();
+			for(int i=from; i < to; i++) {
+				int v = frontier.get(i);
+				double d = distance(v);
+				for(int e=start[v]; e < start[v + 1]; e++) {
+					int w = target[e];
+					long nd = Double.doubleToRawLongBits(d + weight[e]);
+					long old = dist.get(w);
+					while(nd < old) {
+						if(dist.compareAndSet(w, old, nd)) {
+							updated.add(w);
+							break;
+						}
+						old = dist.get(w);
+					}
+				}
+			}
+			return updated;
+		}
+	}
+
+	// A growable array of ints.
+	private static class IntList {
+		private int[] values = new int[8];
+		private int size;
+
+		void add(int value) {
+			if(size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		void addAll(IntList other) {
+			if(size + other.size > values.length) values = Arrays.copyOf(values, Math.max(size * 2, size + other.size));
+			System.arraycopy(other.values, 0, values, size, other.size);
+			size += other.size;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		int size() {
+			return size;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+
+	// Build a rows x cols grid of two-way streets, with random lengths and some diagonals.
+	private static FrozenMapGraph syntheticGrid(int rows, int cols, long seed) {
+		Random random = new Random(seed);
+		int n = rows * cols;
+		double[] lat = new double[n];
+		double[] lon = new double[n];
+		int[] firstEdge = new int[n + 1];
+		int[] target = new int[n * 5];
+		double[] length = new double[n * 5];
+		int m = 0;
+		for(int r=0; r < rows; r++) {
+			for(int c=0; c < cols; c++) {
+				int v = r * cols + c;
+				lat[v] = 32.0 + r * 0.001;
+				lon[v] = -117.0 + c * 0.001;
+				int[] neighbors = {r > 0 ? v - cols : -1, r < rows - 1 ? v + cols : -1,
+								   c > 0 ? v - 1 : -1, c < cols - 1 ? v + 1 : -1,
+								   (r < rows - 1 && c < cols - 1 && random.nextInt(10) == 0) ? v + cols + 1 : -1};
+				for(int w: neighbors) {
+					if(w == -1) continue;
+					target[m] = w;
+					length[m++] = 0.05 + random.nextDouble() * 0.15;
+				}
+				firstEdge[v + 1] = m;
+			}
+		}
+		return new FrozenMapGraph(lat, lon, firstEdge, Arrays.copyOf(target, m), Arrays.copyOf(length, m));
+	}
+
+	// Time delta-stepping with 1, 2, 4, ... threads against sequential Dijkstra, checking distances.
+	private static void benchmark(String name, FrozenMapGraph graph, int source) {
+		System.out.println(name + ": " + graph.getNumVertices() + " vertices, " + graph.getNumEdges() + " edges.");
+
+		ShortestPathSearch dijkstra = new ShortestPathSearch(graph);
+		long t0 = System.nanoTime();
+		dijkstra.run(new int[] {source}, null, Double.POSITIVE_INFINITY);
+		long t1 = System.nanoTime();
+		long dijkstraTime = t1 - t0;
+		System.out.println("\tDijkstra: " + dijkstraTime / 1000000 + " ms");
+
+		double delta = suggestDelta(graph);
+		int cores = Runtime.getRuntime().availableProcessors();
+		for(int threads=1; threads <= cores; threads = (threads < cores && threads * 2 > cores) ? cores : threads * 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			DeltaStepping stepping = new DeltaStepping(graph, delta, pool);
+			stepping.run(source);		// warm up
+			t0 = System.nanoTime();
+			double[] dist = stepping.run(source);
+			t1 = System.nanoTime();
+			pool.shutdown();
+
+			double maxError = 0;
+			for(int v=0; v < dist.length; v++) {
+				double expected = dijkstra.getDistance(v);
+				if(expected != dist[v]) maxError = Math.max(maxError, Math.abs(expected - dist[v]));
+			}
+			System.out.println("\tDelta-stepping, " + threads + " threads: " + (t1 - t0) / 1000000 + " ms, speedup "
+							   + String.format("%.2f", (double)dijkstraTime / (t1 - t0)) + ", max difference "
+							   + maxError);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		MapGraph theMap = new MapGraph();
+		GraphLoader.loadRoadMap("data/maps/hollywood_large.map", theMap);
+		benchmark("hollywood_large.map", theMap.freeze(), 0);
+
+		int side = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		benchmark("Synthetic " + side + "x" + side + " grid", syntheticGrid(side, side, 42), 0);
+	}
+}
@@ -0,0 +1,292 @@
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import geography.GeographicPoint;
+
+/**
+ * FrozenMapGraph.java
+ *
+ * @author Karen Blakemore
+ *
+ * An immutable, array based snapshot of a MapGraph.  Intersections are numbered 0 .. n-1 and
+ * the road segments leaving intersection v are stored contiguously (compressed sparse rows):
+ * 		firstEdge[v] .. firstEdge[v+1]-1 - the edge ids of the segments leaving v.
+ * 		edgeTarget[e] - the intersection at the end of edge e.
+ * 		edgeLength[e] - the length of edge e in kilometers.
+ * 		latitude[v], longitude[v] - the location of intersection v.
+ * 		roadTypes[edgeType[e]] - the road type of edge e (e.g., residential, primary), if known.
+ *
+ * Because nothing in a snapshot changes, any number of searches can run over it concurrently,
+ * each with its own search state (see ShortestPathSearch).
+ *
+ * A snapshot can be saved in a binary format (see write()) and read back without GraphLoader's
+ * parsing and intersection finding, which matters for maps with millions of road segments.
+ */
+public class FrozenMapGraph {
+	private static final int MAGIC = 0x464d4731;	// "FMG1"
+	private static final int BLOCK = 1 << 13;		// values per block when writing or reading
+
+	private final double[] latitude;
+	private final double[] longitude;
+	private final int[] firstEdge;
+	private final int[] edgeTarget;
+	private final double[] edgeLength;
+	private final String[] roadTypes;	// distinct road types; null if types are unknown.
+	private final int[] edgeType;		// edge id -> index into roadTypes.
+
+	private volatile HashMap<GeographicPoint, Integer> index;	// location -> vertex id, built on first use.
+
+	/**
+	 * Create a snapshot from its arrays.  The arrays are not copied.
+	 * @param latitude - latitude of each vertex.
+	 * @param longitude - longitude of each vertex.
+	 * @param firstEdge - n+1 offsets into the edge arrays; edges of v are firstEdge[v] .. firstEdge[v+1]-1.
+	 * @param edgeTarget - end vertex of each edge.
+	 * @param edgeLength - length of each edge, in km.
+	 */
+	public FrozenMapGraph(double[] latitude, double[] longitude, int[] firstEdge,
+						  int[] edgeTarget, double[] edgeLength) {
+		this(latitude, longitude, firstEdge, edgeTarget, edgeLength, null, null);
+	}
+
+	/**
+	 * Create a snapshot, including road types, from its arrays.  The arrays are not copied.
+	 * @param roadTypes - the distinct road types.
+	 * @param edgeType - index into roadTypes of the type of each edge.
+	 */
+	public FrozenMapGraph(double[] latitude, double[] longitude, int[] firstEdge,
+						  int[] edgeTarget, double[] edgeLength, String[] roadTypes, int[] edgeType) {
+		if(latitude.length != longitude.length || firstEdge.length != latitude.length + 1 ||
+		   edgeTarget.length != edgeLength.length || firstEdge[latitude.length] != edgeTarget.length)
+			throw new IllegalArgumentException("Inconsistent graph arrays");
+		if((roadTypes == null) != (edgeType == null) || (edgeType != null && edgeType.length != edgeTarget.length))
+			throw new IllegalArgumentException("Inconsistent road type arrays");
+
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.firstEdge = firstEdge;
+		this.edgeTarget = edgeTarget;
+		this.edgeLength = edgeLength;
+		this.roadTypes = roadTypes;
+		this.edgeType = edgeType;
+	}
+
+	/** Return the number of vertices (intersections) */
+	public int getNumVertices() {
+		return latitude.length;
+	}
+
+	/** Return the number of directed edges (road segments) */
+	public int getNumEdges() {
+		return edgeTarget.length;
+	}
+
+	/** Return the id of the first edge leaving v */
+	public int edgeBegin(int v) {
+		return firstEdge[v];
+	}
+
+	/** Return one past the id of the last edge leaving v */
+	public int edgeEnd(int v) {
+		return firstEdge[v + 1];
+	}
+
+	/** Return the number of edges leaving v */
+	public int outDegree(int v) {
+		return firstEdge[v + 1] - firstEdge[v];
+	}
+
+	/** Return the end vertex of edge e */
+	public int edgeTarget(int e) {
+		return edgeTarget[e];
+	}
+
+	/** Return the length of edge e, in km */
+	public double edgeLength(int e) {
+		return edgeLength[e];
+	}
+
+	/** Return the road type of edge e, or null if road types are not known */
+	public String edgeType(int e) {
+		return roadTypes == null ? null : roadTypes[edgeType[e]];
+	}
+
+	/** Return the latitude of vertex v */
+	public double latitude(int v) {
+		return latitude[v];
+	}
+
+	/** Return the longitude of vertex v */
+	public double longitude(int v) {
+		return longitude[v];
+	}
+
+	/** Return the location of vertex v */
+	public GeographicPoint getLocation(int v) {
+		return new GeographicPoint(latitude[v], longitude[v]);
+	}
+
+	/**
+	 * Return the vertex id at a location.
+	 * @param loc - location of an intersection.
+	 * @return the vertex id, or -1 if there is no intersection at loc.
+	 */
+	public int getIndex(GeographicPoint loc) {
+		HashMap<GeographicPoint, Integer> idx = index;
+		if(idx == null) {
+			idx = new HashMap<GeographicPoint, Integer>(latitude.length * 2);
+			for(int v=0; v < latitude.length; v++) idx.put(getLocation(v), v);
+			index = idx;
+		}
+		Integer v = idx.get(loc);
+		return v == null ? -1 : v;
+	}
+
+	/**
+	 * Write the snapshot in binary (big-endian):
+	 * 		int MAGIC, int n, int m, int numTypes (-1 if types are unknown)
+	 * 		double latitude[n], double longitude[n], int firstEdge[n+1]
+	 * 		int edgeTarget[m], double edgeLength[m]
+	 * 		UTF roadTypes[numTypes], int edgeType[m] (only if types are known)
+	 * @param file - the file to create or overwrite.
+	 */
+	public void write(File file) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			int n = latitude.length;
+			int m = edgeTarget.length;
+			out.writeInt(MAGIC);
+			out.writeInt(n);
+			out.writeInt(m);
+			out.writeInt(roadTypes == null ? -1 : roadTypes.length);
+			writeDoubles(out, latitude);
+			writeDoubles(out, longitude);
+			writeInts(out, firstEdge);
+			writeInts(out, edgeTarget);
+			writeDoubles(out, edgeLength);
+			if(roadTypes != null) {
+				for(String type: roadTypes) out.writeUTF(type);
+				writeInts(out, edgeType);
+			}
+		}
+	}
+
+	/**
+	 * Read a snapshot written by write().
+	 * @param file - the file to read.
+	 * @return the snapshot.
+	 * @throws IOException If the file can not be read or is not a snapshot.
+	 */
+	public static FrozenMapGraph read(File file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if(in.readInt() != MAGIC) throw new IOException("Not a map snapshot: " + file);
+			int n = in.readInt();
+			int m = in.readInt();
+			int numTypes = in.readInt();
+			double[] latitude = new double[n];
+			double[] longitude = new double[n];
+			int[] firstEdge = new int[n + 1];
+			int[] edgeTarget = new int[m];
+			double[] edgeLength = new double[m];
+			readDoubles(in, latitude);
+			readDoubles(in, longitude);
+			readInts(in, firstEdge);
+			readInts(in, edgeTarget);
+			readDoubles(in, edgeLength);
+			if(numTypes == -1) return new FrozenMapGraph(latitude, longitude, firstEdge, edgeTarget, edgeLength);
+
+			String[] roadTypes = new String[numTypes];
+			int[] edgeType = new int[m];
+			for(int i=0; i < numTypes; i++) roadTypes[i] = in.readUTF();
+			readInts(in, edgeType);
+			return new FrozenMapGraph(latitude, longitude, firstEdge, edgeTarget, edgeLength, roadTypes, edgeType);
+		}
+	}
+
+	// Copy arrays to and from streams a block at a time; much faster than one value per call.
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4 * BLOCK);
+		for(int i=0; i < values.length; i += BLOCK) {
+			int count = Math.min(BLOCK, values.length - i);
+			buffer.clear();
+			buffer.asIntBuffer().put(values, i, count);
+			out.write(buffer.array(), 0, 4 * count);
+		}
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8 * BLOCK);
+		for(int i=0; i < values.length; i += BLOCK) {
+			int count = Math.min(BLOCK, values.length - i);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(values, i, count);
+			out.write(buffer.array(), 0, 8 * count);
+		}
+	}
+
+	private static void readInts(DataInputStream in, int[] values) throws IOException {
+		byte[] bytes = new byte[4 * BLOCK];
+		for(int i=0; i < values.length; i += BLOCK) {
+			int count = Math.min(BLOCK, values.length - i);
+			in.readFully(bytes, 0, 4 * count);
+			ByteBuffer.wrap(bytes).asIntBuffer().get(values, i, count);
+		}
+	}
+
+	private static void readDoubles(DataInputStream in, double[] values) throws IOException {
+		byte[] bytes = new byte[8 * BLOCK];
+		for(int i=0; i < values.length; i += BLOCK) {
+			int count = Math.min(BLOCK, values.length - i);
+			in.readFully(bytes, 0, 8 * count);
+			ByteBuffer.wrap(bytes).asDoubleBuffer().get(values, i, count);
+		}
+	}
+
+	/**
+	 * Return a snapshot with every edge reversed.  Edge e of the reversed graph is not
+	 * edge e of this graph; reverseEdgeIds() maps between them.
+	 */
+	public FrozenMapGraph reverse() {
+		int[] ids = reverseEdgeIds();
+		int n = getNumVertices();
+		int[] revFirst = new int[n + 1];
+		for(int e=0; e < edgeTarget.length; e++) revFirst[edgeTarget[e] + 1]++;
+		for(int v=0; v < n; v++) revFirst[v + 1] += revFirst[v];
+
+		int[] revTarget = new int[edgeTarget.length];
+		double[] revLength = new double[edgeTarget.length];
+		int[] revType = edgeType == null ? null : new int[edgeTarget.length];
+		for(int v=0; v < n; v++) {
+			for(int e=firstEdge[v]; e < firstEdge[v + 1]; e++) {
+				int r = ids[e];
+				revTarget[r] = v;
+				revLength[r] = edgeLength[e];
+				if(revType != null) revType[r] = edgeType[e];
+			}
+		}
+		return new FrozenMapGraph(latitude, longitude, revFirst, revTarget, revLength, roadTypes, revType);
+	}
+
+	/**
+	 * Return, for each edge e of this graph, the id of the same edge in reverse().
+	 */
+	public int[] reverseEdgeIds() {
+		int n = getNumVertices();
+		int[] next = new int[n + 1];
+		for(int e=0; e < edgeTarget.length; e++) next[edgeTarget[e] + 1]++;
+		for(int v=0; v < n; v++) next[v + 1] += next[v];
+
+		int[] ids = new int[edgeTarget.length];
+		for(int e=0; e < edgeTarget.length; e++) ids[e] = next[edgeTarget[e]]++;
+		return ids;
+	}
+}
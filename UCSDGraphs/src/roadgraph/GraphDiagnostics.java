@@ -0,0 +1,540 @@
+package roadgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+
+import mapmaker.SyntheticMapMaker;
+import util.GraphLoader;
+
+/**
+ * GraphDiagnostics.java
+ *
+ * @author Karen Blakemore
+ *
+ * Checks a map extract before it is deployed, and reports the results as a JSON object:
+ * 		degrees - out- and in-degree histograms and the largest degrees.
+ * 		components - weakly connected components (roads in either direction) and strongly
+ * 			connected components (intersections that can all reach each other).
+ * 		deadEnds - intersections that can not be left, can not be reached, or join only one
+ * 			other intersection (cul-de-sacs).
+ * 		edgeLengths - length percentiles, zero length segments, and outliers longer than the
+ * 			third quartile plus 3 interquartile ranges.
+ * 		diameter - a lower bound on the hop diameter of the largest weak component, from a
+ * 			double-sweep breadth first search.
+ * Every section lists up to SAMPLES example intersections so problems can be found on a map.
+ *
+ * The per-intersection checks run in parallel on a fork-join pool over chunks of CHUNK
+ * intersections; each chunk keeps its own counts, which are merged in chunk order, so the
+ * report does not depend on the number of threads.  Weak components use a lock-free union-find.
+ * Strong components (Tarjan) and the two breadth first searches are linear and sequential.
+ */
+public class GraphDiagnostics {
+	private static final int CHUNK = 4096;
+	private static final int SAMPLES = 10;
+	private static final int SMALL_DEGREE = 64;		// degrees counted per chunk before merging
+	private static final double OUTLIER_IQRS = 3;
+
+	private final FrozenMapGraph graph;
+	private final FrozenMapGraph reverse;
+	private final ForkJoinPool pool;
+	private final int numChunks;
+	private int[] weakComponent;		// vertex -> smallest vertex id in its weak component
+	private int largestWeak = -1;		// the representative of the largest weak component
+
+	/**
+	 * @param graph - the map to check.
+	 * @param pool - pool that runs the parallel checks.
+	 */
+	public GraphDiagnostics(FrozenMapGraph graph, ForkJoinPool pool) {
+		this.graph = graph;
+		this.reverse = graph.reverse();
+		this.pool = pool;
+		this.numChunks = (graph.getNumVertices() + CHUNK - 1) / CHUNK;
+	}
+
+	/** Return the full report, with the time each section took in ms */
+	public JsonObject run() {
+		long start = System.nanoTime();
+		JsonObjectBuilder report = Json.createObjectBuilder();
+		report.add("vertices", graph.getNumVertices());
+		report.add("edges", graph.getNumEdges());
+		report.add("degrees", timed(this::degrees));
+		report.add("components", timed(this::components));
+		report.add("deadEnds", timed(this::deadEnds));
+		report.add("edgeLengths", timed(this::edgeLengths));
+		report.add("diameter", timed(this::diameter));
+		report.add("millis", (System.nanoTime() - start) / 1000000);
+		return report.build();
+	}
+
+	private JsonObjectBuilder timed(Callable<JsonObjectBuilder> section) {
+		long start = System.nanoTime();
+		JsonObjectBuilder result;
+		try {
+			result = section.call();
+		}
+		catch(Exception e) {
+			throw new IllegalStateException("Diagnostics failed", e);
+		}
+		return result.add("millis", (System.nanoTime() - start) / 1000000);
+	}
+
+	// Run body(chunk) for every chunk of vertices on the pool.
+	private void forEachChunk(ChunkBody body) {
+		try {
+			pool.submit(() -> IntStream.range(0, numChunks).parallel().forEach(c ->
+				body.run(c, c * CHUNK, Math.min(graph.getNumVertices(), (c + 1) * CHUNK)))).get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Diagnostics interrupted", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Diagnostics failed", e.getCause());
+		}
+	}
+
+	private interface ChunkBody {
+		void run(int chunk, int begin, int end);
+	}
+
+	/** Return the degree histograms */
+	public JsonObjectBuilder degrees() {
+		return Json.createObjectBuilder()
+				.add("out", degreeHistogram(graph))
+				.add("in", degreeHistogram(reverse));
+	}
+
+	private JsonObjectBuilder degreeHistogram(FrozenMapGraph g) {
+		int[] chunkMax = new int[numChunks];		// the vertex of largest degree in each chunk
+		forEachChunk((c, begin, end) -> {
+			int best = begin;
+			for(int v=begin; v < end; v++) if(g.outDegree(v) > g.outDegree(best)) best = v;
+			chunkMax[c] = best;
+		});
+		int maxVertex = 0;
+		for(int c=0; c < numChunks; c++) if(g.outDegree(chunkMax[c]) > g.outDegree(maxVertex)) maxVertex = chunkMax[c];
+		int maxDegree = graph.getNumVertices() == 0 ? 0 : g.outDegree(maxVertex);
+
+		AtomicLongArray counts = new AtomicLongArray(maxDegree + 1);
+		forEachChunk((c, begin, end) -> {
+			long[] small = new long[Math.min(SMALL_DEGREE, maxDegree + 1)];
+			for(int v=begin; v < end; v++) {
+				int d = g.outDegree(v);
+				if(d < small.length) small[d]++;
+				else counts.incrementAndGet(d);
+			}
+			for(int d=0; d < small.length; d++) if(small[d] > 0) counts.addAndGet(d, small[d]);
+		});
+
+		JsonObjectBuilder histogram = Json.createObjectBuilder();
+		for(int d=0; d <= maxDegree; d++) if(counts.get(d) > 0) histogram.add(Integer.toString(d), counts.get(d));
+		JsonObjectBuilder result = Json.createObjectBuilder();
+		result.add("mean", graph.getNumVertices() == 0 ? 0 : (double)graph.getNumEdges() / graph.getNumVertices());
+		result.add("max", maxDegree);
+		if(graph.getNumVertices() > 0) result.add("maxVertex", vertex(maxVertex));
+		return result.add("histogram", histogram);
+	}
+
+	/** Return the sizes of the weak and strong components */
+	public JsonObjectBuilder components() {
+		int n = graph.getNumVertices();
+		AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		forEachChunk((c, begin, end) -> {
+			for(int v=begin; v < end; v++) parent.set(v, v);
+		});
+		forEachChunk((c, begin, end) -> {
+			for(int v=begin; v < end; v++) {
+				for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) union(parent, v, graph.edgeTarget(e));
+			}
+		});
+		weakComponent = new int[n];
+		forEachChunk((c, begin, end) -> {
+			for(int v=begin; v < end; v++) weakComponent[v] = find(parent, v);
+		});
+
+		int[] weakSize = new int[n];
+		for(int v=0; v < n; v++) weakSize[weakComponent[v]]++;
+		JsonObjectBuilder weak = componentSummary(weakSize);
+		largestWeak = largest(weakSize);
+
+		int[] strongSize = new int[n];
+		int[] strongComponent = strongComponents();
+		for(int v=0; v < n; v++) strongSize[strongComponent[v]]++;
+		JsonObjectBuilder strong = componentSummary(strongSize);
+
+		// Intersections outside the largest strong component can not reach, or can not be
+		// reached from, most of the map.
+		int main = largest(strongSize);
+		JsonArrayBuilder outside = Json.createArrayBuilder();
+		int numOutside = 0;
+		for(int v=0; v < n; v++) {
+			if(strongComponent[v] == main) continue;
+			if(numOutside++ < SAMPLES) outside.add(vertex(v));
+		}
+		strong.add("outsideLargest", numOutside).add("outsideSamples", outside);
+
+		return Json.createObjectBuilder().add("weak", weak).add("strong", strong);
+	}
+
+	// Return the root of v's set, halving the path on the way.
+	private static int find(AtomicIntegerArray parent, int v) {
+		for(;;) {
+			int p = parent.get(v);
+			if(p == v) return v;
+			int grandparent = parent.get(p);
+			if(grandparent != p) parent.compareAndSet(v, p, grandparent);
+			v = grandparent;
+		}
+	}
+
+	// Join the sets of a and b; the smaller root becomes the root of both.
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		for(;;) {
+			a = find(parent, a);
+			b = find(parent, b);
+			if(a == b) return;
+			if(a < b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			if(parent.compareAndSet(a, a, b)) return;
+		}
+	}
+
+	// Return the index of the largest value, the first one if tied.
+	private static int largest(int[] sizes) {
+		int best = 0;
+		for(int i=1; i < sizes.length; i++) if(sizes[i] > sizes[best]) best = i;
+		return best;
+	}
+
+	private static JsonObjectBuilder componentSummary(int[] sizes) {
+		int count = 0, singletons = 0;
+		int[] nonEmpty = new int[sizes.length];
+		for(int size: sizes) {
+			if(size == 0) continue;
+			nonEmpty[count++] = size;
+			if(size == 1) singletons++;
+		}
+		int[] sorted = Arrays.copyOf(nonEmpty, count);
+		Arrays.sort(sorted);
+		JsonArrayBuilder top = Json.createArrayBuilder();
+		for(int i=count - 1; i >= Math.max(0, count - SAMPLES); i--) top.add(sorted[i]);
+		return Json.createObjectBuilder()
+				.add("count", count)
+				.add("singletons", singletons)
+				.add("largestSizes", top);
+	}
+
+	// Return vertex -> strong component id, by Tarjan's algorithm with an explicit stack.
+	private int[] strongComponents() {
+		int n = graph.getNumVertices();
+		int[] index = new int[n];
+		int[] low = new int[n];
+		int[] component = new int[n];
+		int[] nextEdge = new int[n];
+		int[] stack = new int[n];			// vertices not yet assigned a component
+		int[] callStack = new int[n];		// the depth first search path
+		boolean[] onStack = new boolean[n];
+		Arrays.fill(index, -1);
+		int counter = 0, stackSize = 0, numComponents = 0;
+
+		for(int root=0; root < n; root++) {
+			if(index[root] != -1) continue;
+			int depth = 0;
+			callStack[depth++] = root;
+			index[root] = low[root] = counter++;
+			nextEdge[root] = graph.edgeBegin(root);
+			stack[stackSize++] = root;
+			onStack[root] = true;
+
+			while(depth > 0) {
+				int v = callStack[depth - 1];
+				if(nextEdge[v] < graph.edgeEnd(v)) {
+					int w = graph.edgeTarget(nextEdge[v]++);
+					if(index[w] == -1) {
+						index[w] = low[w] = counter++;
+						nextEdge[w] = graph.edgeBegin(w);
+						stack[stackSize++] = w;
+						onStack[w] = true;
+						callStack[depth++] = w;
+					}
+					else if(onStack[w]) low[v] = Math.min(low[v], index[w]);
+					continue;
+				}
+				depth--;
+				if(depth > 0) {
+					int u = callStack[depth - 1];
+					low[u] = Math.min(low[u], low[v]);
+				}
+				if(low[v] == index[v]) {
+					int w;
+					do {
+						w = stack[--stackSize];
+						onStack[w] = false;
+						component[w] = numComponents;
+					} while(w != v);
+					numComponents++;
+				}
+			}
+		}
+		return component;
+	}
+
+	/** Return the counts of intersections that are dead ends */
+	public JsonObjectBuilder deadEnds() {
+		// Categories: no way out, no way in, isolated, and cul-de-sac (one neighbour).
+		String[] names = {"noExit", "noEntry", "isolated", "culDeSac"};
+		long[][] counts = new long[numChunks][names.length];
+		int[][][] samples = new int[numChunks][names.length][SAMPLES];
+
+		forEachChunk((c, begin, end) -> {
+			for(int v=begin; v < end; v++) {
+				int out = graph.outDegree(v);
+				int in = reverse.outDegree(v);
+				int category;
+				if(out == 0 && in == 0) category = 2;
+				else if(out == 0) category = 0;
+				else if(in == 0) category = 1;
+				else if(hasOneNeighbor(v)) category = 3;
+				else continue;
+				long k = counts[c][category]++;
+				if(k < SAMPLES) samples[c][category][(int)k] = v;
+			}
+		});
+
+		JsonObjectBuilder result = Json.createObjectBuilder();
+		for(int category=0; category < names.length; category++) {
+			long total = 0;
+			JsonArrayBuilder list = Json.createArrayBuilder();
+			int listed = 0;
+			for(int c=0; c < numChunks; c++) {
+				for(int i=0; i < counts[c][category] && i < SAMPLES && listed < SAMPLES; i++, listed++) {
+					list.add(vertex(samples[c][category][i]));
+				}
+				total += counts[c][category];
+			}
+			result.add(names[category], Json.createObjectBuilder().add("count", total).add("samples", list));
+		}
+		return result;
+	}
+
+	// Return true if every road into or out of v joins it to the same other intersection.
+	private boolean hasOneNeighbor(int v) {
+		int neighbor = -1;
+		for(FrozenMapGraph g: new FrozenMapGraph[] {graph, reverse}) {
+			for(int e=g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+				int w = g.edgeTarget(e);
+				if(w == v) continue;
+				if(neighbor == -1) neighbor = w;
+				else if(w != neighbor) return false;
+			}
+		}
+		return neighbor != -1;
+	}
+
+	/** Return the edge length percentiles and outliers */
+	public JsonObjectBuilder edgeLengths() {
+		int m = graph.getNumEdges();
+		JsonObjectBuilder result = Json.createObjectBuilder();
+		if(m == 0) return result.add("count", 0);
+
+		double[] sorted = new double[m];
+		for(int e=0; e < m; e++) sorted[e] = graph.edgeLength(e);
+		try {
+			// parallelSort forks into the pool it is called from.
+			pool.submit(() -> Arrays.parallelSort(sorted)).get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Diagnostics interrupted", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Diagnostics failed", e.getCause());
+		}
+
+		double q1 = percentile(sorted, 25);
+		double q3 = percentile(sorted, 75);
+		double limit = q3 + OUTLIER_IQRS * (q3 - q1);
+		JsonObjectBuilder percentiles = Json.createObjectBuilder();
+		for(int p: new int[] {0, 1, 25, 50, 75, 99, 100}) percentiles.add("p" + p, percentile(sorted, p));
+		result.add("count", m).add("km", percentiles);
+
+		// Latitudes in radians and their cosines, for the straight line distances.
+		double[] latRad = new double[graph.getNumVertices()];
+		double[] cosLat = new double[graph.getNumVertices()];
+		forEachChunk((c, begin, end) -> {
+			for(int v=begin; v < end; v++) {
+				latRad[v] = Math.toRadians(graph.latitude(v));
+				cosLat[v] = Math.cos(latRad[v]);
+			}
+		});
+
+		// Categories: zero length, longer than the limit, shorter than the straight line.
+		String[] names = {"zeroLength", "outliers", "shorterThanStraightLine"};
+		long[][] counts = new long[numChunks][names.length];
+		int[][][] samples = new int[numChunks][names.length][SAMPLES];
+		forEachChunk((c, begin, end) -> {
+			for(int v=begin; v < end; v++) {
+				double lon = graph.longitude(v);
+				for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+					double length = graph.edgeLength(e);
+					int w = graph.edgeTarget(e);
+					int category;
+					if(length == 0) category = 0;
+					else if(length > limit) category = 1;
+					else if(length < 0.999 * haversine(latRad, cosLat, v, lon, w) - 1e-6) category = 2;
+					else continue;
+					long k = counts[c][category]++;
+					if(k < SAMPLES) samples[c][category][(int)k] = e;
+				}
+			}
+		});
+
+		int[] source = new int[m];
+		for(int v=0; v < graph.getNumVertices(); v++) Arrays.fill(source, graph.edgeBegin(v), graph.edgeEnd(v), v);
+		result.add("outlierLimit", limit);
+		for(int category=0; category < names.length; category++) {
+			long total = 0;
+			JsonArrayBuilder list = Json.createArrayBuilder();
+			int listed = 0;
+			for(int c=0; c < numChunks; c++) {
+				for(int i=0; i < counts[c][category] && i < SAMPLES && listed < SAMPLES; i++, listed++) {
+					int e = samples[c][category][i];
+					list.add(Json.createObjectBuilder()
+							 .add("from", vertex(source[e]))
+							 .add("to", vertex(graph.edgeTarget(e)))
+							 .add("km", graph.edgeLength(e)));
+				}
+				total += counts[c][category];
+			}
+			result.add(names[category], Json.createObjectBuilder().add("count", total).add("samples", list));
+		}
+		return result;
+	}
+
+	// Return the great circle distance in km from v (at longitude lon) to w, as GeographicPoint.distance computes it.
+	private double haversine(double[] latRad, double[] cosLat, int v, double lon, int w) {
+		double sinLat = Math.sin((latRad[w] - latRad[v]) / 2);
+		double sinLon = Math.sin(Math.toRadians(graph.longitude(w) - lon) / 2);
+		double a = sinLat * sinLat + cosLat[v] * cosLat[w] * sinLon * sinLon;
+		return 6373 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+
+	// Return the p-th percentile of sorted values, by the nearest rank.
+	private static double percentile(double[] sorted, int p) {
+		int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	/**
+	 * Return a lower bound on the hop diameter of the largest weak component, treating roads
+	 * as two-way: search from any intersection to the farthest one u, then from u to the
+	 * farthest one from it.
+	 */
+	public JsonObjectBuilder diameter() {
+		JsonObjectBuilder result = Json.createObjectBuilder();
+		if(graph.getNumVertices() == 0) return result.add("hops", 0);
+		if(weakComponent == null) components();
+
+		int[] hops = new int[graph.getNumVertices()];
+		int[] queue = new int[graph.getNumVertices()];
+		int u = farthest(largestWeak, hops, queue);
+		int w = farthest(u, hops, queue);
+		return result.add("hops", hops[w])
+					 .add("from", vertex(u))
+					 .add("to", vertex(w))
+					 .add("componentRoot", vertex(largestWeak));
+	}
+
+	// Breadth first search over roads in either direction; return the last vertex reached.
+	private int farthest(int source, int[] hops, int[] queue) {
+		Arrays.fill(hops, -1);
+		int head = 0, tail = 0;
+		queue[tail++] = source;
+		hops[source] = 0;
+		while(head < tail) {
+			int v = queue[head++];
+			for(FrozenMapGraph g: new FrozenMapGraph[] {graph, reverse}) {
+				for(int e=g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+					int w = g.edgeTarget(e);
+					if(hops[w] != -1) continue;
+					hops[w] = hops[v] + 1;
+					queue[tail++] = w;
+				}
+			}
+		}
+		return queue[tail - 1];
+	}
+
+	private JsonObjectBuilder vertex(int v) {
+		return Json.createObjectBuilder()
+				.add("id", v)
+				.add("lat", graph.latitude(v))
+				.add("lon", graph.longitude(v));
+	}
+
+	/** Write a report as indented JSON, and close the writer */
+	public static void write(JsonObject report, Writer out) {
+		try(JsonWriter writer = Json.createWriterFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true))
+									.createWriter(out)) {
+			writer.writeObject(report);
+		}
+	}
+
+	/**
+	 * Usage: GraphDiagnostics [file.map | file.bin]
+	 * Without arguments, checks data/maps/hollywood_large.map and times a synthetic map with
+	 * several million road segments.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String file = args.length > 0 ? args[0] : "data/maps/hollywood_large.map";
+		FrozenMapGraph graph;
+		if(file.endsWith(".bin")) {
+			graph = FrozenMapGraph.read(new File(file));
+		}
+		else {
+			System.out.print("Making a new map...");
+			MapGraph theMap = new MapGraph();
+			System.out.print("DONE. \nLoading the map...");
+			GraphLoader.loadRoadMap(file, theMap);
+			System.out.println("DONE.");
+			graph = theMap.freeze();
+		}
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		JsonObject report = new GraphDiagnostics(graph, pool).run();
+		StringWriter text = new StringWriter();
+		write(report, text);
+		System.out.println(text);
+		if(args.length > 0) return;
+
+		FrozenMapGraph large = new SyntheticMapMaker(1200, 1200, 42).generate();
+		JsonObject largeReport = new GraphDiagnostics(large, pool).run();
+		System.out.println("Synthetic map, " + large.getNumVertices() + " intersections and " + large.getNumEdges()
+						   + " road segments, on " + pool.getParallelism() + " threads: " + largeReport.getInt("millis") + " ms.");
+		for(String section: new String[] {"degrees", "components", "deadEnds", "edgeLengths", "diameter"}) {
+			System.out.println("\t" + section + ": " + largeReport.getJsonObject(section).getInt("millis") + " ms");
+		}
+	}
+}
@@ -0,0 +1,411 @@
+package roadgraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+import util.IndexedMinHeap;
+
+/**
+ * HubLabels.java
+ *
+ * @author Karen Blakemore
+ *
+ * A hub labeling of a road map, for distance queries that do not need the path.
+ * Every vertex v has an out label, a list of (hub, dist(v, hub)), and an in label, a list of
+ * (hub, dist(hub, v)), chosen so that every shortest path from s to t passes through a hub in
+ * both out(s) and in(t).  The distance from s to t is then the minimum of
+ * dist(s, h) + dist(h, t) over the common hubs h, found by merging the two sorted labels.
+ *
+ * Labels are built by pruned landmark labeling (Akiba, Iwata and Yoshida, 2013): vertices are
+ * taken in order of decreasing degree, and a forward and a backward Dijkstra from each vertex
+ * adds it as a hub to the labels it reaches, pruning wherever the labels built so far already
+ * give the distance.  Hubs are stored by rank, so each label is sorted as it is built.
+ *
+ * The labels are kept as flat primitive arrays and can be written to a file that is later
+ * memory-mapped, so a large index is loaded without being read or copied onto the heap.
+ * File layout (big-endian):
+ * 		int MAGIC, int n, int outEntries, int inEntries
+ * 		int outStart[n+1], int inStart[n+1]
+ * 		int outHub[outEntries], int inHub[inEntries]
+ * 		double outDist[outEntries], double inDist[inEntries]
+ * Entries for vertex v run from start[v] to start[v+1]-1.
+ */
+public class HubLabels {
+	private static final int MAGIC = 0x48554231;	// "HUB1"
+	private static final int HEADER_BYTES = 16;
+
+	private final int n;
+	private final IntBuffer outStart, inStart;
+	private final IntBuffer outHub, inHub;
+	private final DoubleBuffer outDist, inDist;
+
+	private HubLabels(int n, IntBuffer outStart, IntBuffer inStart, IntBuffer outHub, IntBuffer inHub,
+					  DoubleBuffer outDist, DoubleBuffer inDist) {
+		this.n = n;
+		this.outStart = outStart;
+		this.inStart = inStart;
+		this.outHub = outHub;
+		this.inHub = inHub;
+		this.outDist = outDist;
+		this.inDist = inDist;
+	}
+
+	/**
+	 * Build the labels of a map snapshot, using edge lengths as costs.
+	 */
+	public static HubLabels build(FrozenMapGraph graph) {
+		return build(graph, null);
+	}
+
+	/**
+	 * Build the labels of a map snapshot.
+	 * @param graph - the road map snapshot.
+	 * @param weights - non-negative cost of each edge, or null to use edge lengths.
+	 * @return the labels, held on the heap.
+	 */
+	public static HubLabels build(FrozenMapGraph graph, double[] weights) {
+		int n = graph.getNumVertices();
+		FrozenMapGraph reverse = graph.reverse();
+		double[] forwardWeights = new double[graph.getNumEdges()];
+		double[] reverseWeights = new double[graph.getNumEdges()];
+		int[] reverseIds = graph.reverseEdgeIds();
+		for(int e=0; e < graph.getNumEdges(); e++) {
+			forwardWeights[e] = weights == null ? graph.edgeLength(e) : weights[e];
+			reverseWeights[reverseIds[e]] = forwardWeights[e];
+		}
+
+		// Rank vertices by decreasing total degree; order[r] is the vertex with hub id r.
+		int[] degree = new int[n];
+		for(int v=0; v < n; v++) degree[v] = graph.outDegree(v) + reverse.outDegree(v);
+		Integer[] order = new Integer[n];
+		for(int v=0; v < n; v++) order[v] = v;
+		Arrays.sort(order, (a, b) -> degree[a] != degree[b] ? degree[b] - degree[a] : a - b);
+
+		LabelBuilder out = new LabelBuilder(n);
+		LabelBuilder in = new LabelBuilder(n);
+		PrunedSearch search = new PrunedSearch(n);
+		for(int rank=0; rank < n; rank++) {
+			int root = order[rank];
+			// Forward search: dist(root, u) goes into in(u), pruned by out(root) x in(u).
+			search.run(graph, forwardWeights, root, rank, out, in);
+			// Backward search: dist(u, root) goes into out(u), pruned by out(u) x in(root).
+			search.run(reverse, reverseWeights, root, rank, in, out);
+		}
+
+		return new HubLabels(n, IntBuffer.wrap(out.starts()), IntBuffer.wrap(in.starts()),
+							 IntBuffer.wrap(out.hubs()), IntBuffer.wrap(in.hubs()),
+							 DoubleBuffer.wrap(out.dists()), DoubleBuffer.wrap(in.dists()));
+	}
+
+	/** Return the number of vertices */
+	public int getNumVertices() {
+		return n;
+	}
+
+	/**
+	 * Return the shortest distance from vertex s to vertex t.
+	 * @return the distance, or infinity if there is no path.
+	 */
+	public double distance(int s, int t) {
+		if(s == t) return 0.0;
+		return join(outHub, outDist, outStart.get(s), outStart.get(s + 1),
+					inHub, inDist, inStart.get(t), inStart.get(t + 1));
+	}
+
+	/**
+	 * Return the shortest distance between two intersections of a map.
+	 * @param graph - the snapshot the labels were built from.
+	 * @return the distance, or infinity if either point is not in the map or there is no path.
+	 */
+	public double distance(FrozenMapGraph graph, GeographicPoint start, GeographicPoint goal) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		return s == -1 || t == -1 ? Double.POSITIVE_INFINITY : distance(s, t);
+	}
+
+	// Merge two labels sorted by hub, returning the best distance through a common hub.
+	private static double join(IntBuffer hubA, DoubleBuffer distA, int a, int aEnd,
+							   IntBuffer hubB, DoubleBuffer distB, int b, int bEnd) {
+		double best = Double.POSITIVE_INFINITY;
+		while(a < aEnd && b < bEnd) {
+			int ha = hubA.get(a);
+			int hb = hubB.get(b);
+			if(ha < hb) a++;
+			else if(ha > hb) b++;
+			else {
+				best = Math.min(best, distA.get(a++) + distB.get(b++));
+			}
+		}
+		return best;
+	}
+
+	/** Return the size of the out label of vertex v */
+	public int outLabelSize(int v) {
+		return outStart.get(v + 1) - outStart.get(v);
+	}
+
+	/** Return the size of the in label of vertex v */
+	public int inLabelSize(int v) {
+		return inStart.get(v + 1) - inStart.get(v);
+	}
+
+	/** Return the total number of label entries, in and out */
+	public long getNumEntries() {
+		return (long)outStart.get(n) + inStart.get(n);
+	}
+
+	/** Return the size of the labels in the file format, in bytes */
+	public long getBytes() {
+		return HEADER_BYTES + 8L * (n + 1) + 12L * getNumEntries();
+	}
+
+	/**
+	 * Write the labels to a file, in the format read by map().
+	 * @param file - the file to create or overwrite.
+	 */
+	public void write(File file) throws IOException {
+		int outEntries = outStart.get(n);
+		int inEntries = inStart.get(n);
+		try(DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			stream.writeInt(MAGIC);
+			stream.writeInt(n);
+			stream.writeInt(outEntries);
+			stream.writeInt(inEntries);
+			for(int v=0; v <= n; v++) stream.writeInt(outStart.get(v));
+			for(int v=0; v <= n; v++) stream.writeInt(inStart.get(v));
+			for(int i=0; i < outEntries; i++) stream.writeInt(outHub.get(i));
+			for(int i=0; i < inEntries; i++) stream.writeInt(inHub.get(i));
+			for(int i=0; i < outEntries; i++) stream.writeDouble(outDist.get(i));
+			for(int i=0; i < inEntries; i++) stream.writeDouble(inDist.get(i));
+		}
+	}
+
+	/**
+	 * Memory-map labels written by write().  The file is read by the operating system as
+	 * queries touch it, and stays valid after the channel is closed.
+	 * @param file - the label file.
+	 * @return the labels, backed by the mapped file.
+	 * @throws IOException If the file can not be read or is not a label file.
+	 */
+	public static HubLabels map(File file) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			if(channel.size() > Integer.MAX_VALUE) throw new IOException("Label file too large to map: " + file);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(channel.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC) throw new IOException("Not a label file: " + file);
+			int n = buffer.getInt(4);
+			int outEntries = buffer.getInt(8);
+			int inEntries = buffer.getInt(12);
+			long expected = HEADER_BYTES + 8L * (n + 1) + 12L * ((long)outEntries + inEntries);
+			if(channel.size() != expected) throw new IOException("Truncated label file: " + file);
+
+			int position = HEADER_BYTES;
+			IntBuffer outStart = slice(buffer, position, 4 * (n + 1)).asIntBuffer();
+			position += 4 * (n + 1);
+			IntBuffer inStart = slice(buffer, position, 4 * (n + 1)).asIntBuffer();
+			position += 4 * (n + 1);
+			IntBuffer outHub = slice(buffer, position, 4 * outEntries).asIntBuffer();
+			position += 4 * outEntries;
+			IntBuffer inHub = slice(buffer, position, 4 * inEntries).asIntBuffer();
+			position += 4 * inEntries;
+			DoubleBuffer outDist = slice(buffer, position, 8 * outEntries).asDoubleBuffer();
+			position += 8 * outEntries;
+			DoubleBuffer inDist = slice(buffer, position, 8 * inEntries).asDoubleBuffer();
+			return new HubLabels(n, outStart, inStart, outHub, inHub, outDist, inDist);
+		}
+	}
+
+	// Return the bytes [position, position+length) of buffer as a buffer of their own.
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.limit(position + length);
+		return view.slice();
+	}
+
+	// Growable per-vertex labels, flattened once construction is done.
+	private static class LabelBuilder {
+		private final int[][] hubs;
+		private final double[][] dists;
+		private final int[] sizes;
+
+		LabelBuilder(int n) {
+			hubs = new int[n][];
+			dists = new double[n][];
+			sizes = new int[n];
+		}
+
+		void add(int v, int hub, double dist) {
+			if(hubs[v] == null) {
+				hubs[v] = new int[4];
+				dists[v] = new double[4];
+			}
+			else if(sizes[v] == hubs[v].length) {
+				hubs[v] = Arrays.copyOf(hubs[v], sizes[v] * 2);
+				dists[v] = Arrays.copyOf(dists[v], sizes[v] * 2);
+			}
+			hubs[v][sizes[v]] = hub;
+			dists[v][sizes[v]++] = dist;
+		}
+
+		int[] starts() {
+			int[] starts = new int[sizes.length + 1];
+			for(int v=0; v < sizes.length; v++) {
+				if((long)starts[v] + sizes[v] > Integer.MAX_VALUE) throw new IllegalStateException("Labels too large");
+				starts[v + 1] = starts[v] + sizes[v];
+			}
+			return starts;
+		}
+
+		int[] hubs() {
+			int[] flat = new int[starts()[sizes.length]];
+			for(int v=0, i=0; v < sizes.length; i += sizes[v++]) {
+				if(sizes[v] > 0) System.arraycopy(hubs[v], 0, flat, i, sizes[v]);
+			}
+			return flat;
+		}
+
+		double[] dists() {
+			double[] flat = new double[starts()[sizes.length]];
+			for(int v=0, i=0; v < sizes.length; i += sizes[v++]) {
+				if(sizes[v] > 0) System.arraycopy(dists[v], 0, flat, i, sizes[v]);
+			}
+			return flat;
+		}
+	}
+
+	// One pruned Dijkstra, with state reused between roots.
+	private static class PrunedSearch {
+		private final IndexedMinHeap heap;
+		private final double[] dist;
+		private final double[] rootLabel;	// hub rank -> distance in the root's own label
+		private final int[] touched;
+		private int numTouched;
+
+		PrunedSearch(int n) {
+			heap = new IndexedMinHeap(n);
+			dist = new double[n];
+			rootLabel = new double[n];
+			touched = new int[n];
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(rootLabel, Double.POSITIVE_INFINITY);
+		}
+
+		// Search from root, adding (rank, d) to target labels of the vertices reached, unless
+		// rootSide(root) x target(u) already gives a distance of d or less.
+		void run(FrozenMapGraph graph, double[] weights, int root, int rank,
+				 LabelBuilder rootSide, LabelBuilder target) {
+			int rootSize = rootSide.sizes[root];
+			for(int i=0; i < rootSize; i++) rootLabel[rootSide.hubs[root][i]] = rootSide.dists[root][i];
+
+			dist[root] = 0.0;
+			touched[numTouched++] = root;
+			heap.insertOrDecrease(root, 0.0);
+			while(!heap.isEmpty()) {
+				int u = heap.removeMin();
+				double d = dist[u];
+				if(covered(target, u, d)) continue;
+				target.add(u, rank, d);
+
+				for(int e=graph.edgeBegin(u); e < graph.edgeEnd(u); e++) {
+					int w = graph.edgeTarget(e);
+					double nd = d + weights[e];
+					if(nd < dist[w]) {
+						if(dist[w] == Double.POSITIVE_INFINITY) touched[numTouched++] = w;
+						dist[w] = nd;
+						heap.insertOrDecrease(w, nd);
+					}
+				}
+			}
+
+			for(int i=0; i < numTouched; i++) dist[touched[i]] = Double.POSITIVE_INFINITY;
+			numTouched = 0;
+			for(int i=0; i < rootSize; i++) rootLabel[rootSide.hubs[root][i]] = Double.POSITIVE_INFINITY;
+		}
+
+		// Return true if the labels built so far give a path of length d or less to u.
+		private boolean covered(LabelBuilder target, int u, double d) {
+			int[] hubs = target.hubs[u];
+			double[] dists = target.dists[u];
+			for(int i=0; i < target.sizes[u]; i++) {
+				if(rootLabel[hubs[i]] + dists[i] <= d) return true;
+			}
+			return false;
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String file = args.length > 0 ? args[0] : "data/maps/san_diego.map";
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap(file, theMap);
+		System.out.println("DONE.");
+		FrozenMapGraph graph = theMap.freeze();
+		int n = graph.getNumVertices();
+
+		long t0 = System.nanoTime();
+		HubLabels built = HubLabels.build(graph);
+		long t1 = System.nanoTime();
+
+		int maxLabel = 0;
+		for(int v=0; v < n; v++) maxLabel = Math.max(maxLabel, Math.max(built.outLabelSize(v), built.inLabelSize(v)));
+		System.out.println("Built labels for " + n + " intersections in " + (t1 - t0) / 1000000 + " ms: average label "
+						   + String.format("%.1f", built.getNumEntries() / (2.0 * n)) + " hubs, largest " + maxLabel
+						   + ", " + built.getBytes() / 1024 + " KB.");
+
+		File labelFile = File.createTempFile("hublabels", ".bin");
+		labelFile.deleteOnExit();
+		built.write(labelFile);
+		HubLabels labels = HubLabels.map(labelFile);
+
+		// Check against Dijkstra, then time random queries.
+		Random random = new Random(1);
+		ShortestPathSearch search = new ShortestPathSearch(graph);
+		int mismatches = 0;
+		int checks = 200;
+		for(int i=0; i < checks; i++) {
+			int s = random.nextInt(n);
+			int t = random.nextInt(n);
+			double expected = search.run(s, t);
+			double d = labels.distance(s, t);
+			if(d != expected && !(Math.abs(d - expected) < 1e-9)) mismatches++;
+		}
+		System.out.println("Checked " + checks + " queries against Dijkstra: " + mismatches + " mismatches.");
+
+		int queries = 1000000;
+		int[] sources = new int[queries];
+		int[] targets = new int[queries];
+		for(int i=0; i < queries; i++) {
+			sources[i] = random.nextInt(n);
+			targets[i] = random.nextInt(n);
+		}
+		double total = 0;
+		t0 = System.nanoTime();
+		for(int i=0; i < queries; i++) {
+			double d = labels.distance(sources[i], targets[i]);
+			if(d != Double.POSITIVE_INFINITY) total += d;
+		}
+		t1 = System.nanoTime();
+		System.out.println(queries + " queries on the mapped file: " + String.format("%.3f", (t1 - t0) / 1000.0 / queries)
+						   + " us per query (checksum " + String.format("%.1f", total) + ").");
+
+		t0 = System.nanoTime();
+		for(int i=0; i < 1000; i++) search.run(sources[i], targets[i]);
+		t1 = System.nanoTime();
+		System.out.println("Dijkstra: " + String.format("%.1f", (t1 - t0) / 1000.0 / 1000) + " us per query.");
+	}
+}
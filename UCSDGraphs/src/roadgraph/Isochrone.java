@@ -0,0 +1,140 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Isochrone.java
+ *
+ * @author Karen Blakemore
+ *
+ * Finds everything reachable within a distance or time budget from one or more depots, e.g.,
+ * to draw service areas.  A single bounded Dijkstra search is run from all depots at once,
+ * so each intersection is assigned to its nearest depot, and the search stops as soon as the
+ * next intersection would exceed the budget.
+ */
+public class Isochrone {
+	private static final int MAX_SEARCHES = 4;	// searches kept, for the most recently used profiles
+
+	private final FrozenMapGraph graph;
+	private final LinkedHashMap<CostProfile, ShortestPathSearch> searches;	// one reusable O(n) search per profile
+	private final int[] position;		// vertex -> index in the current result; valid for settled vertices.
+	private final int[] depotOf;		// vertex -> depot index; valid for the current depots.
+
+	/**
+	 * Create an isochrone calculator for a map.
+	 * @param map - the road map.
+	 */
+	public Isochrone(MapGraph map) {
+		this(map.freeze());
+	}
+
+	/**
+	 * Create an isochrone calculator for a map snapshot.
+	 * @param graph - the road map snapshot.
+	 */
+	public Isochrone(FrozenMapGraph graph) {
+		this.graph = graph;
+		// Least recently used order, dropping the oldest search beyond MAX_SEARCHES.
+		this.searches = new LinkedHashMap<CostProfile, ShortestPathSearch>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<CostProfile, ShortestPathSearch> eldest) {
+				return size() > MAX_SEARCHES;
+			}
+		};
+		this.position = new int[graph.getNumVertices()];
+		this.depotOf = new int[graph.getNumVertices()];
+	}
+
+	/**
+	 * Find the intersections within a road distance of a depot.
+	 * @param depot - location of the depot.
+	 * @param km - distance budget in km.
+	 * @return the reachable intersections, or null if the depot is not in the map.
+	 */
+	public ReachableSet withinDistance(GeographicPoint depot, double km) {
+		return reachable(Arrays.asList(depot), km, CostProfile.DISTANCE);
+	}
+
+	/**
+	 * Find the intersections within a driving time of a depot, using car speeds.
+	 * @param depot - location of the depot.
+	 * @param minutes - time budget in minutes.
+	 * @return the reachable intersections, or null if the depot is not in the map.
+	 */
+	public ReachableSet withinTime(GeographicPoint depot, double minutes) {
+		return reachable(Arrays.asList(depot), minutes, CostProfile.car());
+	}
+
+	/**
+	 * Find the intersections within a budget of any of several depots, in one search.
+	 * @param depots - locations of the depots.
+	 * @param budget - maximum cost, in the units of the profile.
+	 * @param profile - cost of each road segment.
+	 * @return the reachable intersections, or null if a depot is not in the map.
+	 */
+	public synchronized ReachableSet reachable(List<GeographicPoint> depots, double budget, CostProfile profile) {
+		if(depots == null || depots.isEmpty() || budget < 0 || profile == null)
+			throw new IllegalArgumentException();
+
+		int[] sources = new int[depots.size()];
+		for(int i=0; i < sources.length; i++) {
+			sources[i] = graph.getIndex(depots.get(i));
+			if(sources[i] == -1) {
+				System.out.println("Depot " + depots.get(i) + " is not in the map!");
+				return null;
+			}
+		}
+
+		ShortestPathSearch search = searches.get(profile);
+		if(search == null) {
+			search = new ShortestPathSearch(graph, profile == CostProfile.DISTANCE ? null : profile.edgeWeights(graph));
+			searches.put(profile, search);
+		}
+		search.run(sources, null, budget);
+
+		// Vertices are settled after their parents, so each inherits its parent's depot.
+		int settled = search.getNumSettled();
+		int[] vertices = new int[settled];
+		double[] costs = new double[settled];
+		int[] nearest = new int[settled];
+		for(int d=sources.length - 1; d >= 0; d--) depotOf[sources[d]] = d;
+		for(int i=0; i < settled; i++) {
+			int v = search.getSettled(i);
+			vertices[i] = v;
+			costs[i] = search.getDistance(v);
+			position[v] = i;
+			int parent = search.getParent(v);
+			nearest[i] = parent == -1 ? depotOf[v] : nearest[position[parent]];
+		}
+		return new ReachableSet(graph, vertices, costs, nearest, budget);
+	}
+
+	public static void main(String[] args)
+	{
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap("data/maps/san_diego.map", theMap);
+		System.out.println("DONE.");
+
+		FrozenMapGraph graph = theMap.freeze();
+		Isochrone isochrone = new Isochrone(graph);
+		GeographicPoint depot = graph.getLocation(0);
+
+		ReachableSet area = isochrone.withinDistance(depot, 2.0);
+		System.out.println(area.size() + " intersections within 2 km of " + depot);
+		System.out.println("Service area outline has " + area.getOutline(2.0).size() + " corners.");
+
+		area = isochrone.withinTime(depot, 3.0);
+		System.out.println(area.size() + " intersections within 3 minutes of " + depot);
+
+		List<GeographicPoint> depots = Arrays.asList(graph.getLocation(0), graph.getLocation(graph.getNumVertices() / 2));
+		area = isochrone.reachable(depots, 1.5, CostProfile.DISTANCE);
+		System.out.println(area.size() + " intersections within 1.5 km of " + depots);
+	}
+}
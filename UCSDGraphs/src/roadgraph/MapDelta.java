@@ -0,0 +1,73 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * MapDelta.java
+ *
+ * @author Karen Blakemore
+ *
+ * A batch of additions to a VersionedMapGraph: new intersections and new road segments.
+ * A delta is built by one writer thread and then applied all at once by
+ * VersionedMapGraph.publish(), so readers see either none of it or all of it.
+ */
+public class MapDelta {
+	final List<GeographicPoint> vertices = new ArrayList<GeographicPoint>();
+	final List<GeographicPoint> edgeFrom = new ArrayList<GeographicPoint>();
+	final List<GeographicPoint> edgeTo = new ArrayList<GeographicPoint>();
+	final List<String> edgeName = new ArrayList<String>();
+	final List<String> edgeType = new ArrayList<String>();
+	final List<Double> edgeLength = new ArrayList<Double>();
+	private final HashSet<GeographicPoint> added = new HashSet<GeographicPoint>();
+
+	/**
+	 * Add an intersection.  Intersections already in the graph are ignored when the delta
+	 * is published.
+	 * @param location - the location of the intersection.
+	 * @return false if the location is null or already in this delta.
+	 */
+	public boolean addVertex(GeographicPoint location) {
+		if(location == null || !added.add(location)) return false;
+		vertices.add(location);
+		return true;
+	}
+
+	/**
+	 * Add a directed road segment.  Both end points must be in the graph or in this delta
+	 * when the delta is published.
+	 * @param from - the starting point of the segment.
+	 * @param to - the ending point of the segment.
+	 * @param roadName - the name of the road.
+	 * @param roadType - the type of the road (e.g., residential, primary).
+	 * @param length - the length of the segment, in km.
+	 * @throws IllegalArgumentException If any argument is null or the length is less than 0.
+	 */
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName, String roadType, double length) {
+		if(from == null || to == null || roadName == null || roadType == null || length < 0)
+			throw new IllegalArgumentException();
+		edgeFrom.add(from);
+		edgeTo.add(to);
+		edgeName.add(roadName);
+		edgeType.add(roadType);
+		edgeLength.add(length);
+	}
+
+	/** Return the number of intersections added */
+	public int getNumVertices() {
+		return vertices.size();
+	}
+
+	/** Return the number of road segments added */
+	public int getNumEdges() {
+		return edgeFrom.size();
+	}
+
+	/** Return true if nothing has been added */
+	public boolean isEmpty() {
+		return vertices.isEmpty() && edgeFrom.isEmpty();
+	}
+}
@@ -26,6 +26,16 @@ public class MapEdge {
 		return this.end;
 	}
 	
+	/** Return the name of the road */
+	public String getName() {
+		return this.name;
+	}
+	
+	/** Return the type of the road (e.g., residential, city, connector) */
+	public String getType() {
+		return this.type;
+	}
+	
 	/** Return the distance associated with this edge */
 	public double getDistance() {
 		return this.distance;
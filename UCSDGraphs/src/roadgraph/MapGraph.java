@@ -27,14 +27,19 @@ import util.GraphLoader;
  */
 public class MapGraph {
 	private HashMap <GeographicPoint, MapNode> map;	// location -> node mapping
+	private ArrayList<MapNode> nodes;				// node id -> node
+	private StringTable roadStrings;				// road names and types, shared by all edges
 	private int count;								// When searching for path, count is # nodes visited.
 													// This is used to compare efficiency of weighted search methods.	
+	private FrozenMapGraph frozen;					// Array snapshot of the map, rebuilt after the map changes.
 	/** 
 	 * Create a new empty MapGraph 
 	 */
 	public MapGraph()
 	{
 		map = new HashMap<GeographicPoint, MapNode>();
+		nodes = new ArrayList<MapNode>();
+		roadStrings = new StringTable();
 		count = 0;
 	}
 	
@@ -56,6 +61,23 @@ public class MapGraph {
 		return map.keySet();
 	}
 	
+	/**
+	 * Return the location of an intersection given its id.  Ids are assigned 0 .. n-1
+	 * in the order intersections are added, and are the ids reported to SearchEventBuffers.
+	 * @param id The id of the intersection
+	 * @return The location of the intersection
+	 */
+	public GeographicPoint getLocation(int id)
+	{
+		return nodes.get(id).getLoc();
+	}
+	
+	// Return the intersection with the given id.
+	MapNode getNode(int id)
+	{
+		return nodes.get(id);
+	}
+	
 	/**
 	 * Get the number of road segments in the graph
 	 * @return The number of edges in the graph.
@@ -92,7 +114,10 @@ public class MapGraph {
 	{
 		if(location == null || map.get(location) != null) return false;
 	
-		map.put(location,  new MapNode(location));		
+		MapNode node = new MapNode(location, nodes.size());
+		map.put(location, node);
+		nodes.add(node);
+		frozen = null;
 		return true;
 	}
 	
@@ -122,7 +147,50 @@ public class MapGraph {
 		MapNode nodeTo = map.get(to);
 		if(nodeTo == null) throw new IllegalArgumentException();
 		
-		nodeFrom.addEdge(nodeTo, roadName, roadType, length);	
+		// Share one String object per distinct road name and type across all edges.
+		nodeFrom.addEdge(nodeTo, roadStrings.canonical(roadName), roadStrings.canonical(roadType), length);	
+		frozen = null;
+	}
+	
+	/**
+	 * Return an immutable, array based snapshot of this map.  The snapshot is cached until
+	 * the map is next changed, so repeated calls are cheap.  Searches over the snapshot do
+	 * not use the search state stored in MapNodes, so they can run concurrently.
+	 * Vertex v of the snapshot is the intersection with id v (see getLocation(int)), and the
+	 * edges of each vertex are in the order returned by MapNode.getEdges().
+	 * @return The snapshot of the current map.
+	 */
+	public FrozenMapGraph freeze()
+	{
+		if(frozen != null) return frozen;
+		
+		int n = nodes.size();
+		double[] latitude = new double[n];
+		double[] longitude = new double[n];
+		int[] firstEdge = new int[n + 1];
+		for(int v=0; v < n; v++) {
+			latitude[v] = nodes.get(v).getLoc().getX();
+			longitude[v] = nodes.get(v).getLoc().getY();
+			firstEdge[v + 1] = firstEdge[v] + nodes.get(v).getNumNodeEdges();
+		}
+		
+		int[] edgeTarget = new int[firstEdge[n]];
+		double[] edgeLength = new double[firstEdge[n]];
+		int[] edgeType = new int[firstEdge[n]];
+		StringTable roadTypes = new StringTable();
+		int e = 0;
+		for(int v=0; v < n; v++) {
+			for(MapEdge edge: nodes.get(v).getEdges()) {
+				edgeTarget[e] = edge.getEndNode().getId();
+				edgeLength[e] = edge.getDistance();
+				edgeType[e] = roadTypes.intern(edge.getType());
+				e++;
+			}
+		}
+		
+		frozen = new FrozenMapGraph(latitude, longitude, firstEdge, edgeTarget, edgeLength,
+									roadTypes.toArray(), edgeType);
+		return frozen;
 	}
 	
 	// Reconstruct shortest path from parent list, in terms of locations, starting with goal node.
@@ -165,6 +233,33 @@ public class MapGraph {
 	 */
 	public List<GeographicPoint> bfs(GeographicPoint start, 
 			 					     GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	{
+		return breadthFirstSearch(start, goal, node -> nodeSearched.accept(node.getLoc()));
+	}
+	
+	/** Find the path from start to goal using breadth first search, streaming the ids
+	 *  of visited intersections to a buffer (see getLocation(int)).
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param events Buffer that receives the ids of visited intersections.
+	 * @return The list of intersections that form the shortest (unweighted)
+	 *   path from start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bfs(GeographicPoint start, 
+			 					     GeographicPoint goal, SearchEventBuffer events)
+	{
+		try {
+			return breadthFirstSearch(start, goal, node -> events.offer(node.getId()));
+		}
+		finally {
+			events.finish();
+		}
+	}
+	
+	// Breadth first search, reporting each dequeued node to nodeSearched.
+	private List<GeographicPoint> breadthFirstSearch(GeographicPoint start, 
+			 					     GeographicPoint goal, Consumer<MapNode> nodeSearched)
 	{
 		if (start == null || goal == null) {
 			System.out.println("Start or goal locations are null!  No path exists.");
@@ -199,7 +294,7 @@ public class MapGraph {
 		
 		while(!toVisit.isEmpty()) {
 			MapNode node = toVisit.remove();
-			nodeSearched.accept(node.getLoc());	// save location for visualization of path.
+			nodeSearched.accept(node);	// save node for visualization of path.
 			
 			if(node == goalNode)  // found path!, return list of locations for path
 				return(reconstructPath(parentMap, startNode, goalNode, false));
@@ -243,6 +338,33 @@ public class MapGraph {
 	 */
 	public List<GeographicPoint> dijkstra(GeographicPoint start, 
 										  GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	{
+		return dijkstraSearch(start, goal, node -> nodeSearched.accept(node.getLoc()));
+	}
+	
+	/** Find the path from start to goal using Dijkstra's algorithm, streaming the ids
+	 *  of visited intersections to a buffer (see getLocation(int)).
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param events Buffer that receives the ids of visited intersections.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, 
+										  GeographicPoint goal, SearchEventBuffer events)
+	{
+		try {
+			return dijkstraSearch(start, goal, node -> events.offer(node.getId()));
+		}
+		finally {
+			events.finish();
+		}
+	}
+	
+	// Dijkstra's algorithm, reporting each dequeued node to nodeSearched.
+	private List<GeographicPoint> dijkstraSearch(GeographicPoint start, 
+										  GeographicPoint goal, Consumer<MapNode> nodeSearched)
 	{
 		if (start == null || goal == null) {
 			System.out.println("Start or goal locations are null!  No path exists.");
@@ -281,7 +403,7 @@ public class MapGraph {
 		
 		while(!PQ.isEmpty()) {
 			MapNode node = PQ.remove();
-			nodeSearched.accept(node.getLoc());	// save location for visualization of path.
+			nodeSearched.accept(node);	// save node for visualization of path.
 			
 			// Goal found!  Return reconstructed path.
 			if(node == goalNode) return reconstructPath(parentMap, startNode, goalNode, false);
@@ -330,6 +452,33 @@ public class MapGraph {
 	 */
 	public List<GeographicPoint> aStarSearch(GeographicPoint start, 
 											 GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	{
+		return aStar(start, goal, node -> nodeSearched.accept(node.getLoc()));
+	}
+	
+	/** Find the path from start to goal using the optimized A-Star search, streaming the ids
+	 *  of visited intersections to a buffer (see getLocation(int)).
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param events Buffer that receives the ids of visited intersections.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, 
+											 GeographicPoint goal, SearchEventBuffer events)
+	{
+		try {
+			return aStar(start, goal, node -> events.offer(node.getId()));
+		}
+		finally {
+			events.finish();
+		}
+	}
+	
+	// Optimized A-Star search, reporting each dequeued node to nodeSearched.
+	private List<GeographicPoint> aStar(GeographicPoint start, 
+										GeographicPoint goal, Consumer<MapNode> nodeSearched)
 	{
 		if (start == null || goal == null) {
 			System.out.println("Start or goal locations are null!  No path exists.");
@@ -368,7 +517,7 @@ public class MapGraph {
 		
 		while(!PQ.isEmpty()) {
 			MapNode node = PQ.remove();
-			nodeSearched.accept(node.getLoc());	// save location for visualization of path.
+			nodeSearched.accept(node);	// save node for visualization of path.
 			
 			List<GeographicPoint> path = node.getPath(goal);	// Retrieve previously calculated shortest path 
 																// from this node to goal.
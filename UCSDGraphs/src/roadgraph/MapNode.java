@@ -3,6 +3,8 @@ package roadgraph;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.Collections;
 
 import geography.GeographicPoint;
 
@@ -14,6 +16,7 @@ import geography.GeographicPoint;
  * A class to represent a road intersection in a geographic map.  
  * Each intersection is a MapNode which consists of:
  * 		loc - the geographic location (latitude, longitude) of the intersection.
+ * 		id - the index of the intersection in its map (0 .. n-1, in the order nodes were added).
  * 		edges - a list of directed road segments, emanating from the intersection.
  * 		paths - a list of shortest paths from this node.
  * 		bestDistance - used by search algorithm to store current best (i.e., minimum) distance from start node.
@@ -21,6 +24,7 @@ import geography.GeographicPoint;
  */
 public class MapNode implements Comparable <MapNode>{
 	private GeographicPoint loc;
+	private int id;
 	private HashSet<MapEdge> edges;
 	private HashSet<MapPath> paths;
 	private Double bestDistance;
@@ -28,9 +32,11 @@ public class MapNode implements Comparable <MapNode>{
 	
 	/** Create a new MapNode at
 	 * @param loc - geographic location for new node
+	 * @param id - index of the node in its map
 	 */
-	public MapNode(GeographicPoint loc) {
+	public MapNode(GeographicPoint loc, int id) {
 		this.loc = loc;
+		this.id = id;
 		this.edges = new HashSet<MapEdge>();
 		this.paths = new HashSet<MapPath>();
 		initialize();
@@ -50,6 +56,16 @@ public class MapNode implements Comparable <MapNode>{
 		return edges.size();
 	}
 	
+	/** Return the index of the intersection in its map */
+	public int getId() {
+		return this.id;
+	}
+	
+	/** Return the directed road segments leaving the intersection */
+	public Set<MapEdge> getEdges() {
+		return Collections.unmodifiableSet(edges);
+	}
+	
 	/** Return the geographic location for the intersection */
 	public GeographicPoint getLoc() {
 		return this.loc;
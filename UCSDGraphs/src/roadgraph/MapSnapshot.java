@@ -0,0 +1,214 @@
+package roadgraph;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import geography.GeographicPoint;
+
+/**
+ * MapSnapshot.java
+ *
+ * @author Karen Blakemore
+ *
+ * One immutable version of a VersionedMapGraph.  Intersections are numbered 0 .. n-1 in the
+ * order they were added, and are stored in fixed size chunks:
+ * 		chunks[v / CHUNK_SIZE] holds the location and outgoing road segments of v.
+ * A new version copies only the chunk directory and the chunks that changed, and shares every
+ * other chunk with the version before it, so publishing a small delta costs O(n / CHUNK_SIZE)
+ * plus the size of the delta rather than a copy of the whole map.
+ *
+ * Readers get a snapshot from VersionedMapGraph.acquire() and must close() it when done.
+ * A snapshot is released once it is no longer the current version and every reader has
+ * closed it; its cached FrozenMapGraph is then dropped.
+ */
+public class MapSnapshot implements AutoCloseable {
+	static final int CHUNK_SIZE = 1024;
+
+	private final VersionedMapGraph owner;
+	private final long version;
+	private final int numVertices;
+	private final int numEdges;
+	private final Chunk[] chunks;
+	private final Map<GeographicPoint, Integer> index;	// shared by all versions; ids >= numVertices are newer
+	private final AtomicInteger refCount = new AtomicInteger(1);	// the owner's reference while current
+	private volatile FrozenMapGraph frozen;
+
+	MapSnapshot(VersionedMapGraph owner, long version, int numVertices, int numEdges, Chunk[] chunks,
+				Map<GeographicPoint, Integer> index) {
+		this.owner = owner;
+		this.version = version;
+		this.numVertices = numVertices;
+		this.numEdges = numEdges;
+		this.chunks = chunks;
+		this.index = index;
+	}
+
+	// The locations and outgoing segments of CHUNK_SIZE consecutive intersections.  A chunk is
+	// never changed once its snapshot is published; copy() makes a private copy for the writer.
+	static final class Chunk {
+		final GeographicPoint[] locations = new GeographicPoint[CHUNK_SIZE];
+		final int[][] targets = new int[CHUNK_SIZE][];
+		final double[][] lengths = new double[CHUNK_SIZE][];
+		final String[][] names = new String[CHUNK_SIZE][];
+		final String[][] types = new String[CHUNK_SIZE][];
+
+		// Copy the chunk.  The per-intersection arrays are shared; the writer replaces, rather
+		// than changes, those of intersections that get new segments.
+		Chunk copy() {
+			Chunk copy = new Chunk();
+			System.arraycopy(locations, 0, copy.locations, 0, CHUNK_SIZE);
+			System.arraycopy(targets, 0, copy.targets, 0, CHUNK_SIZE);
+			System.arraycopy(lengths, 0, copy.lengths, 0, CHUNK_SIZE);
+			System.arraycopy(names, 0, copy.names, 0, CHUNK_SIZE);
+			System.arraycopy(types, 0, copy.types, 0, CHUNK_SIZE);
+			return copy;
+		}
+	}
+
+	Chunk[] getChunks() {
+		return chunks;
+	}
+
+	// Take a reference for a reader; fails once the snapshot has been released.
+	boolean tryRetain() {
+		for(;;) {
+			int count = refCount.get();
+			if(count == 0) return false;
+			if(refCount.compareAndSet(count, count + 1)) return true;
+		}
+	}
+
+	// Drop a reference; the last one releases the snapshot.
+	void release() {
+		int count = refCount.decrementAndGet();
+		if(count < 0) throw new IllegalStateException("Snapshot " + version + " released too many times");
+		if(count == 0) {
+			frozen = null;
+			owner.released(this);
+		}
+	}
+
+	/** Finish reading this snapshot.  It must not be used afterwards. */
+	public void close() {
+		release();
+	}
+
+	/** Return true once the snapshot has been released */
+	public boolean isReleased() {
+		return refCount.get() == 0;
+	}
+
+	/** Return the version number; each publish() adds one */
+	public long getVersion() {
+		return version;
+	}
+
+	/** Return the number of intersections */
+	public int getNumVertices() {
+		return numVertices;
+	}
+
+	/** Return the number of road segments */
+	public int getNumEdges() {
+		return numEdges;
+	}
+
+	/** Return the id of the intersection at a location, or -1 if it is not in this version */
+	public int getIndex(GeographicPoint location) {
+		Integer id = location == null ? null : index.get(location);
+		return id == null || id >= numVertices ? -1 : id;
+	}
+
+	/** Return the location of intersection v */
+	public GeographicPoint getLocation(int v) {
+		checkVertex(v);
+		return chunks[v / CHUNK_SIZE].locations[v % CHUNK_SIZE];
+	}
+
+	/** Return the number of road segments leaving intersection v */
+	public int outDegree(int v) {
+		checkVertex(v);
+		int[] targets = chunks[v / CHUNK_SIZE].targets[v % CHUNK_SIZE];
+		return targets == null ? 0 : targets.length;
+	}
+
+	/** Return the intersection at the end of the i-th segment leaving v */
+	public int edgeTarget(int v, int i) {
+		return chunks[v / CHUNK_SIZE].targets[v % CHUNK_SIZE][i];
+	}
+
+	/** Return the length in km of the i-th segment leaving v */
+	public double edgeLength(int v, int i) {
+		return chunks[v / CHUNK_SIZE].lengths[v % CHUNK_SIZE][i];
+	}
+
+	/** Return the road name of the i-th segment leaving v */
+	public String edgeName(int v, int i) {
+		return chunks[v / CHUNK_SIZE].names[v % CHUNK_SIZE][i];
+	}
+
+	/** Return the road type of the i-th segment leaving v */
+	public String edgeType(int v, int i) {
+		return chunks[v / CHUNK_SIZE].types[v % CHUNK_SIZE][i];
+	}
+
+	private void checkVertex(int v) {
+		if(v < 0 || v >= numVertices) throw new IndexOutOfBoundsException("No intersection " + v + " in version " + version);
+	}
+
+	/**
+	 * Return this version as an array snapshot, for the searches that run on FrozenMapGraph.
+	 * It is built on first use and shared by every reader of this version.  Building it copies
+	 * the whole map, so queries that run once per version, like dijkstra(), search the chunks
+	 * directly instead.
+	 */
+	public FrozenMapGraph freeze() {
+		FrozenMapGraph result = frozen;
+		if(result != null) return result;
+		synchronized(this) {
+			if(frozen != null) return frozen;
+			double[] latitude = new double[numVertices];
+			double[] longitude = new double[numVertices];
+			int[] firstEdge = new int[numVertices + 1];
+			int[] edgeTarget = new int[numEdges];
+			double[] edgeLength = new double[numEdges];
+			int[] edgeType = new int[numEdges];
+			StringTable types = new StringTable();
+			int e = 0;
+			for(int v=0; v < numVertices; v++) {
+				GeographicPoint location = getLocation(v);
+				latitude[v] = location.getX();
+				longitude[v] = location.getY();
+				for(int i=0; i < outDegree(v); i++) {
+					edgeTarget[e] = edgeTarget(v, i);
+					edgeLength[e] = edgeLength(v, i);
+					edgeType[e++] = types.intern(edgeType(v, i));
+				}
+				firstEdge[v + 1] = e;
+			}
+			frozen = new FrozenMapGraph(latitude, longitude, firstEdge, edgeTarget, edgeLength, types.toArray(), edgeType);
+			return frozen;
+		}
+	}
+
+	/**
+	 * Find the shortest path from start to goal in this version with Dijkstra's algorithm.
+	 * @param start - the starting location.
+	 * @param goal - the goal location.
+	 * @return the path from start to goal (including both), or null if there is none.
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
+		int s = getIndex(start);
+		int t = getIndex(goal);
+		if(s == -1 || t == -1) {
+			System.out.println("Start or goal location not in graph !  No path exists.");
+			return null;
+		}
+		return owner.searchState().dijkstra(this, s, t);
+	}
+
+	public String toString() {
+		return "Version " + version + ": " + numVertices + " intersections, " + numEdges + " road segments";
+	}
+}
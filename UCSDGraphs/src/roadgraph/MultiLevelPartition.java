@@ -0,0 +1,146 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * MultiLevelPartition.java
+ *
+ * @author Karen Blakemore
+ *
+ * A nested partition of a map into cells, for customizable route planning (see OverlayMetric
+ * and OverlayRouter).  The map is cut by recursive geometric bisection into 2^(bits*levels)
+ * leaf cells.  The level 1 cells are the leaves, and each cell at level l+1 is the union of
+ * 2^bits cells at level l, so the cell of vertex v at level l is leaf[v] >>> (bits * (l-1)).
+ *
+ * A boundary vertex of a level l cell is one with a road to or from another level l cell.
+ * Overlay paths between cells pass through boundary vertices only.  Every boundary vertex of
+ * a level l+1 cell is also a boundary vertex of its level l cell.
+ *
+ * The partition depends only on the map's structure, not on road costs, so it is built once
+ * and shared by every cost profile.
+ */
+public class MultiLevelPartition {
+	private final FrozenMapGraph graph;
+	private final FrozenMapGraph reverse;
+	private final int[] reverseToForward;	// reverse edge id -> forward edge id
+	private final int numLevels;
+	private final int bits;
+	private final int[] leaf;				// vertex -> leaf cell
+	private final int[][] boundaryStart;	// [level][cell] -> first entry of the cell in boundary[level]
+	private final int[][] boundary;			// [level] -> boundary vertices, grouped by cell
+	private final int[][] boundaryIndex;	// [level][vertex] -> index among its cell's boundary vertices, or -1
+
+	/**
+	 * Partition a map snapshot into leaf cells of about 32 intersections, with 8 cells
+	 * per cell at the next level.
+	 */
+	public MultiLevelPartition(FrozenMapGraph graph) {
+		this(graph, Math.max(1, (int)Math.ceil(Math.log(Math.max(2.0, graph.getNumVertices() / 32.0)) / Math.log(8))), 3);
+	}
+
+	/**
+	 * Partition a map snapshot.
+	 * @param graph - the road map snapshot.
+	 * @param numLevels - number of levels of cells.
+	 * @param bits - each cell is split into 2^bits cells at the level below.
+	 */
+	public MultiLevelPartition(FrozenMapGraph graph, int numLevels, int bits) {
+		if(numLevels < 1 || bits < 1 || (long)numLevels * bits > 30)
+			throw new IllegalArgumentException("Invalid number of levels or bits per level");
+		int n = graph.getNumVertices();
+		this.graph = graph;
+		this.reverse = graph.reverse();
+		this.numLevels = numLevels;
+		this.bits = bits;
+		this.leaf = ArcFlags.partition(graph, 1 << (numLevels * bits));
+
+		int[] ids = graph.reverseEdgeIds();
+		reverseToForward = new int[ids.length];
+		for(int e=0; e < ids.length; e++) reverseToForward[ids[e]] = e;
+
+		boundaryStart = new int[numLevels + 1][];
+		boundary = new int[numLevels + 1][];
+		boundaryIndex = new int[numLevels + 1][];
+		for(int level=1; level <= numLevels; level++) {
+			int cells = getNumCells(level);
+			int[] start = new int[cells + 1];
+			int[] index = new int[n];
+			Arrays.fill(index, -1);
+			for(int v=0; v < n; v++) {
+				if(isBoundary(level, v)) {
+					index[v] = start[cell(level, v) + 1]++;
+				}
+			}
+			for(int c=0; c < cells; c++) start[c + 1] += start[c];
+			int[] list = new int[start[cells]];
+			for(int v=0; v < n; v++) {
+				if(index[v] != -1) list[start[cell(level, v)] + index[v]] = v;
+			}
+			boundaryStart[level] = start;
+			boundary[level] = list;
+			boundaryIndex[level] = index;
+		}
+	}
+
+	// Return true if v has a road to or from another cell at this level.
+	private boolean isBoundary(int level, int v) {
+		int c = cell(level, v);
+		for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+			if(cell(level, graph.edgeTarget(e)) != c) return true;
+		}
+		for(int e=reverse.edgeBegin(v); e < reverse.edgeEnd(v); e++) {
+			if(cell(level, reverse.edgeTarget(e)) != c) return true;
+		}
+		return false;
+	}
+
+	/** Return the graph that was partitioned */
+	public FrozenMapGraph getGraph() {
+		return graph;
+	}
+
+	/** Return the graph with every edge reversed */
+	public FrozenMapGraph getReverse() {
+		return reverse;
+	}
+
+	/** Return the edge of the graph that edge e of getReverse() was reversed from */
+	public int forwardEdge(int e) {
+		return reverseToForward[e];
+	}
+
+	/** Return the number of levels */
+	public int getNumLevels() {
+		return numLevels;
+	}
+
+	/** Return the number of cells at a level (1 .. getNumLevels()) */
+	public int getNumCells(int level) {
+		return 1 << (bits * (numLevels - level + 1));
+	}
+
+	/** Return the cell of vertex v at a level; level 0 is the vertex itself */
+	public int cell(int level, int v) {
+		return level == 0 ? v : leaf[v] >>> (bits * (level - 1));
+	}
+
+	/** Return the number of boundary vertices of a cell */
+	public int getNumBoundary(int level, int cell) {
+		return boundaryStart[level][cell + 1] - boundaryStart[level][cell];
+	}
+
+	/** Return the i-th boundary vertex of a cell */
+	public int getBoundary(int level, int cell, int i) {
+		return boundary[level][boundaryStart[level][cell] + i];
+	}
+
+	/** Return the index of v among the boundary vertices of its cell at a level, or -1 */
+	public int boundaryIndex(int level, int v) {
+		return boundaryIndex[level][v];
+	}
+
+	/** Return the total number of boundary vertices at a level */
+	public int getNumBoundary(int level) {
+		return boundary[level].length;
+	}
+}
@@ -0,0 +1,49 @@
+package roadgraph;
+
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * MultiStopRoute.java
+ *
+ * @author Karen Blakemore
+ *
+ * The result of a multi-stop route optimization:
+ * 		stops - the stops, in the order they are visited.
+ * 		path - the intersections of the whole route, in the same format as the paths
+ * 			   returned by MapGraph's search methods (from the first stop to the last).
+ * 		length - the road distance of the route, in km.
+ */
+public class MultiStopRoute {
+	private List<GeographicPoint> stops;
+	private List<GeographicPoint> path;
+	private double length;
+
+	/** Create a route from its ordered stops, concatenated path and length */
+	public MultiStopRoute(List<GeographicPoint> stops, List<GeographicPoint> path, double length) {
+		this.stops = Collections.unmodifiableList(stops);
+		this.path = Collections.unmodifiableList(path);
+		this.length = length;
+	}
+
+	/** Return the stops, in visiting order */
+	public List<GeographicPoint> getStops() {
+		return stops;
+	}
+
+	/** Return the intersections along the whole route */
+	public List<GeographicPoint> getPath() {
+		return path;
+	}
+
+	/** Return the length of the route in km */
+	public double getLength() {
+		return length;
+	}
+
+	public String toString() {
+		return "Route of " + stops.size() + " stops, " + length + " km: " + stops;
+	}
+}
@@ -0,0 +1,184 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import util.IndexedMinHeap;
+
+/**
+ * OverlayMetric.java
+ *
+ * @author Karen Blakemore
+ *
+ * The customization of a MultiLevelPartition for one cost profile: the cost of every edge,
+ * and for every cell the clique of shortest path costs between its boundary vertices, using
+ * only roads inside the cell.  Cliques are computed level by level from the bottom up.  A level
+ * 1 clique comes from searches over the roads of its cell; a higher level clique comes from
+ * searches over the cliques of its subcells and the roads between them, so each level costs
+ * about as much as the one below.  Cells of the same level are independent and are customized
+ * in parallel.
+ *
+ * Changing the cost profile (car, truck, bicycle, traffic speeds) only needs a new
+ * OverlayMetric; the partition is reused.
+ */
+public class OverlayMetric {
+	private final MultiLevelPartition partition;
+	private final CostProfile profile;
+	private final double[] weights;			// edge id -> cost
+	private final int[][] cliqueStart;		// [level][cell] -> offset of the cell's clique in clique[level]
+	private final double[][] clique;		// [level] -> k x k row-major matrices, one per cell
+
+	/**
+	 * Customize a partition for a cost profile.
+	 * @param partition - the partition of the map.
+	 * @param profile - cost of each road segment.
+	 * @param pool - pool that customizes the cells.
+	 */
+	public OverlayMetric(MultiLevelPartition partition, CostProfile profile, ForkJoinPool pool) {
+		this.partition = partition;
+		this.profile = profile;
+		this.weights = profile.edgeWeights(partition.getGraph());
+
+		int levels = partition.getNumLevels();
+		cliqueStart = new int[levels + 1][];
+		clique = new double[levels + 1][];
+		int n = partition.getGraph().getNumVertices();
+		// The cells of a level are split into a few chunks per thread; each chunk borrows one
+		// search from spare for its cells and returns it, so the searches serve every level.
+		ConcurrentLinkedQueue<CellSearch> spare = new ConcurrentLinkedQueue<CellSearch>();
+		for(int level=1; level <= levels; level++) {
+			int cells = partition.getNumCells(level);
+			int[] start = new int[cells + 1];
+			for(int c=0; c < cells; c++) {
+				int k = partition.getNumBoundary(level, c);
+				start[c + 1] = start[c] + k * k;
+			}
+			cliqueStart[level] = start;
+			clique[level] = new double[start[cells]];
+
+			int l = level;
+			try {
+				int chunks = Math.min(cells, 2 * pool.getParallelism());
+				pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(k -> {
+					CellSearch search = spare.poll();
+					if(search == null) search = new CellSearch(n);
+					int end = (int)((long)cells * (k + 1) / chunks);
+					for(int c = (int)((long)cells * k / chunks); c < end; c++) search.customize(l, c);
+					spare.add(search);
+				})).get();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Customization interrupted", e);
+			}
+			catch(ExecutionException e) {
+				throw new IllegalStateException("Customization failed", e.getCause());
+			}
+		}
+	}
+
+	/** Return the partition this metric customizes */
+	public MultiLevelPartition getPartition() {
+		return partition;
+	}
+
+	/** Return the cost profile */
+	public CostProfile getProfile() {
+		return profile;
+	}
+
+	/** Return the cost of edge e */
+	public double weight(int e) {
+		return weights[e];
+	}
+
+	/**
+	 * Return the cost of the shortest path inside a cell between two of its boundary vertices.
+	 * @param level - level of the cell.
+	 * @param cell - the cell.
+	 * @param from - boundary index of the first vertex.
+	 * @param to - boundary index of the last vertex.
+	 * @return the cost, or infinity if there is no path inside the cell.
+	 */
+	public double cliqueCost(int level, int cell, int from, int to) {
+		int k = partition.getNumBoundary(level, cell);
+		return clique[level][cliqueStart[level][cell] + from * k + to];
+	}
+
+	/** Return the number of clique entries over all levels */
+	public long getNumCliqueEntries() {
+		long total = 0;
+		for(int level=1; level <= partition.getNumLevels(); level++) total += clique[level].length;
+		return total;
+	}
+
+	// One thread's search state for customizing cells.
+	private class CellSearch {
+		private final double[] dist;
+		private final int[] touched;
+		private int numTouched;
+		private final IndexedMinHeap heap;
+
+		CellSearch(int n) {
+			dist = new double[n];
+			touched = new int[n];
+			heap = new IndexedMinHeap(n);
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		}
+
+		// Fill in the clique of a cell with one search from each of its boundary vertices.
+		void customize(int level, int c) {
+			int k = partition.getNumBoundary(level, c);
+			int offset = cliqueStart[level][c];
+			for(int i=0; i < k; i++) {
+				search(level, c, partition.getBoundary(level, c, i));
+				for(int j=0; j < k; j++) clique[level][offset + i * k + j] = dist[partition.getBoundary(level, c, j)];
+			}
+		}
+
+		// Dijkstra from source over the level-1 overlay, restricted to cell c of level.
+		// At level 1 the overlay is the road network itself.
+		private void search(int level, int c, int source) {
+			for(int i=0; i < numTouched; i++) dist[touched[i]] = Double.POSITIVE_INFINITY;
+			numTouched = 0;
+			heap.clear();
+
+			FrozenMapGraph graph = partition.getGraph();
+			int below = level - 1;
+			dist[source] = 0.0;
+			touched[numTouched++] = source;
+			heap.insertOrDecrease(source, 0.0);
+			while(!heap.isEmpty()) {
+				int u = heap.removeMin();
+				double d = dist[u];
+				int sub = partition.cell(below, u);
+
+				// Roads to other subcells of c; at level 1, every road inside c.
+				for(int e=graph.edgeBegin(u); e < graph.edgeEnd(u); e++) {
+					int w = graph.edgeTarget(e);
+					if(partition.cell(level, w) != c || (below > 0 && partition.cell(below, w) == sub)) continue;
+					relax(w, d + weights[e]);
+				}
+
+				// Paths across u's subcell.
+				if(below > 0) {
+					int i = partition.boundaryIndex(below, u);
+					int k = partition.getNumBoundary(below, sub);
+					int row = cliqueStart[below][sub] + i * k;
+					for(int j=0; j < k; j++) relax(partition.getBoundary(below, sub, j), d + clique[below][row + j]);
+				}
+			}
+		}
+
+		private void relax(int w, double nd) {
+			if(nd < dist[w]) {
+				if(dist[w] == Double.POSITIVE_INFINITY) touched[numTouched++] = w;
+				dist[w] = nd;
+				heap.insertOrDecrease(w, nd);
+			}
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+import util.IndexedMinHeap;
+
+/**
+ * OverlayRouter.java
+ *
+ * @author Karen Blakemore
+ *
+ * Shortest path queries over a customized multilevel overlay (customizable route planning,
+ * Delling, Goldberg, Pajor and Werneck, 2011).  For a query from s to t, each vertex v is
+ * searched at its query level: the highest level whose cell of v contains neither s nor t.
+ * At level 0 (near s or t) the search follows roads.  At a higher level it jumps across v's
+ * cell along the clique, and follows only the roads that leave the cell.  Far from s and t the
+ * search moves between large cells, so it settles far fewer vertices than Dijkstra.
+ *
+ * The search is bidirectional: a forward search from s and a backward search from t take
+ * turns, and stop once the sum of their smallest keys can not beat the best meeting point.
+ * Paths are unpacked by replacing each clique jump with a Dijkstra search inside the cell.
+ *
+ * setMetric() switches to another customization of the same partition, e.g., after traffic
+ * speeds change, without rebuilding anything else.
+ */
+public class OverlayRouter {
+	private final MultiLevelPartition partition;
+	private final FrozenMapGraph graph;
+	private final FrozenMapGraph reverse;
+	private OverlayMetric metric;
+
+	// Query state; index 0 is the forward search, 1 the backward search.
+	private final double[][] dist;
+	private final int[][] parent;			// previous vertex in the search's direction, or -1
+	private final int[][] parentLevel;		// 0 if reached by a road, else the level of the clique jump
+	private final IndexedMinHeap[] heap;
+	private final int[] touched;
+	private int numTouched;
+	private int numSettled;
+	private int source, target;
+
+	// Unpacking state.
+	private final double[] cellDist;
+	private final int[] cellParent;
+	private final int[] cellTouched;
+	private int numCellTouched;
+	private final IndexedMinHeap cellHeap;
+
+	/**
+	 * Create a router for a customized overlay.
+	 * @param metric - the customization to route on.
+	 */
+	public OverlayRouter(OverlayMetric metric) {
+		this.metric = metric;
+		this.partition = metric.getPartition();
+		this.graph = partition.getGraph();
+		this.reverse = partition.getReverse();
+		int n = graph.getNumVertices();
+		dist = new double[2][n];
+		parent = new int[2][n];
+		parentLevel = new int[2][n];
+		heap = new IndexedMinHeap[] {new IndexedMinHeap(n), new IndexedMinHeap(n)};
+		touched = new int[n];
+		for(int dir=0; dir < 2; dir++) {
+			Arrays.fill(dist[dir], Double.POSITIVE_INFINITY);
+			Arrays.fill(parent[dir], -1);
+		}
+
+		cellDist = new double[n];
+		cellParent = new int[n];
+		cellTouched = new int[n];
+		cellHeap = new IndexedMinHeap(n);
+		Arrays.fill(cellDist, Double.POSITIVE_INFINITY);
+		Arrays.fill(cellParent, -1);
+	}
+
+	/**
+	 * Route on another customization of the same partition.
+	 * @param metric - the new customization.
+	 */
+	public synchronized void setMetric(OverlayMetric metric) {
+		if(metric.getPartition() != partition) throw new IllegalArgumentException("Metric is for another partition");
+		this.metric = metric;
+	}
+
+	/** Return the customization being routed on */
+	public synchronized OverlayMetric getMetric() {
+		return metric;
+	}
+
+	/** Return the number of vertices settled by the last query, in both directions */
+	public synchronized int getNumSettled() {
+		return numSettled;
+	}
+
+	/**
+	 * Return the cost of the shortest path from vertex s to vertex t.
+	 * @return the cost, or infinity if there is no path.
+	 */
+	public synchronized double distance(int s, int t) {
+		return search(s, t)[0];
+	}
+
+	/**
+	 * Find the shortest path between two intersections, in the same format as MapGraph's
+	 * search methods.
+	 * @param start - the starting location.
+	 * @param goal - the goal location.
+	 * @return the intersections on the path (including start and goal), or null if there is none.
+	 */
+	public synchronized List<GeographicPoint> getPath(GeographicPoint start, GeographicPoint goal) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		if(s == -1 || t == -1) {
+			System.out.println("Start or goal location not in graph !  No path exists.");
+			return null;
+		}
+
+		int[] vertices = vertexPath(s, t);
+		if(vertices == null) return null;
+
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>(vertices.length);
+		for(int v: vertices) path.add(graph.getLocation(v));
+		return path;
+	}
+
+	/**
+	 * Return the vertices on the shortest path from s to t, including both.
+	 * @return the vertex ids, or null if there is no path.
+	 */
+	public synchronized int[] vertexPath(int s, int t) {
+		double[] result = search(s, t);
+		if(result[0] == Double.POSITIVE_INFINITY) return null;
+		int meet = (int)result[1];
+
+		// Overlay hops from s to the meeting vertex, then from the meeting vertex to t.
+		IntList hops = new IntList();
+		IntList levels = new IntList();
+		for(int v = meet; parent[0][v] != -1; v = parent[0][v]) {
+			hops.add(v);
+			levels.add(parentLevel[0][v]);
+		}
+		hops.add(s);
+		hops.reverse();
+		levels.reverse();
+		for(int v = meet; parent[1][v] != -1; v = parent[1][v]) {
+			levels.add(parentLevel[1][v]);
+			hops.add(parent[1][v]);
+		}
+
+		IntList path = new IntList();
+		path.add(s);
+		for(int i=0; i + 1 < hops.size(); i++) {
+			int from = hops.get(i);
+			int to = hops.get(i + 1);
+			if(levels.get(i) == 0) path.add(to);
+			else unpack(levels.get(i), from, to, path);
+		}
+		return path.toArray();
+	}
+
+	// Return {cost, meeting vertex} of the shortest path from s to t over the overlay.
+	private double[] search(int s, int t) {
+		for(int i=0; i < numTouched; i++) {
+			int v = touched[i];
+			for(int dir=0; dir < 2; dir++) {
+				dist[dir][v] = Double.POSITIVE_INFINITY;
+				parent[dir][v] = -1;
+			}
+		}
+		numTouched = 0;
+		numSettled = 0;
+		heap[0].clear();
+		heap[1].clear();
+		source = s;
+		target = t;
+
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+		touch(s);
+		dist[0][s] = 0.0;
+		heap[0].insertOrDecrease(s, 0.0);
+		if(t != s) touch(t);
+		dist[1][t] = 0.0;
+		heap[1].insertOrDecrease(t, 0.0);
+		if(s == t) {
+			best = 0.0;
+			meet = s;
+		}
+
+		while(!heap[0].isEmpty() || !heap[1].isEmpty()) {
+			double top0 = heap[0].isEmpty() ? Double.POSITIVE_INFINITY : heap[0].peekPriority();
+			double top1 = heap[1].isEmpty() ? Double.POSITIVE_INFINITY : heap[1].peekPriority();
+			if(top0 + top1 >= best) break;
+
+			int dir = top0 <= top1 ? 0 : 1;
+			int u = heap[dir].removeMin();
+			numSettled++;
+			int level = queryLevel(u);
+			double d = dist[dir][u];
+			FrozenMapGraph roads = dir == 0 ? graph : reverse;
+
+			for(int e=roads.edgeBegin(u); e < roads.edgeEnd(u); e++) {
+				int w = roads.edgeTarget(e);
+				double cost = metric.weight(dir == 0 ? e : partition.forwardEdge(e));
+				// The road runs from the tail to the head; it is in the overlay if the
+				// tail is searched at level 0 or the road leaves the tail's cell.
+				int tail = dir == 0 ? u : w;
+				int head = dir == 0 ? w : u;
+				int tailLevel = dir == 0 ? level : queryLevel(w);
+				if(tailLevel > 0 && partition.cell(tailLevel, head) == partition.cell(tailLevel, tail)) continue;
+				if(relax(dir, u, w, d + cost, 0)) {
+					double total = dist[0][w] + dist[1][w];
+					if(total < best) {
+						best = total;
+						meet = w;
+					}
+				}
+			}
+
+			if(level > 0) {
+				int c = partition.cell(level, u);
+				int i = partition.boundaryIndex(level, u);
+				int k = partition.getNumBoundary(level, c);
+				for(int j=0; j < k; j++) {
+					int w = partition.getBoundary(level, c, j);
+					double cost = dir == 0 ? metric.cliqueCost(level, c, i, j) : metric.cliqueCost(level, c, j, i);
+					if(relax(dir, u, w, d + cost, level)) {
+						double total = dist[0][w] + dist[1][w];
+						if(total < best) {
+							best = total;
+							meet = w;
+						}
+					}
+				}
+			}
+		}
+		return new double[] {best, meet};
+	}
+
+	// Return the level at which v is searched in the current query.
+	private int queryLevel(int v) {
+		for(int level=partition.getNumLevels(); level > 0; level--) {
+			int c = partition.cell(level, v);
+			if(c != partition.cell(level, source) && c != partition.cell(level, target)) return level;
+		}
+		return 0;
+	}
+
+	private boolean relax(int dir, int u, int w, double nd, int level) {
+		if(nd >= dist[dir][w]) return false;
+		if(dist[0][w] == Double.POSITIVE_INFINITY && dist[1][w] == Double.POSITIVE_INFINITY) touch(w);
+		dist[dir][w] = nd;
+		parent[dir][w] = u;
+		parentLevel[dir][w] = level;
+		heap[dir].insertOrDecrease(w, nd);
+		return true;
+	}
+
+	private void touch(int v) {
+		touched[numTouched++] = v;
+	}
+
+	// Append the vertices after from on the shortest path from 'from' to 'to' inside their
+	// cell at the given level.
+	private void unpack(int level, int from, int to, IntList path) {
+		for(int i=0; i < numCellTouched; i++) {
+			cellDist[cellTouched[i]] = Double.POSITIVE_INFINITY;
+			cellParent[cellTouched[i]] = -1;
+		}
+		numCellTouched = 0;
+		cellHeap.clear();
+
+		int c = partition.cell(level, from);
+		cellDist[from] = 0.0;
+		cellTouched[numCellTouched++] = from;
+		cellHeap.insertOrDecrease(from, 0.0);
+		while(!cellHeap.isEmpty()) {
+			int u = cellHeap.removeMin();
+			if(u == to) break;
+			for(int e=graph.edgeBegin(u); e < graph.edgeEnd(u); e++) {
+				int w = graph.edgeTarget(e);
+				if(partition.cell(level, w) != c) continue;
+				double nd = cellDist[u] + metric.weight(e);
+				if(nd < cellDist[w]) {
+					if(cellDist[w] == Double.POSITIVE_INFINITY) cellTouched[numCellTouched++] = w;
+					cellDist[w] = nd;
+					cellParent[w] = u;
+					cellHeap.insertOrDecrease(w, nd);
+				}
+			}
+		}
+
+		int start = path.size();
+		for(int v = to; v != from; v = cellParent[v]) path.add(v);
+		path.reverse(start);
+	}
+
+	// A growable array of ints.
+	private static class IntList {
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int value) {
+			if(size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		int size() {
+			return size;
+		}
+
+		void reverse() {
+			reverse(0);
+		}
+
+		// Reverse the values from index start to the end.
+		void reverse(int start) {
+			for(int i=start, j=size - 1; i < j; i++, j--) {
+				int tmp = values[i];
+				values[i] = values[j];
+				values[j] = tmp;
+			}
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		String file = args.length > 0 ? args[0] : "data/maps/san_diego.map";
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap(file, theMap);
+		System.out.println("DONE.");
+		FrozenMapGraph graph = theMap.freeze();
+		int n = graph.getNumVertices();
+
+		long t0 = System.nanoTime();
+		MultiLevelPartition partition = new MultiLevelPartition(graph);
+		long t1 = System.nanoTime();
+		System.out.print("Partitioned " + n + " intersections into " + partition.getNumLevels() + " levels in "
+						 + (t1 - t0) / 1000000 + " ms; boundary vertices per level:");
+		for(int level=1; level <= partition.getNumLevels(); level++) System.out.print(" " + partition.getNumBoundary(level));
+		System.out.println();
+
+		OverlayRouter router = null;
+		Random random = new Random(1);
+		CostProfile[] profiles = {CostProfile.DISTANCE, CostProfile.car(), CostProfile.truck(), CostProfile.bicycle()};
+		for(CostProfile profile: profiles) {
+			t0 = System.nanoTime();
+			OverlayMetric metric = new OverlayMetric(partition, profile, ForkJoinPool.commonPool());
+			t1 = System.nanoTime();
+			if(router == null) router = new OverlayRouter(metric);
+			else router.setMetric(metric);
+
+			ShortestPathSearch dijkstra = new ShortestPathSearch(graph, profile.edgeWeights(graph));
+			int queries = 500;
+			int mismatches = 0;
+			long overlaySettled = 0, dijkstraSettled = 0;
+			for(int q=0; q < queries; q++) {
+				int s = random.nextInt(n);
+				int t = random.nextInt(n);
+				double expected = dijkstra.run(s, t);
+				dijkstraSettled += dijkstra.getNumSettled();
+				int[] path = router.vertexPath(s, t);
+				overlaySettled += router.getNumSettled();
+				double cost = path == null ? Double.POSITIVE_INFINITY : pathCost(graph, metric, path);
+				if(cost != expected && !(Math.abs(cost - expected) < 1e-9 * Math.max(1.0, expected))) mismatches++;
+			}
+			System.out.println(profile + ": customized in " + (t1 - t0) / 1000000 + " ms (" + metric.getNumCliqueEntries()
+							   + " clique entries); " + queries + " queries, " + mismatches + " mismatches; settled "
+							   + overlaySettled / queries + " vs " + dijkstraSettled / queries + " for Dijkstra.");
+		}
+	}
+
+	// Return the cost of a path of vertices, following the cheapest road between each pair.
+	private static double pathCost(FrozenMapGraph graph, OverlayMetric metric, int[] path) {
+		double total = 0;
+		for(int i=0; i + 1 < path.length; i++) {
+			double best = Double.POSITIVE_INFINITY;
+			for(int e=graph.edgeBegin(path[i]); e < graph.edgeEnd(path[i]); e++) {
+				if(graph.edgeTarget(e) == path[i + 1]) best = Math.min(best, metric.weight(e));
+			}
+			total += best;
+		}
+		return total;
+	}
+}
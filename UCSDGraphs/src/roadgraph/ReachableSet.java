@@ -0,0 +1,95 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import geography.ConcaveHull;
+import geography.GeographicPoint;
+
+/**
+ * ReachableSet.java
+ *
+ * @author Karen Blakemore
+ *
+ * The intersections reachable from one or more depots within a budget, in the order they were
+ * settled (increasing cost).  For the i-th reachable intersection:
+ * 		vertices[i] - its vertex id in the FrozenMapGraph that was searched.
+ * 		costs[i] - its cost from the nearest depot, in the units of the cost profile.
+ * 		depots[i] - the index (in the list of depots) of the nearest depot.
+ */
+public class ReachableSet {
+	private final FrozenMapGraph graph;
+	private final int[] vertices;
+	private final double[] costs;
+	private final int[] depots;
+	private final double budget;
+
+	/** Create a reachable set from its arrays.  The arrays are not copied. */
+	public ReachableSet(FrozenMapGraph graph, int[] vertices, double[] costs, int[] depots, double budget) {
+		this.graph = graph;
+		this.vertices = vertices;
+		this.costs = costs;
+		this.depots = depots;
+		this.budget = budget;
+	}
+
+	/** Return the number of reachable intersections */
+	public int size() {
+		return vertices.length;
+	}
+
+	/** Return the budget used for the search */
+	public double getBudget() {
+		return budget;
+	}
+
+	/** Return the vertex ids of the reachable intersections; do not modify. */
+	public int[] getVertices() {
+		return vertices;
+	}
+
+	/** Return the cost of each reachable intersection; do not modify. */
+	public double[] getCosts() {
+		return costs;
+	}
+
+	/** Return the nearest depot of each reachable intersection; do not modify. */
+	public int[] getDepots() {
+		return depots;
+	}
+
+	/** Return the locations of the reachable intersections */
+	public List<GeographicPoint> getLocations() {
+		List<GeographicPoint> locs = new ArrayList<GeographicPoint>(vertices.length);
+		for(int v: vertices) locs.add(graph.getLocation(v));
+		return locs;
+	}
+
+	/**
+	 * Return a polygon outlining the reachable area.
+	 * @param concavity - see ConcaveHull; 2 is a typical value, larger is more convex.
+	 * @return the polygon vertices, counter-clockwise.
+	 */
+	public List<GeographicPoint> getOutline(double concavity) {
+		return getOutline(-1, concavity);
+	}
+
+	/**
+	 * Return a polygon outlining the area served by one depot.
+	 * @param depot - index of the depot, or -1 for the whole reachable area.
+	 * @param concavity - see ConcaveHull; 2 is a typical value, larger is more convex.
+	 * @return the polygon vertices, counter-clockwise.
+	 */
+	public List<GeographicPoint> getOutline(int depot, double concavity) {
+		double[] lat = new double[vertices.length];
+		double[] lon = new double[vertices.length];
+		int count = 0;
+		for(int i=0; i < vertices.length; i++) {
+			if(depot != -1 && depots[i] != depot) continue;
+			lat[count] = graph.latitude(vertices[i]);
+			lon[count] = graph.longitude(vertices[i]);
+			count++;
+		}
+		return ConcaveHull.compute(lat, lon, count, concavity);
+	}
+}
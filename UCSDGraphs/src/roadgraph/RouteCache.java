@@ -0,0 +1,452 @@
+package roadgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * RouteCache.java
+ *
+ * @author Karen Blakemore
+ *
+ * A persistent cache of route results in front of a ShortestPathSearch, so routes computed
+ * before a restart are not computed again.  Each result, (start, goal, cost profile) -> the
+ * intersection ids on the path, is appended to a memory-mapped log file, and an in-memory
+ * index maps each key to its record.  Opening the cache scans the log to rebuild the index.
+ *
+ * Log layout (big-endian):
+ * 		header: int MAGIC, int FORMAT, long graph hash, int generation
+ * 		records: int payload bytes, payload, int CRC-32 of the generation and payload
+ * 		payload: int start id, int goal id, long profile key, int path length, int ids[path length]
+ * The profile key is CostProfile.fingerprint(), so profiles that differ in any speed, default
+ * speed or units do not share records.
+ * A path length of -1 records that there is no path.  A record with a bad checksum (e.g., torn
+ * by a crash, or left over from an earlier generation) ends the log.
+ *
+ * Intersection ids are only meaningful for one version of the map, so the header holds a hash
+ * of the map's contents, and a log written for a different map is discarded on open.
+ * The log never grows past maxBytes: when it is full, the most recently used entries, up to half
+ * of maxBytes, are moved to the front of the same file under a new generation number.  The file
+ * is never replaced, so it stays mapped (a mapped file can not be replaced on Windows), and a
+ * crash part way through a compaction only loses the entries that were not yet moved.
+ */
+public class RouteCache implements AutoCloseable {
+	private static final int MAGIC = 0x52434331;	// "RCC1"
+	private static final int FORMAT = 4;
+	private static final int GENERATION = 16;		// offset of the generation in the header
+	private static final int HEADER_BYTES = 20;
+	private static final int RECORD_OVERHEAD = 4 + 4 + 4 + 8 + 4 + 4;	// length, ids, profile, count, crc
+	private static final int MAX_SEARCHES = 4;		// searches kept, for the most recently used profiles
+
+	private final FrozenMapGraph graph;
+	private final LinkedHashMap<CostProfile, ShortestPathSearch> searches;	// one reusable O(n) search per profile
+	private final long graphHash;
+	private final File file;
+	private final long maxBytes;
+	private final HashMap<Key, Entry> index = new HashMap<Key, Entry>();
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer log;
+	private int end;								// offset of the next record
+	private int generation;							// records of other generations are not valid
+	private long clock;								// counts lookups, for least recently used order
+	private long hits, misses, compactions;
+
+	/**
+	 * Open a cache for a map, creating the log file if needed.
+	 * @param map - the road map; misses are searched on a snapshot of it taken now.
+	 * @param file - the log file.
+	 * @param maxBytes - the largest size the log may grow to.
+	 * @throws IOException If the log can not be created or mapped.
+	 */
+	public RouteCache(MapGraph map, File file, long maxBytes) throws IOException {
+		if(maxBytes < HEADER_BYTES + 1024 || maxBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Cache size must be between 1 KB and 2 GB");
+		this.graph = map.freeze();
+		// Least recently used order, dropping the oldest search beyond MAX_SEARCHES.
+		this.searches = new LinkedHashMap<CostProfile, ShortestPathSearch>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<CostProfile, ShortestPathSearch> eldest) {
+				return size() > MAX_SEARCHES;
+			}
+		};
+		this.graphHash = graphHash(graph);
+		this.file = file;
+		this.maxBytes = maxBytes;
+		open();
+	}
+
+	// Map the log and rebuild the index, starting a new log if the file is missing or was
+	// written for another map.
+	private void open() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		boolean valid = channel.size() >= HEADER_BYTES;
+		log = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+		if(valid) valid = log.getInt(0) == MAGIC && log.getInt(4) == FORMAT && log.getLong(8) == graphHash;
+
+		index.clear();
+		if(!valid) {
+			log.putInt(0, MAGIC);
+			log.putInt(4, FORMAT);
+			log.putLong(8, graphHash);
+			log.putInt(GENERATION, 0);
+			log.putInt(HEADER_BYTES, 0);
+			end = HEADER_BYTES;
+			generation = 0;
+			return;
+		}
+
+		generation = log.getInt(GENERATION);
+		end = HEADER_BYTES;
+		CRC32 crc = new CRC32();
+		while(end + 4 <= maxBytes) {
+			int length = log.getInt(end);
+			if(length < RECORD_OVERHEAD - 8 || end + 8L + length > maxBytes) break;
+			if(checksum(crc, end + 4, length) != log.getInt(end + 4 + length)) break;
+			Key key = new Key(log.getInt(end + 4), log.getInt(end + 8), log.getLong(end + 12));
+			index.put(key, new Entry(end, 0));
+			end += 8 + length;
+		}
+		if(end + 4 <= maxBytes) log.putInt(end, 0);		// cut off anything after the last good record
+	}
+
+	// Return the checksum of the current generation and a record's payload.
+	private int checksum(CRC32 crc, int offset, int length) {
+		crc.reset();
+		for(int shift = 24; shift >= 0; shift -= 8) crc.update(generation >>> shift);
+		for(int i=0; i < length; i++) crc.update(log.get(offset + i));
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Return a hash of a map's contents: locations, road segments, lengths and types.
+	 * Maps with the same hash have the same intersection ids.  The segments leaving each
+	 * intersection are hashed sorted by (target, length, type), since the order MapGraph
+	 * keeps them in can differ from run to run.
+	 */
+	public static long graphHash(FrozenMapGraph graph) {
+		long h = 0xcbf29ce484222325L;
+		h = mix(h, graph.getNumVertices());
+		h = mix(h, graph.getNumEdges());
+		for(int v=0; v < graph.getNumVertices(); v++) {
+			h = mix(h, Double.doubleToLongBits(graph.latitude(v)));
+			h = mix(h, Double.doubleToLongBits(graph.longitude(v)));
+			h = mix(h, graph.edgeBegin(v));
+		}
+		int[] edges = new int[0];
+		for(int v=0; v < graph.getNumVertices(); v++) {
+			int degree = graph.outDegree(v);
+			if(edges.length < degree) edges = new int[degree];
+			// Insertion sort; intersections have few segments.
+			for(int i=0; i < degree; i++) {
+				int e = graph.edgeBegin(v) + i;
+				int j = i;
+				for(; j > 0 && compareEdges(graph, edges[j - 1], e) > 0; j--) edges[j] = edges[j - 1];
+				edges[j] = e;
+			}
+			for(int i=0; i < degree; i++) {
+				int e = edges[i];
+				h = mix(h, graph.edgeTarget(e));
+				h = mix(h, Double.doubleToLongBits(graph.edgeLength(e)));
+				String type = graph.edgeType(e);
+				h = mix(h, type == null ? 0 : type.hashCode());
+			}
+		}
+		return h;
+	}
+
+	// Order edges by target, then length, then road type (no type first).
+	private static int compareEdges(FrozenMapGraph graph, int a, int b) {
+		int c = Integer.compare(graph.edgeTarget(a), graph.edgeTarget(b));
+		if(c != 0) return c;
+		c = Double.compare(graph.edgeLength(a), graph.edgeLength(b));
+		if(c != 0) return c;
+		String typeA = graph.edgeType(a), typeB = graph.edgeType(b);
+		if(typeA == null || typeB == null) return typeA == null ? (typeB == null ? 0 : -1) : 1;
+		return typeA.compareTo(typeB);
+	}
+
+	private static long mix(long h, long value) {
+		h ^= value;
+		h *= 0x100000001b3L;
+		return h ^ (h >>> 29);
+	}
+
+	// Return a key for a cost profile, covering all of its fields.
+	private static long profileKey(CostProfile profile) {
+		return profile.fingerprint();
+	}
+
+	/**
+	 * Find the shortest path by road distance, using the cache if possible.
+	 * @return the path from start to goal (including both), or null if there is none.
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
+		return getPath(start, goal, CostProfile.DISTANCE);
+	}
+
+	/**
+	 * Find the cheapest path for a cost profile, using the cache if possible.  A miss is
+	 * searched with the profile's reusable ShortestPathSearch, and then appended to the log.
+	 * @return the path from start to goal (including both), or null if there is none.
+	 */
+	public synchronized List<GeographicPoint> getPath(GeographicPoint start, GeographicPoint goal, CostProfile profile) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		if(s == -1 || t == -1) {
+			System.out.println("Start or goal location not in graph !  No path exists.");
+			return null;
+		}
+
+		Key key = new Key(s, t, profileKey(profile));
+		Entry entry = index.get(key);
+		if(entry != null) {
+			hits++;
+			entry.lastUsed = ++clock;
+			return readPath(entry.offset);
+		}
+
+		misses++;
+		int[] path = search(s, t, profile);
+		try {
+			append(key, path);
+		}
+		catch(IOException e) {
+			// The result is still correct; it just will not be remembered.
+			System.out.println("Route cache write failed: " + e);
+		}
+		return toLocations(path);
+	}
+
+	private int[] search(int s, int t, CostProfile profile) {
+		ShortestPathSearch search = searches.get(profile);
+		if(search == null) {
+			search = new ShortestPathSearch(graph, profile.equals(CostProfile.DISTANCE) ? null : profile.edgeWeights(graph));
+			searches.put(profile, search);
+		}
+		search.run(s, t);
+		return search.getVertexPath(t);
+	}
+
+	private List<GeographicPoint> toLocations(int[] ids) {
+		if(ids == null) return null;
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>(ids.length);
+		for(int id: ids) path.add(graph.getLocation(id));
+		return path;
+	}
+
+	private List<GeographicPoint> readPath(int offset) {
+		int count = log.getInt(offset + 20);
+		if(count == -1) return null;
+		int[] ids = new int[count];
+		for(int i=0; i < count; i++) ids[i] = log.getInt(offset + 24 + 4 * i);
+		return toLocations(ids);
+	}
+
+	// Append a record, compacting the log first if it is full.
+	private void append(Key key, int[] path) throws IOException {
+		int count = path == null ? 0 : path.length;
+		long size = RECORD_OVERHEAD + 4L * count;
+		if(size > (maxBytes - HEADER_BYTES) / 4) return;		// too large to be worth caching
+		if(end + size + 4 > maxBytes) {
+			compact();
+			if(end + size + 4 > maxBytes) return;
+		}
+		int offset = end;
+		writeRecord(offset, key, path);
+		end += size;
+		log.putInt(end, 0);
+		index.put(key, new Entry(offset, ++clock));
+	}
+
+	private void writeRecord(int offset, Key key, int[] path) {
+		int count = path == null ? 0 : path.length;
+		int length = RECORD_OVERHEAD - 8 + 4 * count;
+		log.putInt(offset + 4, key.start);
+		log.putInt(offset + 8, key.goal);
+		log.putLong(offset + 12, key.profile);
+		log.putInt(offset + 20, path == null ? -1 : count);
+		for(int i=0; i < count; i++) log.putInt(offset + 24 + 4 * i, path[i]);
+		log.putInt(offset + 4 + length, checksum(new CRC32(), offset + 4, length));
+		log.putInt(offset, length);		// written last, so a torn record is never valid
+	}
+
+	/**
+	 * Rewrite the log keeping only the most recently used entries, up to half of maxBytes.
+	 * The kept records are moved to the front of the log, in file order, so no record is
+	 * overwritten before it has been moved.  The generation is advanced first, which makes
+	 * every record not yet moved invalid.
+	 */
+	public synchronized void compact() throws IOException {
+		List<Key> keys = new ArrayList<Key>(index.keySet());
+		keys.sort((a, b) -> Long.compare(index.get(b).lastUsed, index.get(a).lastUsed));
+		List<Key> kept = new ArrayList<Key>();
+		long size = HEADER_BYTES;
+		for(Key key: keys) {
+			size += 8 + log.getInt(index.get(key).offset);
+			if(size > maxBytes / 2) break;
+			kept.add(key);
+		}
+		kept.sort((a, b) -> Integer.compare(index.get(a).offset, index.get(b).offset));
+
+		generation++;
+		log.putInt(GENERATION, generation);
+		CRC32 crc = new CRC32();
+		HashMap<Key, Entry> moved = new HashMap<Key, Entry>();
+		int offset = HEADER_BYTES;
+		for(Key key: kept) {
+			Entry entry = index.get(key);
+			int length = log.getInt(entry.offset);
+			// offset <= entry.offset, so copying forward never reads a byte already overwritten.
+			for(int i=4; i < 4 + length; i++) log.put(offset + i, log.get(entry.offset + i));
+			log.putInt(offset + 4 + length, checksum(crc, offset + 4, length));
+			log.putInt(offset, length);
+			moved.put(key, new Entry(offset, entry.lastUsed));
+			offset += 8 + length;
+		}
+		log.putInt(offset, 0);
+		log.force();
+		end = offset;
+		index.clear();
+		index.putAll(moved);
+		compactions++;
+	}
+
+	/** Return the number of lookups answered from the cache */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** Return the number of lookups that needed a search */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** Return the number of times the log has been compacted */
+	public synchronized long getCompactions() {
+		return compactions;
+	}
+
+	/** Return the number of cached routes */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/** Return the bytes of the log in use */
+	public synchronized long getLogBytes() {
+		return end;
+	}
+
+	/** Flush the log to disk and close it */
+	public synchronized void close() throws IOException {
+		log.force();
+		channel.close();
+		raf.close();
+	}
+
+	// A cached query.
+	private static final class Key {
+		final int start, goal;
+		final long profile;
+
+		Key(int start, int goal, long profile) {
+			this.start = start;
+			this.goal = goal;
+			this.profile = profile;
+		}
+
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return start == other.start && goal == other.goal && profile == other.profile;
+		}
+
+		public int hashCode() {
+			return (start * 31 + goal) * 31 + Long.hashCode(profile);
+		}
+	}
+
+	// Where a cached route is in the log, and when it was last used.
+	private static final class Entry {
+		final int offset;
+		long lastUsed;
+
+		Entry(int offset, long lastUsed) {
+			this.offset = offset;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap("data/maps/san_diego.map", theMap);
+		System.out.println("DONE.");
+
+		File file = File.createTempFile("routecache", ".log");
+		file.deleteOnExit();
+		int n = theMap.getNumVertices();
+		int queries = 2000;
+
+		// Every answer, cached or not, is checked against a fresh search.
+		FrozenMapGraph graph = theMap.freeze();
+		CostProfile car = CostProfile.car();
+		ShortestPathSearch byDistance = new ShortestPathSearch(graph);
+		ShortestPathSearch byTime = new ShortestPathSearch(graph, car.edgeWeights(graph));
+
+		// Day one: a cold cache.  Days two and three: the same queries after restarts; the
+		// log fills up and is compacted.
+		for(int day=1; day <= 3; day++) {
+			try(RouteCache cache = new RouteCache(theMap, file, 128 * 1024)) {
+				Random random = new Random(day);
+				long t0 = System.nanoTime();
+				int mismatches = 0;
+				for(int i=0; i < queries; i++) {
+					// About 40% of the queries are one of 300 popular pairs, the same every day.
+					int s, t;
+					if(random.nextInt(10) < 4) {
+						Random pair = new Random(random.nextInt(300));
+						s = pair.nextInt(n);
+						t = pair.nextInt(n);
+					}
+					else {
+						s = random.nextInt(n);
+						t = random.nextInt(n);
+					}
+					CostProfile profile = i % 2 == 0 ? CostProfile.DISTANCE : car;
+					List<GeographicPoint> path = cache.getPath(graph.getLocation(s), graph.getLocation(t), profile);
+					ShortestPathSearch fresh = i % 2 == 0 ? byDistance : byTime;
+					fresh.run(s, t);
+					List<GeographicPoint> expected = fresh.getPath(t);
+					if(path == null ? expected != null : !path.equals(expected)) mismatches++;
+				}
+				long t1 = System.nanoTime();
+				System.out.println("Day " + day + ": " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+								   + cache.getCompactions() + " compactions, " + cache.size() + " routes in "
+								   + cache.getLogBytes() / 1024 + " KB; " + mismatches + " mismatches; "
+								   + (t1 - t0) / 1000000 + " ms (with checking).");
+			}
+		}
+
+		// A different map must not reuse the log.
+		MapGraph otherMap = new MapGraph();
+		GraphLoader.loadRoadMap("data/maps/utc.map", otherMap);
+		try(RouteCache cache = new RouteCache(otherMap, file, 64 * 1024)) {
+			System.out.println("Opened with another map: " + cache.size() + " routes.");
+		}
+	}
+}
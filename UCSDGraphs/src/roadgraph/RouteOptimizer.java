@@ -0,0 +1,318 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * RouteOptimizer.java
+ *
+ * @author Karen Blakemore
+ *
+ * Orders the stops of a multi-stop route (a travelling salesperson tour over road distances).
+ * The optimizer
+ * 		1. builds a stop-to-stop road distance matrix, running one search per stop in parallel,
+ * 		2. builds a tour with the nearest neighbour heuristic, starting at the first stop,
+ * 		3. improves the tour with 2-opt and Or-opt moves until no move helps or the time budget
+ * 		   is spent, and
+ * 		4. joins the shortest paths between consecutive stops into one route.
+ *
+ * Road distances may be asymmetric (one way streets), so the cost of reversing part of the tour
+ * is computed exactly rather than assumed to be unchanged.
+ */
+public class RouteOptimizer {
+	private static final double EPSILON = 1e-9;		// smallest improvement worth applying
+
+	private final FrozenMapGraph graph;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Create an optimizer over a map, using the common fork-join pool.
+	 * @param map - the road map.
+	 */
+	public RouteOptimizer(MapGraph map) {
+		this(map.freeze(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create an optimizer over a map snapshot.
+	 * @param graph - the road map snapshot.
+	 * @param pool - pool that runs the per-stop searches.
+	 */
+	public RouteOptimizer(FrozenMapGraph graph, ForkJoinPool pool) {
+		this.graph = graph;
+		this.pool = pool;
+	}
+
+	/**
+	 * Find a short route that starts at the first stop and visits every stop.
+	 * @param stops - the stops; the first one is the depot and stays first.
+	 * @param returnToStart - true if the route must end back at the first stop.
+	 * @param timeBudgetMillis - time allowed for improving the initial tour.
+	 * @return the optimized route, or null if a stop is not in the map or some stop can not
+	 *   be reached.
+	 */
+	public MultiStopRoute optimize(List<GeographicPoint> stops, boolean returnToStart, long timeBudgetMillis) {
+		if(stops == null || stops.isEmpty()) {
+			System.out.println("No stops given!  No route exists.");
+			return null;
+		}
+
+		int k = stops.size();
+		int[] vertices = new int[k];
+		for(int i=0; i < k; i++) {
+			vertices[i] = graph.getIndex(stops.get(i));
+			if(vertices[i] == -1) {
+				System.out.println("Stop " + stops.get(i) + " is not in the map!  No route exists.");
+				return null;
+			}
+		}
+
+		long deadline = System.nanoTime() + timeBudgetMillis * 1000000L;
+		double[] cost = distanceMatrix(vertices);
+
+		int[] tour = nearestNeighbourTour(cost, k);
+		boolean improved = true;
+		while(improved && System.nanoTime() < deadline) {
+			improved = twoOpt(tour, cost, returnToStart, deadline);
+			improved |= orOpt(tour, cost, returnToStart, deadline);
+		}
+
+		double length = tourCost(tour, cost, returnToStart);
+		if(length == Double.POSITIVE_INFINITY) {
+			System.out.println("Some stops can not be reached from each other!  No route exists.");
+			return null;
+		}
+
+		List<GeographicPoint> orderedStops = new ArrayList<GeographicPoint>(k);
+		for(int i: tour) orderedStops.add(stops.get(i));
+
+		int legs = returnToStart ? k : k - 1;
+		int[] legStart = new int[legs];
+		int[] legEnd = new int[legs];
+		for(int i=0; i < legs; i++) {
+			legStart[i] = vertices[tour[i]];
+			legEnd[i] = vertices[tour[(i + 1) % k]];
+		}
+		return new MultiStopRoute(orderedStops, joinLegs(legStart, legEnd, vertices[tour[0]]), length);
+	}
+
+	/**
+	 * Compute road distances between all pairs of stops, one search per stop in parallel.
+	 * @param vertices - vertex ids of the stops.
+	 * @return cost[i*k + j] is the distance from stop i to stop j (infinity if unreachable).
+	 */
+	public double[] distanceMatrix(int[] vertices) {
+		int k = vertices.length;
+		double[] cost = new double[k * k];
+		ConcurrentLinkedQueue<ShortestPathSearch> spare = new ConcurrentLinkedQueue<ShortestPathSearch>();
+
+		inPool(() -> IntStream.range(0, k).parallel().forEach(i -> {
+			ShortestPathSearch search = take(spare);
+			search.run(new int[] {vertices[i]}, vertices, Double.POSITIVE_INFINITY);
+			for(int j=0; j < k; j++) cost[i * k + j] = search.getDistance(vertices[j]);
+			spare.add(search);
+		}));
+		return cost;
+	}
+
+	// Find the paths between consecutive stops in parallel and join them into one route.
+	private List<GeographicPoint> joinLegs(int[] legStart, int[] legEnd, int first) {
+		int[][] legPaths = new int[legStart.length][];
+		ConcurrentLinkedQueue<ShortestPathSearch> spare = new ConcurrentLinkedQueue<ShortestPathSearch>();
+
+		inPool(() -> IntStream.range(0, legStart.length).parallel().forEach(i -> {
+			ShortestPathSearch search = take(spare);
+			search.run(legStart[i], legEnd[i]);
+			legPaths[i] = search.getVertexPath(legEnd[i]);
+			spare.add(search);
+		}));
+
+		// Each leg starts where the previous one ended, so skip the first vertex of each leg.
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+		path.add(graph.getLocation(first));
+		for(int[] leg: legPaths) {
+			for(int i=1; i < leg.length; i++) path.add(graph.getLocation(leg[i]));
+		}
+		return path;
+	}
+
+	// Return a spare search, or a new one if none is free.  Running tasks borrow searches and
+	// give them back, so a call makes at most one per thread and the pool keeps none afterwards.
+	private ShortestPathSearch take(ConcurrentLinkedQueue<ShortestPathSearch> spare) {
+		ShortestPathSearch search = spare.poll();
+		return search == null ? new ShortestPathSearch(graph) : search;
+	}
+
+	// Run a parallel task in this optimizer's pool and wait for it.
+	private void inPool(Runnable task) {
+		try {
+			pool.submit(task).get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Route optimization interrupted", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Route optimization failed", e.getCause());
+		}
+	}
+
+	// Build a tour from stop 0, always moving to the closest unvisited stop.
+	private static int[] nearestNeighbourTour(double[] cost, int k) {
+		int[] tour = new int[k];
+		boolean[] used = new boolean[k];
+		used[0] = true;
+		for(int pos=1; pos < k; pos++) {
+			int from = tour[pos - 1];
+			int best = -1;
+			for(int j=0; j < k; j++) {
+				if(!used[j] && (best == -1 || cost[from * k + j] < cost[from * k + best])) best = j;
+			}
+			tour[pos] = best;
+			used[best] = true;
+		}
+		return tour;
+	}
+
+	// Return the length of a tour; open tours do not pay for returning to the start.
+	private static double tourCost(int[] tour, double[] cost, boolean closed) {
+		int k = tour.length;
+		double total = 0.0;
+		for(int pos=0; pos < k - 1; pos++) total += cost[tour[pos] * k + tour[pos + 1]];
+		if(closed) total += cost[tour[k - 1] * k + tour[0]];
+		return total;
+	}
+
+	// Cost from stop a to stop b, where b == -1 means the end of an open tour.
+	private static double cost(double[] cost, int k, int a, int b) {
+		return b == -1 ? 0.0 : cost[a * k + b];
+	}
+
+	// Return the stop after position pos, or -1 at the end of an open tour.
+	private static int next(int[] tour, int pos, boolean closed) {
+		if(pos + 1 < tour.length) return tour[pos + 1];
+		return closed ? tour[0] : -1;
+	}
+
+	/*
+	 * Apply improving 2-opt moves (reverse the tour between positions i and j) until none is
+	 * left or time runs out.  forward[p] and backward[p] are the costs of the tour up to
+	 * position p travelled forwards and backwards, so a reversal is priced in constant time
+	 * even when distances are asymmetric.  Position 0 is the depot and never moves.
+	 */
+	private static boolean twoOpt(int[] tour, double[] cost, boolean closed, long deadline) {
+		int k = tour.length;
+		double[] forward = new double[k];
+		double[] backward = new double[k];
+		boolean improvedAny = false;
+		boolean improved = true;
+
+		while(improved && System.nanoTime() < deadline) {
+			improved = false;
+			for(int p=1; p < k; p++) {
+				forward[p] = forward[p - 1] + cost[tour[p - 1] * k + tour[p]];
+				backward[p] = backward[p - 1] + cost[tour[p] * k + tour[p - 1]];
+			}
+
+			search:
+			for(int i=1; i < k - 1; i++) {
+				int before = tour[i - 1];
+				for(int j=i + 1; j < k; j++) {
+					int after = next(tour, j, closed);
+					double oldCost = cost[before * k + tour[i]] + (forward[j] - forward[i]) + cost(cost, k, tour[j], after);
+					double newCost = cost[before * k + tour[j]] + (backward[j] - backward[i]) + cost(cost, k, tour[i], after);
+					if(newCost < oldCost - EPSILON) {
+						for(int a=i, b=j; a < b; a++, b--) {
+							int t = tour[a];
+							tour[a] = tour[b];
+							tour[b] = t;
+						}
+						improved = improvedAny = true;
+						break search;
+					}
+				}
+			}
+		}
+		return improvedAny;
+	}
+
+	/*
+	 * Apply improving Or-opt moves (move a run of 1 to 3 consecutive stops to another place in
+	 * the tour, keeping their order) until none is left or time runs out.
+	 */
+	private static boolean orOpt(int[] tour, double[] cost, boolean closed, long deadline) {
+		int k = tour.length;
+		boolean improvedAny = false;
+		boolean improved = true;
+
+		while(improved && System.nanoTime() < deadline) {
+			improved = false;
+
+			search:
+			for(int runLength=1; runLength <= 3; runLength++) {
+				for(int i=1; i + runLength - 1 < k; i++) {
+					int j = i + runLength - 1;
+					int before = tour[i - 1];
+					int after = next(tour, j, closed);
+					double removeGain = cost[before * k + tour[i]] + cost(cost, k, tour[j], after)
+									  - cost(cost, k, before, after);
+
+					for(int p=0; p < k; p++) {
+						if(p >= i - 1 && p <= j) continue;
+						int pNext = next(tour, p, closed);
+						double insertCost = cost[tour[p] * k + tour[i]] + cost(cost, k, tour[j], pNext)
+										  - cost(cost, k, tour[p], pNext);
+						if(insertCost < removeGain - EPSILON) {
+							moveRun(tour, i, j, p);
+							improved = improvedAny = true;
+							break search;
+						}
+					}
+				}
+			}
+		}
+		return improvedAny;
+	}
+
+	// Move tour[i..j] so that it follows the stop currently at position p (p outside i-1..j).
+	private static void moveRun(int[] tour, int i, int j, int p) {
+		int[] moved = new int[tour.length];
+		int out = 0;
+		for(int pos=0; pos < tour.length; pos++) {
+			if(pos >= i && pos <= j) continue;
+			moved[out++] = tour[pos];
+			if(pos == p) {
+				for(int r=i; r <= j; r++) moved[out++] = tour[r];
+			}
+		}
+		System.arraycopy(moved, 0, tour, 0, tour.length);
+	}
+
+	public static void main(String[] args)
+	{
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap("data/maps/utc.map", theMap);
+		System.out.println("DONE.");
+
+		// Pick every 20th intersection as a stop.
+		List<GeographicPoint> stops = new ArrayList<GeographicPoint>();
+		FrozenMapGraph graph = theMap.freeze();
+		for(int v=0; v < graph.getNumVertices(); v += 20) stops.add(graph.getLocation(v));
+
+		long t0 = System.nanoTime();
+		MultiStopRoute route = new RouteOptimizer(theMap).optimize(stops, true, 1000);
+		long t1 = System.nanoTime();
+		System.out.println(route);
+		if(route != null) System.out.println(route.getPath().size() + " intersections on route, "
+											 + (t1 - t0) / 1000000 + " ms.");
+	}
+}
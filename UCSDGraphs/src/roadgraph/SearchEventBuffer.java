@@ -0,0 +1,101 @@
+package roadgraph;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SearchEventBuffer.java
+ *
+ * @author Karen Blakemore
+ *
+ * A low overhead stream of the intersections visited by a search, for visualization.
+ * The search thread offers vertex ids (see MapNode.getId()) into a fixed size ring buffer of
+ * ints and a consumer thread drains them in chunks.  There is exactly one producer and one
+ * consumer, so the buffer needs no locks: each side only writes its own position.
+ *
+ * The search never waits for the consumer.  If the buffer is full, the event is dropped and
+ * counted.  A sampling interval k keeps only every k-th event, so the stream of a search over
+ * a large map can be thinned to what a display can usefully show.
+ */
+public class SearchEventBuffer {
+	private final int[] events;
+	private final int mask;
+	private final int sampleEvery;
+	private final AtomicLong head = new AtomicLong();	// next position to read; written by the consumer.
+	private final AtomicLong tail = new AtomicLong();	// next position to write; written by the producer.
+	private long offered;								// events seen by the producer
+	private long dropped;								// sampled events lost because the buffer was full
+	private volatile boolean finished;
+
+	/**
+	 * Create a buffer that keeps every event.
+	 * @param capacity - number of events the buffer can hold; rounded up to a power of two.
+	 */
+	public SearchEventBuffer(int capacity) {
+		this(capacity, 1);
+	}
+
+	/**
+	 * Create a buffer that keeps every k-th event.
+	 * @param capacity - number of events the buffer can hold; rounded up to a power of two.
+	 * @param sampleEvery - keep one event out of this many (1 keeps all events).
+	 */
+	public SearchEventBuffer(int capacity, int sampleEvery) {
+		if(capacity < 1 || capacity > (1 << 30) || sampleEvery < 1) throw new IllegalArgumentException();
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity) size <<= 1;
+		this.events = new int[size];
+		this.mask = size - 1;
+		this.sampleEvery = sampleEvery;
+	}
+
+	/**
+	 * Record that a search visited a vertex.  Called only by the search thread; never blocks.
+	 * @param vertex - id of the visited vertex.
+	 * @return false if the event was sampled but dropped because the buffer was full.
+	 */
+	public boolean offer(int vertex) {
+		if(offered++ % sampleEvery != 0) return true;
+
+		long t = tail.get();
+		if(t - head.get() > mask) {
+			dropped++;
+			return false;
+		}
+		events[(int)t & mask] = vertex;
+		tail.lazySet(t + 1);		// publish the event after it is written
+		return true;
+	}
+
+	/** Mark the end of the search, so consumers know no more events will arrive. */
+	public void finish() {
+		finished = true;
+	}
+
+	/**
+	 * Copy available events into chunk.  Called only by the consumer thread.
+	 * @param chunk - array to receive vertex ids.
+	 * @return the number of events copied, 0 if none are available.
+	 */
+	public int drain(int[] chunk) {
+		long h = head.get();
+		int count = (int)Math.min(chunk.length, tail.get() - h);
+		for(int i=0; i < count; i++) chunk[i] = events[(int)(h + i) & mask];
+		head.lazySet(h + count);	// free the slots after they are read
+		return count;
+	}
+
+	/** Return true if the search has finished and every event has been drained */
+	public boolean isDone() {
+		return finished && head.get() == tail.get();
+	}
+
+	/** Return the number of events the search offered, before sampling */
+	public long getOffered() {
+		return offered;
+	}
+
+	/** Return the number of sampled events lost because the buffer was full */
+	public long getDropped() {
+		return dropped;
+	}
+}
@@ -0,0 +1,204 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import geography.GeographicPoint;
+import util.IndexedMinHeap;
+
+/**
+ * ShortestPathSearch.java
+ *
+ * @author Karen Blakemore
+ *
+ * Dijkstra's algorithm over a FrozenMapGraph, using primitive arrays and an indexed heap
+ * instead of per-node objects.  A search object holds the state of one search at a time,
+ * so concurrent searches over the same graph each need their own ShortestPathSearch.
+ * The state is reset lazily: only the vertices touched by the previous search are cleared,
+ * so running many small searches costs no more than the vertices they reach.
+ *
+ * After a search, distances and parents are final for settled vertices.  Vertices that were
+ * reached but not settled (because the search stopped at its targets or its bound) hold
+ * tentative values.
+ */
+public class ShortestPathSearch {
+	private final FrozenMapGraph graph;
+	private final double[] weights;		// edge id -> cost; null means use edge lengths.
+	private final double[] dist;		// vertex -> best known distance from the sources
+	private final int[] parent;			// vertex -> previous vertex on the best path, or -1
+	private final int[] settled;		// vertices in the order they were settled
+	private int numSettled;
+	private final int[] touched;		// vertices whose dist or parent were changed
+	private int numTouched;
+	private final int[] targetStamp;	// vertex -> stamp of the search it is a target of
+	private int stamp;
+	private final IndexedMinHeap heap;
+
+	/**
+	 * Create a search over graph, using edge lengths as costs.
+	 * @param graph - the graph to search.
+	 */
+	public ShortestPathSearch(FrozenMapGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * Create a search over graph, using the given edge costs.
+	 * @param graph - the graph to search.
+	 * @param weights - cost of each edge, indexed by edge id, or null to use edge lengths.
+	 */
+	public ShortestPathSearch(FrozenMapGraph graph, double[] weights) {
+		int n = graph.getNumVertices();
+		if(weights != null && weights.length != graph.getNumEdges())
+			throw new IllegalArgumentException("One weight per edge is required");
+
+		this.graph = graph;
+		this.weights = weights;
+		this.dist = new double[n];
+		this.parent = new int[n];
+		this.settled = new int[n];
+		this.touched = new int[n];
+		this.targetStamp = new int[n];
+		this.heap = new IndexedMinHeap(n);
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(parent, -1);
+	}
+
+	/** Return the graph being searched */
+	public FrozenMapGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Find the shortest path from source to target.
+	 * @return the distance to target, or infinity if target can not be reached.
+	 */
+	public double run(int source, int target) {
+		run(new int[] {source}, new int[] {target}, Double.POSITIVE_INFINITY);
+		return dist[target];
+	}
+
+	/**
+	 * Run a search from several sources at once; each vertex ends up with its distance
+	 * from the nearest source.  The search stops when every target has been settled,
+	 * or when the next vertex would be farther than bound.
+	 * @param sources - vertices at distance 0.
+	 * @param targets - vertices to stop at, or null to search the whole graph.
+	 * @param bound - maximum distance to settle; use infinity for no bound.
+	 * @return the number of targets that were settled.
+	 */
+	public int run(int[] sources, int[] targets, double bound) {
+		reset();
+
+		int remaining = 0;
+		if(targets != null) {
+			stamp++;
+			for(int t: targets) {
+				if(targetStamp[t] != stamp) {
+					targetStamp[t] = stamp;
+					remaining++;
+				}
+			}
+		}
+		int numTargets = remaining;
+
+		for(int s: sources) {
+			if(dist[s] != 0.0) {
+				touch(s);
+				dist[s] = 0.0;
+				heap.insertOrDecrease(s, 0.0);
+			}
+		}
+
+		while(!heap.isEmpty()) {
+			if(heap.peekPriority() > bound) break;
+			int v = heap.removeMin();
+			settled[numSettled++] = v;
+
+			if(targets != null && targetStamp[v] == stamp && --remaining == 0) break;
+
+			double d = dist[v];
+			for(int e=graph.edgeBegin(v), end=graph.edgeEnd(v); e < end; e++) {
+				int w = graph.edgeTarget(e);
+				double nd = d + (weights == null ? graph.edgeLength(e) : weights[e]);
+				if(nd < dist[w]) {
+					if(dist[w] == Double.POSITIVE_INFINITY) touch(w);
+					dist[w] = nd;
+					parent[w] = v;
+					heap.insertOrDecrease(w, nd);
+				}
+			}
+		}
+		return numTargets - remaining;
+	}
+
+	/** Return the distance of v from the sources of the last search (infinity if not reached) */
+	public double getDistance(int v) {
+		return dist[v];
+	}
+
+	/** Return the previous vertex on the shortest path to v, or -1 */
+	public int getParent(int v) {
+		return parent[v];
+	}
+
+	/** Return the number of vertices settled by the last search */
+	public int getNumSettled() {
+		return numSettled;
+	}
+
+	/** Return the i-th vertex settled by the last search */
+	public int getSettled(int i) {
+		return settled[i];
+	}
+
+	/**
+	 * Return the vertices on the shortest path to target, starting with a source.
+	 * @return the vertex ids, or null if target was not reached.
+	 */
+	public int[] getVertexPath(int target) {
+		if(dist[target] == Double.POSITIVE_INFINITY) return null;
+
+		int length = 1;
+		for(int v = target; parent[v] != -1; v = parent[v]) length++;
+
+		int[] path = new int[length];
+		int v = target;
+		for(int i = length - 1; i >= 0; i--) {
+			path[i] = v;
+			v = parent[v];
+		}
+		return path;
+	}
+
+	/**
+	 * Return the locations on the shortest path to target, starting with a source.
+	 * @return the path, or null if target was not reached.
+	 */
+	public List<GeographicPoint> getPath(int target) {
+		int[] vertices = getVertexPath(target);
+		if(vertices == null) return null;
+
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>(vertices.length);
+		for(int v: vertices) path.add(graph.getLocation(v));
+		return path;
+	}
+
+	// Record that v's state changed, so it is cleared before the next search.
+	private void touch(int v) {
+		touched[numTouched++] = v;
+	}
+
+	// Clear the state left by the previous search.
+	private void reset() {
+		for(int i=0; i < numTouched; i++) {
+			int v = touched[i];
+			dist[v] = Double.POSITIVE_INFINITY;
+			parent[v] = -1;
+		}
+		numTouched = 0;
+		numSettled = 0;
+		heap.clear();
+	}
+}
@@ -0,0 +1,93 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+import util.IndexedMinHeap;
+
+/**
+ * SnapshotSearch.java
+ *
+ * @author Karen Blakemore
+ *
+ * Dijkstra's algorithm directly over the chunked adjacency of a MapSnapshot, so a query does not
+ * need the snapshot flattened into a FrozenMapGraph first.  Like ShortestPathSearch, the state is
+ * held in primitive arrays and reset lazily, clearing only the vertices the previous search
+ * touched.  One search object serves one thread (see VersionedMapGraph.searchState()); it is
+ * reused across queries and versions, and its arrays grow when a newer version has more
+ * intersections.
+ */
+class SnapshotSearch {
+	private double[] dist = new double[0];		// vertex -> best known distance from the start
+	private int[] parent = new int[0];			// vertex -> previous vertex on the best path, or -1
+	private int[] touched = new int[0];			// vertices whose dist or parent were changed
+	private int numTouched;
+	private IndexedMinHeap heap = new IndexedMinHeap(0);
+
+	/**
+	 * Find the shortest path from start to goal in a snapshot.
+	 * @param snapshot - the version to search.
+	 * @param start - id of the start intersection.
+	 * @param goal - id of the goal intersection.
+	 * @return the locations on the path (including start and goal), or null if there is none.
+	 */
+	List<GeographicPoint> dijkstra(MapSnapshot snapshot, int start, int goal) {
+		reset(snapshot.getNumVertices());
+		MapSnapshot.Chunk[] chunks = snapshot.getChunks();
+
+		touched[numTouched++] = start;
+		dist[start] = 0.0;
+		heap.insertOrDecrease(start, 0.0);
+		while(!heap.isEmpty()) {
+			int v = heap.removeMin();
+			if(v == goal) break;
+
+			MapSnapshot.Chunk chunk = chunks[v / MapSnapshot.CHUNK_SIZE];
+			int[] targets = chunk.targets[v % MapSnapshot.CHUNK_SIZE];
+			if(targets == null) continue;
+			double[] lengths = chunk.lengths[v % MapSnapshot.CHUNK_SIZE];
+			double d = dist[v];
+			for(int i=0; i < targets.length; i++) {
+				int w = targets[i];
+				double nd = d + lengths[i];
+				if(nd < dist[w]) {
+					if(dist[w] == Double.POSITIVE_INFINITY) touched[numTouched++] = w;
+					dist[w] = nd;
+					parent[w] = v;
+					heap.insertOrDecrease(w, nd);
+				}
+			}
+		}
+		if(dist[goal] == Double.POSITIVE_INFINITY) return null;
+
+		ArrayList<GeographicPoint> path = new ArrayList<GeographicPoint>();
+		for(int v = goal; v != -1; v = parent[v]) path.add(snapshot.getLocation(v));
+		Collections.reverse(path);
+		return path;
+	}
+
+	// Clear the state left by the previous search, growing the arrays to hold n vertices.
+	private void reset(int n) {
+		if(dist.length < n) {
+			int capacity = Math.max(n, dist.length + dist.length / 4);
+			dist = new double[capacity];
+			parent = new int[capacity];
+			touched = new int[capacity];
+			heap = new IndexedMinHeap(capacity);
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(parent, -1);
+			numTouched = 0;
+			return;
+		}
+		for(int i=0; i < numTouched; i++) {
+			int v = touched[i];
+			dist[v] = Double.POSITIVE_INFINITY;
+			parent[v] = -1;
+		}
+		numTouched = 0;
+		heap.clear();
+	}
+}
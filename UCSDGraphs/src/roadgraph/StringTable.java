@@ -0,0 +1,62 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * StringTable.java
+ *
+ * @author Karen Blakemore
+ *
+ * Interns strings that repeat many times in a map, such as road names and road types.
+ * Each distinct string is stored once and given an int id (0, 1, 2, ... in order of first use),
+ * so per-edge attributes can be kept as ids in int arrays, or as shared String references.
+ */
+public class StringTable {
+	private HashMap<String, Integer> ids;	// string -> id
+	private ArrayList<String> strings;		// id -> string
+
+	/** Create an empty table */
+	public StringTable() {
+		ids = new HashMap<String, Integer>();
+		strings = new ArrayList<String>();
+	}
+
+	/**
+	 * Return the id of a string, adding it to the table if it is new.
+	 * @param s - the string.
+	 * @return the id of s.
+	 */
+	public int intern(String s) {
+		Integer id = ids.get(s);
+		if(id == null) {
+			id = strings.size();
+			ids.put(s, id);
+			strings.add(s);
+		}
+		return id;
+	}
+
+	/**
+	 * Return the copy of a string that is stored in the table, adding it if it is new.
+	 * Equal strings passed to this method all come back as the same String object.
+	 */
+	public String canonical(String s) {
+		return strings.get(intern(s));
+	}
+
+	/** Return the string with the given id */
+	public String get(int id) {
+		return strings.get(id);
+	}
+
+	/** Return the number of distinct strings */
+	public int size() {
+		return strings.size();
+	}
+
+	/** Return the strings, indexed by id */
+	public String[] toArray() {
+		return strings.toArray(new String[strings.size()]);
+	}
+}
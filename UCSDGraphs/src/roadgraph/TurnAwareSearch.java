@@ -0,0 +1,378 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import util.GraphLoader;
+import util.IndexedMinHeap;
+
+/**
+ * TurnAwareSearch.java
+ *
+ * @author Karen Blakemore
+ *
+ * Dijkstra's algorithm over road segments instead of intersections, so that routes pay for
+ * the turns they make and never make a forbidden one.  The state of the search is the segment
+ * just driven: reaching segment f from segment e costs the turn from e to f (TurnCosts, by the
+ * angle between them) plus the cost of f.  A node based search can not do this, because the
+ * cheapest way to reach an intersection may arrive from a direction that makes the next turn
+ * expensive or illegal.
+ *
+ * The line graph (one vertex per segment, one edge per possible turn) is never built.  The
+ * turns out of segment e are the segments leaving its end in the FrozenMapGraph, and their
+ * costs come from the bearings stored per segment, so the extra memory is a few arrays indexed
+ * by edge id.  Bearings are taken from the road geometry of each segment (its first and last
+ * pieces), which is what a driver sees at the intersection, rather than from the straight line
+ * between its end points.
+ *
+ * Turn restrictions ban a particular pair of segments, e.g., no left turn from A Street onto
+ * B Avenue.  A search object holds the state of one search at a time.
+ */
+public class TurnAwareSearch {
+	private final FrozenMapGraph graph;
+	private final CostProfile profile;
+	private final double[] weights;			// edge id -> cost
+	private final int[] edgeSource;			// edge id -> vertex it leaves
+	private final float[] inBearing;		// edge id -> bearing arriving at its end
+	private final float[] outBearing;		// edge id -> bearing leaving its start
+	private final double[] turnCost;		// turn class -> cost in the profile's units
+	private final TurnCosts turns;
+	private final HashSet<Long> banned = new HashSet<Long>();	// from edge << 32 | to edge
+	private final boolean[] hasBan;			// edge id -> true if some turn from it is banned
+
+	private final double[] dist;			// edge id -> best cost of a route ending with it
+	private final int[] parent;				// edge id -> previous edge on that route, or -1
+	private final int[] touched;
+	private int numTouched;
+	private int numSettled;
+	private final IndexedMinHeap heap;
+	private int source = -1;
+	private boolean reached;				// true if the last search reached its target
+	private int lastEdge = -1;				// the last edge of the route found, -1 if it is empty
+
+	/**
+	 * Create a search over a map.
+	 * @param graph - the map.
+	 * @param segments - road geometry by intersection, from GraphLoader.loadRoadMap; if null,
+	 *   straight lines between intersections are used.
+	 * @param profile - the cost of road segments.
+	 * @param turns - the cost of turns.
+	 */
+	public TurnAwareSearch(FrozenMapGraph graph, HashMap<GeographicPoint, HashSet<RoadSegment>> segments,
+						   CostProfile profile, TurnCosts turns) {
+		int m = graph.getNumEdges();
+		this.graph = graph;
+		this.profile = profile;
+		this.turns = turns;
+		this.weights = profile.edgeWeights(graph);
+		this.edgeSource = new int[m];
+		this.inBearing = new float[m];
+		this.outBearing = new float[m];
+		this.hasBan = new boolean[m];
+		this.turnCost = new double[TurnCosts.NUM_CLASSES];
+		for(int c=0; c < turnCost.length; c++) turnCost[c] = turns.cost(c, profile);
+
+		for(int v=0; v < graph.getNumVertices(); v++) {
+			GeographicPoint from = graph.getLocation(v);
+			for(int e=graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+				GeographicPoint to = graph.getLocation(graph.edgeTarget(e));
+				List<GeographicPoint> points = geometry(segments, from, to, graph.edgeLength(e));
+				edgeSource[e] = v;
+				outBearing[e] = (float)bearing(points.get(0), points.get(1));
+				inBearing[e] = (float)bearing(points.get(points.size() - 2), points.get(points.size() - 1));
+			}
+		}
+
+		this.dist = new double[m];
+		this.parent = new int[m];
+		this.touched = new int[m];
+		this.heap = new IndexedMinHeap(m);
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(parent, -1);
+	}
+
+	// Return the points along the segment from one intersection to another, preferring the
+	// road whose length is closest to the edge's when several join the same intersections.
+	private static List<GeographicPoint> geometry(HashMap<GeographicPoint, HashSet<RoadSegment>> segments,
+												  GeographicPoint from, GeographicPoint to, double length) {
+		RoadSegment best = null;
+		HashSet<RoadSegment> candidates = segments == null ? null : segments.get(from);
+		if(candidates != null) {
+			for(RoadSegment segment: candidates) {
+				if(!to.equals(segment.getOtherPoint(from))) continue;
+				if(best == null || Math.abs(segment.getLength() - length) < Math.abs(best.getLength() - length))
+					best = segment;
+			}
+		}
+		if(best != null) return best.getPoints(from, to);
+
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(2);
+		points.add(from);
+		points.add(to);
+		return points;
+	}
+
+	// Return the initial bearing from a to b, in degrees clockwise from north.
+	private static double bearing(GeographicPoint a, GeographicPoint b) {
+		double lat1 = Math.toRadians(a.getX());
+		double lat2 = Math.toRadians(b.getX());
+		double dLon = Math.toRadians(b.getY() - a.getY());
+		double y = Math.sin(dLon) * Math.cos(lat2);
+		double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(dLon);
+		return Math.toDegrees(Math.atan2(y, x));
+	}
+
+	/** Return the graph being searched */
+	public FrozenMapGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Forbid the turn from the road from -> via onto the road via -> to.  Every road segment
+	 * joining those intersections is restricted.
+	 * @return false if there is no such pair of segments.
+	 */
+	public boolean restrictTurn(GeographicPoint from, GeographicPoint via, GeographicPoint to) {
+		int u = graph.getIndex(from);
+		int v = graph.getIndex(via);
+		int w = graph.getIndex(to);
+		if(u == -1 || v == -1 || w == -1) return false;
+		boolean found = false;
+		for(int e=graph.edgeBegin(u); e < graph.edgeEnd(u); e++) {
+			if(graph.edgeTarget(e) != v) continue;
+			for(int f=graph.edgeBegin(v); f < graph.edgeEnd(v); f++) {
+				if(graph.edgeTarget(f) != w) continue;
+				banned.add((long)e << 32 | f);
+				hasBan[e] = true;
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	/** Return the class of the turn from edge e onto edge f, which must leave e's end */
+	public int turnClass(int e, int f) {
+		return turns.classify(TurnCosts.turnAngle(inBearing[e], outBearing[f]), graph.edgeTarget(f) == edgeSource[e]);
+	}
+
+	/**
+	 * Find the cheapest route from source to target, counting turn costs.
+	 * @return the cost, or infinity if target can not be reached.
+	 */
+	public double run(int source, int target) {
+		reset();
+		this.source = source;
+		if(source == target) {
+			reached = true;
+			return 0.0;
+		}
+
+		for(int e=graph.edgeBegin(source); e < graph.edgeEnd(source); e++) {
+			relax(e, -1, weights[e]);
+		}
+		while(!heap.isEmpty()) {
+			int e = heap.removeMin();
+			numSettled++;
+			int v = graph.edgeTarget(e);
+			if(v == target) {
+				reached = true;
+				lastEdge = e;
+				return dist[e];
+			}
+			double d = dist[e];
+			for(int f=graph.edgeBegin(v), end=graph.edgeEnd(v); f < end; f++) {
+				if(hasBan[e] && banned.contains((long)e << 32 | f)) continue;
+				relax(f, e, d + turnCost[turnClass(e, f)] + weights[f]);
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private void relax(int f, int from, double cost) {
+		if(!(cost < dist[f])) return;
+		if(dist[f] == Double.POSITIVE_INFINITY) touched[numTouched++] = f;
+		dist[f] = cost;
+		parent[f] = from;
+		heap.insertOrDecrease(f, cost);
+	}
+
+	// Clear the state left by the previous search.
+	private void reset() {
+		for(int i=0; i < numTouched; i++) {
+			dist[touched[i]] = Double.POSITIVE_INFINITY;
+			parent[touched[i]] = -1;
+		}
+		numTouched = 0;
+		numSettled = 0;
+		reached = false;
+		lastEdge = -1;
+		heap.clear();
+	}
+
+	/** Return the number of road segments settled by the last search */
+	public int getNumSettled() {
+		return numSettled;
+	}
+
+	/**
+	 * Return the intersections on the route found by the last search, starting with its source.
+	 * @return the vertex ids, or null if the target was not reached.
+	 */
+	public int[] getVertexPath() {
+		if(!reached) return null;
+		int length = 1;
+		for(int e=lastEdge; e != -1; e = parent[e]) length++;
+		int[] path = new int[length];
+		int i = length - 1;
+		for(int e=lastEdge; e != -1; e = parent[e]) path[i--] = graph.edgeTarget(e);
+		path[0] = source;
+		return path;
+	}
+
+	/**
+	 * Find the cheapest route from start to goal, counting turn costs.
+	 * @return the route from start to goal (including both), or null if there is none.
+	 */
+	public List<GeographicPoint> getPath(GeographicPoint start, GeographicPoint goal) {
+		int s = graph.getIndex(start);
+		int t = graph.getIndex(goal);
+		if(s == -1 || t == -1) {
+			System.out.println("Start or goal location not in graph !  No path exists.");
+			return null;
+		}
+		if(run(s, t) == Double.POSITIVE_INFINITY) return null;
+		List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+		for(int v: getVertexPath()) path.add(graph.getLocation(v));
+		return path;
+	}
+
+	// Return the cheapest segment joining each pair of consecutive intersections of a route,
+	// or null if some pair is not joined.
+	private int[] routeEdges(int[] vertices) {
+		int[] edges = new int[vertices.length - 1];
+		for(int i=0; i < edges.length; i++) {
+			edges[i] = -1;
+			for(int e=graph.edgeBegin(vertices[i]); e < graph.edgeEnd(vertices[i]); e++) {
+				if(graph.edgeTarget(e) == vertices[i + 1] && (edges[i] == -1 || weights[e] < weights[edges[i]])) edges[i] = e;
+			}
+			if(edges[i] == -1) return null;
+		}
+		return edges;
+	}
+
+	/**
+	 * Return the cost of a route, including its turns, e.g., to price a route found by a
+	 * node based search.
+	 * @return the cost, or infinity if the route makes a forbidden turn or is not connected.
+	 */
+	public double routeCost(int[] vertices) {
+		int[] edges = routeEdges(vertices);
+		if(edges == null) return Double.POSITIVE_INFINITY;
+		double cost = 0;
+		for(int i=0; i < edges.length; i++) {
+			cost += weights[edges[i]];
+			if(i == 0) continue;
+			if(banned.contains((long)edges[i - 1] << 32 | edges[i])) return Double.POSITIVE_INFINITY;
+			cost += turnCost[turnClass(edges[i - 1], edges[i])];
+		}
+		return cost;
+	}
+
+	/** Return the number of turns of each class on a route, indexed by TurnCosts class */
+	public int[] countTurns(int[] vertices) {
+		int[] counts = new int[TurnCosts.NUM_CLASSES];
+		int[] edges = routeEdges(vertices);
+		if(edges == null) return counts;
+		for(int i=1; i < edges.length; i++) counts[turnClass(edges[i - 1], edges[i])]++;
+		return counts;
+	}
+
+	/** Return the cost profile of the search */
+	public CostProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Compare turn aware routes with node based Dijkstra routes on the sample maps.
+	 */
+	public static void main(String[] args)
+	{
+		String[] maps = {"ucsd", "utc", "hollywood_large", "san_diego", "new_york"};
+		int queries = 500;
+		CostProfile profile = CostProfile.car();
+		for(String name: maps) {
+			MapGraph theMap = new MapGraph();
+			HashMap<GeographicPoint, HashSet<RoadSegment>> segments = new HashMap<GeographicPoint, HashSet<RoadSegment>>();
+			GraphLoader.loadRoadMap("data/maps/" + name + ".map", theMap, segments, null);
+			FrozenMapGraph graph = theMap.freeze();
+			int n = graph.getNumVertices();
+
+			ShortestPathSearch nodeSearch = new ShortestPathSearch(graph, profile.edgeWeights(graph));
+			TurnAwareSearch edgeSearch = new TurnAwareSearch(graph, segments, profile, TurnCosts.car());
+			TurnAwareSearch noTurns = new TurnAwareSearch(graph, segments, profile, TurnCosts.NONE);
+
+			int[] sources = new int[queries];
+			int[] targets = new int[queries];
+			Random random = new Random(1);
+			for(int i=0; i < queries; i++) {
+				sources[i] = random.nextInt(n);
+				targets[i] = random.nextInt(n);
+			}
+			for(int i=0; i < queries; i++) {		// warm up
+				nodeSearch.run(sources[i], targets[i]);
+				edgeSearch.run(sources[i], targets[i]);
+			}
+
+			long nodeTime = 0, edgeTime = 0, nodeSettled = 0, edgeSettled = 0;
+			int found = 0, changed = 0, mismatches = 0;
+			double nodeCost = 0, edgeCost = 0;
+			int[] nodeTurns = new int[TurnCosts.NUM_CLASSES];
+			int[] edgeTurns = new int[TurnCosts.NUM_CLASSES];
+			for(int i=0; i < queries; i++) {
+				long t0 = System.nanoTime();
+				double d = nodeSearch.run(sources[i], targets[i]);
+				long t1 = System.nanoTime();
+				double c = edgeSearch.run(sources[i], targets[i]);
+				long t2 = System.nanoTime();
+				nodeTime += t1 - t0;
+				edgeTime += t2 - t1;
+				nodeSettled += nodeSearch.getNumSettled();
+				edgeSettled += edgeSearch.getNumSettled();
+
+				// Without turn costs, both searches must find the same cost.
+				double plain = noTurns.run(sources[i], targets[i]);
+				if(Math.abs(plain - d) > 1e-9 && !(plain == d)) mismatches++;
+				if(d == Double.POSITIVE_INFINITY) continue;
+
+				found++;
+				int[] nodePath = nodeSearch.getVertexPath(targets[i]);
+				int[] edgePath = edgeSearch.getVertexPath();
+				nodeCost += edgeSearch.routeCost(nodePath);
+				edgeCost += c;
+				if(!Arrays.equals(nodePath, edgePath)) changed++;
+				int[] a = edgeSearch.countTurns(nodePath);
+				int[] b = edgeSearch.countTurns(edgePath);
+				for(int k=0; k < a.length; k++) {
+					nodeTurns[k] += a[k];
+					edgeTurns[k] += b[k];
+				}
+			}
+
+			System.out.println(name + ": " + n + " intersections, " + graph.getNumEdges() + " road segments, "
+							   + found + " routes");
+			System.out.printf("\tnode based: %7.1f us/query, %6d settled, %6.2f min with turns, %5.2f left + %5.2f U-turns per route%n",
+							  nodeTime / 1000.0 / queries, nodeSettled / queries, nodeCost / found,
+							  (double)nodeTurns[TurnCosts.LEFT] / found, (double)nodeTurns[TurnCosts.U_TURN] / found);
+			System.out.printf("\tturn aware: %7.1f us/query, %6d settled, %6.2f min with turns, %5.2f left + %5.2f U-turns per route%n",
+							  edgeTime / 1000.0 / queries, edgeSettled / queries, edgeCost / found,
+							  (double)edgeTurns[TurnCosts.LEFT] / found, (double)edgeTurns[TurnCosts.U_TURN] / found);
+			System.out.println("\t" + changed + " routes changed; " + mismatches + " cost mismatches without turn costs");
+		}
+	}
+}
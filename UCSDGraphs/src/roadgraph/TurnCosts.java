@@ -0,0 +1,96 @@
+package roadgraph;
+
+/**
+ * TurnCosts.java
+ *
+ * @author Karen Blakemore
+ *
+ * The time lost making a turn, by the angle between the road coming in and the road going out.
+ * Turns are classed as straight (within 30 degrees), right, left, sharp (more than 135 degrees)
+ * or a U-turn (back along the road just driven).  In right-hand traffic left turns cross the
+ * oncoming lane and cost more than right turns; leftHandTraffic swaps the two.
+ *
+ * This is an implicit turn table: the cost of any pair of roads is computed from their
+ * bearings when a search needs it, rather than stored per intersection.
+ */
+public class TurnCosts {
+	public static final int STRAIGHT = 0;
+	public static final int RIGHT = 1;
+	public static final int LEFT = 2;
+	public static final int SHARP = 3;
+	public static final int U_TURN = 4;
+	public static final int NUM_CLASSES = 5;
+
+	/** No turn costs; searches then find the same costs as node based ones */
+	public static final TurnCosts NONE = new TurnCosts(0, 0, 0, 0, false);
+
+	private static final double STRAIGHT_ANGLE = 30;
+	private static final double SHARP_ANGLE = 135;
+	private static final double KM_PER_SECOND = 30.0 / 3600;	// distance lost per second at 30 km/h
+
+	private final double[] seconds = new double[NUM_CLASSES];	// turn class -> seconds lost
+	private final boolean leftHandTraffic;
+
+	/**
+	 * @param right - seconds lost turning right.
+	 * @param left - seconds lost turning left.
+	 * @param sharp - seconds lost on a turn of more than 135 degrees.
+	 * @param uTurn - seconds lost on a U-turn; infinity forbids U-turns.
+	 * @param leftHandTraffic - true if traffic drives on the left, so right turns cross traffic.
+	 * @throws IllegalArgumentException If a cost is less than 0 or not a number.
+	 */
+	public TurnCosts(double right, double left, double sharp, double uTurn, boolean leftHandTraffic) {
+		if(!(right >= 0 && left >= 0 && sharp >= 0 && uTurn >= 0))
+			throw new IllegalArgumentException("Turn costs must be at least 0");
+		seconds[RIGHT] = right;
+		seconds[LEFT] = left;
+		seconds[SHARP] = sharp;
+		seconds[U_TURN] = uTurn;
+		this.leftHandTraffic = leftHandTraffic;
+	}
+
+	/** Return typical turn costs for a car in right-hand traffic */
+	public static TurnCosts car() {
+		return new TurnCosts(3, 12, 20, 40, false);
+	}
+
+	/**
+	 * Return the class of a turn.
+	 * @param angle - degrees turned, clockwise (to the right) positive, in -180 .. 180.
+	 * @param uTurn - true if the road goes back to where the incoming road started.
+	 */
+	public int classify(double angle, boolean uTurn) {
+		if(uTurn) return U_TURN;
+		double a = Math.abs(angle);
+		if(a <= STRAIGHT_ANGLE) return STRAIGHT;
+		if(a > SHARP_ANGLE) return SHARP;
+		return (angle > 0) != leftHandTraffic ? RIGHT : LEFT;
+	}
+
+	/** Return the seconds lost on a class of turn */
+	public double getSeconds(int turnClass) {
+		return seconds[turnClass];
+	}
+
+	/**
+	 * Return the cost of a class of turn in a profile's units: minutes for travel time
+	 * profiles, or for DISTANCE the km that could have been driven at 30 km/h meanwhile.
+	 */
+	public double cost(int turnClass, CostProfile profile) {
+		double s = seconds[turnClass];
+		return profile.getUnits().equals("min") ? s / 60.0 : s * KM_PER_SECOND;
+	}
+
+	/**
+	 * Return the angle turned from one bearing to another.
+	 * @param inBearing - bearing of travel arriving at the intersection, in degrees.
+	 * @param outBearing - bearing of travel leaving it, in degrees.
+	 * @return degrees turned, clockwise positive, in -180 .. 180.
+	 */
+	public static double turnAngle(double inBearing, double outBearing) {
+		double angle = (outBearing - inBearing) % 360;
+		if(angle > 180) angle -= 360;
+		else if(angle <= -180) angle += 360;
+		return angle;
+	}
+}
@@ -0,0 +1,254 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * VersionedMapGraph.java
+ *
+ * @author Karen Blakemore
+ *
+ * A road map that can be edited while queries run on it.  Readers always work on an immutable
+ * MapSnapshot, so they never see a half applied edit and never need a lock.  A writer collects
+ * changes in a MapDelta and publishes them: a new snapshot is built that shares every unchanged
+ * chunk with the current one (copy-on-write), and is then made current with a single atomic
+ * store.  Queries that started on an older version finish on it undisturbed.
+ *
+ * Snapshots are reference counted.  The graph holds one reference to the current version and
+ * each acquire() takes another; a version is released when it has been replaced and its last
+ * reader has closed it.
+ *
+ * The location index is shared by all versions.  Intersections are never removed, so an entry
+ * never changes once added, and a snapshot ignores the entries of intersections newer than itself.
+ */
+public class VersionedMapGraph {
+	private final AtomicReference<MapSnapshot> current;
+	private final ConcurrentHashMap<GeographicPoint, Integer> index;
+	private final StringTable roadStrings;				// used only by the writer
+	private final AtomicLong releasedVersions = new AtomicLong();
+	// Each reader thread reuses one search state for every query, on every version.
+	private final ThreadLocal<SnapshotSearch> searches = ThreadLocal.withInitial(SnapshotSearch::new);
+
+	/** Create an empty graph; its first version is 0 */
+	public VersionedMapGraph() {
+		index = new ConcurrentHashMap<GeographicPoint, Integer>();
+		roadStrings = new StringTable();
+		current = new AtomicReference<MapSnapshot>(new MapSnapshot(this, 0, 0, 0, new MapSnapshot.Chunk[0], index));
+	}
+
+	/**
+	 * Create a graph whose first version holds the intersections and road segments of a map.
+	 * Intersection ids are the same as in the map.
+	 * @param map - the road map to copy.
+	 */
+	public VersionedMapGraph(MapGraph map) {
+		this();
+		MapDelta delta = new MapDelta();
+		for(int v=0; v < map.getNumVertices(); v++) delta.addVertex(map.getLocation(v));
+		for(int v=0; v < map.getNumVertices(); v++) {
+			MapNode node = map.getNode(v);
+			for(MapEdge edge: node.getEdges()) {
+				delta.addEdge(node.getLoc(), edge.getEndNode().getLoc(), edge.getName(), edge.getType(), edge.getDistance());
+			}
+		}
+		publish(delta);
+	}
+
+	/**
+	 * Return the current version for reading.  The caller must close() it when done,
+	 * e.g., with try-with-resources.
+	 */
+	public MapSnapshot acquire() {
+		for(;;) {
+			MapSnapshot snapshot = current.get();
+			if(snapshot.tryRetain()) return snapshot;
+			// The snapshot was replaced and released between the read and the retain; retry.
+		}
+	}
+
+	/** Return the current version number without acquiring it */
+	public long getVersion() {
+		return current.get().getVersion();
+	}
+
+	// Return the calling thread's search state.
+	SnapshotSearch searchState() {
+		return searches.get();
+	}
+
+	/** Return the number of versions that have been released */
+	public long getReleasedVersions() {
+		return releasedVersions.get();
+	}
+
+	void released(MapSnapshot snapshot) {
+		releasedVersions.incrementAndGet();
+	}
+
+	/**
+	 * Apply a delta and make the result the current version.  Writers are serialized;
+	 * readers are never blocked.
+	 * @param delta - the changes to apply.
+	 * @return the new version number.
+	 * @throws IllegalArgumentException If a road segment's end point is in neither the graph
+	 *   nor the delta.  The graph is then unchanged.
+	 */
+	public synchronized long publish(MapDelta delta) {
+		MapSnapshot base = current.get();
+		int n = base.getNumVertices();
+
+		// Assign ids to new intersections, and check every segment before changing anything.
+		HashMap<GeographicPoint, Integer> newIds = new HashMap<GeographicPoint, Integer>();
+		for(GeographicPoint location: delta.vertices) {
+			if(base.getIndex(location) == -1) newIds.put(location, n + newIds.size());
+		}
+		int[] from = new int[delta.getNumEdges()];
+		int[] to = new int[delta.getNumEdges()];
+		for(int i=0; i < from.length; i++) {
+			from[i] = lookup(base, newIds, delta.edgeFrom.get(i));
+			to[i] = lookup(base, newIds, delta.edgeTo.get(i));
+			if(from[i] == -1 || to[i] == -1) throw new IllegalArgumentException("Road segment end point not in graph");
+		}
+
+		int newN = n + newIds.size();
+		MapSnapshot.Chunk[] baseChunks = base.getChunks();
+		MapSnapshot.Chunk[] chunks = Arrays.copyOf(baseChunks, (newN + MapSnapshot.CHUNK_SIZE - 1) / MapSnapshot.CHUNK_SIZE);
+		boolean[] copied = new boolean[chunks.length];
+
+		for(GeographicPoint location: delta.vertices) {
+			Integer id = newIds.get(location);
+			if(id == null) continue;
+			writable(chunks, copied, baseChunks.length, id).locations[id % MapSnapshot.CHUNK_SIZE] = location;
+		}
+		for(int i=0; i < from.length; i++) {
+			MapSnapshot.Chunk chunk = writable(chunks, copied, baseChunks.length, from[i]);
+			int slot = from[i] % MapSnapshot.CHUNK_SIZE;
+			int degree = chunk.targets[slot] == null ? 0 : chunk.targets[slot].length;
+			chunk.targets[slot] = append(chunk.targets[slot], degree, to[i]);
+			chunk.lengths[slot] = append(chunk.lengths[slot], degree, delta.edgeLength.get(i));
+			chunk.names[slot] = append(chunk.names[slot], degree, roadStrings.canonical(delta.edgeName.get(i)));
+			chunk.types[slot] = append(chunk.types[slot], degree, roadStrings.canonical(delta.edgeType.get(i)));
+		}
+
+		MapSnapshot next = new MapSnapshot(this, base.getVersion() + 1, newN, base.getNumEdges() + from.length, chunks, index);
+		index.putAll(newIds);		// invisible to older versions, whose ids stop below n
+		current.set(next);
+		base.release();				// drop the graph's reference to the old version
+		return next.getVersion();
+	}
+
+	private static int lookup(MapSnapshot base, HashMap<GeographicPoint, Integer> newIds, GeographicPoint location) {
+		int id = base.getIndex(location);
+		if(id != -1) return id;
+		Integer newId = newIds.get(location);
+		return newId == null ? -1 : newId;
+	}
+
+	// Return the chunk holding vertex v, copying it first if it is shared with a published version.
+	private static MapSnapshot.Chunk writable(MapSnapshot.Chunk[] chunks, boolean[] copied, int numShared, int v) {
+		int c = v / MapSnapshot.CHUNK_SIZE;
+		if(!copied[c]) {
+			chunks[c] = c < numShared ? chunks[c].copy() : new MapSnapshot.Chunk();
+			copied[c] = true;
+		}
+		return chunks[c];
+	}
+
+	private static int[] append(int[] values, int size, int value) {
+		int[] result = values == null ? new int[1] : Arrays.copyOf(values, size + 1);
+		result[size] = value;
+		return result;
+	}
+
+	private static double[] append(double[] values, int size, double value) {
+		double[] result = values == null ? new double[1] : Arrays.copyOf(values, size + 1);
+		result[size] = value;
+		return result;
+	}
+
+	private static String[] append(String[] values, int size, String value) {
+		String[] result = values == null ? new String[1] : Arrays.copyOf(values, size + 1);
+		result[size] = value;
+		return result;
+	}
+
+	/**
+	 * Run route queries on several threads while a writer keeps adding roads, and check that
+	 * every query sees a consistent version.
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		System.out.print("Making a new map...");
+		MapGraph theMap = new MapGraph();
+		System.out.print("DONE. \nLoading the map...");
+		GraphLoader.loadRoadMap("data/maps/san_diego.map", theMap);
+		System.out.println("DONE.");
+
+		VersionedMapGraph graph = new VersionedMapGraph(theMap);
+		int n = theMap.getNumVertices();
+		AtomicLong queries = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+		long end = System.currentTimeMillis() + 3000;
+
+		Thread[] readers = new Thread[3];
+		for(int r=0; r < readers.length; r++) {
+			long seed = r;
+			readers[r] = new Thread(() -> {
+				Random random = new Random(seed);
+				while(System.currentTimeMillis() < end) {
+					try(MapSnapshot snapshot = graph.acquire()) {
+						GeographicPoint start = snapshot.getLocation(random.nextInt(n));
+						GeographicPoint goal = snapshot.getLocation(random.nextInt(snapshot.getNumVertices()));
+						List<GeographicPoint> path = snapshot.dijkstra(start, goal);
+						// Every intersection on the path must exist in the version it was found in.
+						if(path != null) {
+							for(GeographicPoint p: path) if(snapshot.getIndex(p) == -1) errors.incrementAndGet();
+						}
+						queries.incrementAndGet();
+					}
+					catch(RuntimeException e) {
+						errors.incrementAndGet();
+					}
+				}
+			});
+			readers[r].start();
+		}
+
+		// The writer adds a new intersection joined both ways to a random existing one.
+		Random random = new Random(99);
+		long edits = 0;
+		while(System.currentTimeMillis() < end) {
+			MapDelta delta = new MapDelta();
+			for(int i=0; i < 10; i++) {
+				int v;
+				GeographicPoint existing;
+				try(MapSnapshot snapshot = graph.acquire()) {
+					v = random.nextInt(snapshot.getNumVertices());
+					existing = snapshot.getLocation(v);
+				}
+				GeographicPoint added = new GeographicPoint(existing.getX() + 1e-4 * (random.nextDouble() + 0.1),
+															existing.getY() + 1e-4 * random.nextDouble());
+				if(!delta.addVertex(added)) continue;
+				delta.addEdge(existing, added, "New Street", "residential", existing.distance(added));
+				delta.addEdge(added, existing, "New Street", "residential", existing.distance(added));
+			}
+			graph.publish(delta);
+			edits++;
+		}
+		for(Thread reader: readers) reader.join();
+
+		try(MapSnapshot last = graph.acquire()) {
+			System.out.println(edits + " deltas published; now " + last);
+		}
+		System.out.println(queries.get() + " queries on 3 threads, " + errors.get() + " errors; "
+						   + graph.getReleasedVersions() + " old versions released.");
+	}
+}
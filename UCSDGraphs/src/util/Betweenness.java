@@ -0,0 +1,360 @@
+package util;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import basicgraph.Graph;
+import basicgraph.GraphAdjList;
+import roadgraph.FrozenMapGraph;
+import roadgraph.MapGraph;
+
+/**
+ * Betweenness.java
+ *
+ * @author Karen Blakemore
+ *
+ * Betweenness centrality by Brandes' algorithm (2001): the betweenness of v is the sum, over
+ * ordered pairs of other vertices s != t, of the fraction of shortest paths from s to t that
+ * pass through v.  On a basicgraph.Graph every edge has length 1 and each source is searched
+ * breadth first; on a road map the edges have their lengths and each source is searched with
+ * Dijkstra's algorithm on an IndexedMinHeap.  Parallel edges give separate shortest paths.
+ *
+ * One search per source counts the shortest paths from s to every vertex (sigma), then adds
+ * the dependency of s on each vertex in reverse order of distance.  The sources are split into
+ * a few chunks per thread of a fork-join pool; each chunk has its own search arrays and adds
+ * into its own centrality array, and the arrays are summed in chunk order, so the searches
+ * share nothing and the pool's threads keep nothing afterwards.  (The sums may differ in the
+ * last bits between pools of different sizes, as the sources are then added in other orders.)
+ *
+ * approximate() searches from a random sample of k sources and scales up by n/k (Brandes and
+ * Pich, 2007).  Each sampled source contributes between 0 and n-2 to a vertex, so by
+ * Hoeffding's inequality and a union bound every estimate is within errorBound(k, delta) of
+ * the exact value with probability at least 1 - delta; samplesFor() inverts this.
+ */
+public class Betweenness {
+	private final int n;
+	private final int[] start;		// out-edges of v are start[v] .. start[v+1]-1
+	private final int[] target;
+	private final double[] length;	// edge lengths, or null if every edge has length 1
+	private final ForkJoinPool pool;
+
+	/**
+	 * Prepare to find betweenness in a graph, counting edges on paths.
+	 * Later changes to the graph are not seen.
+	 * @param graph - the graph.
+	 * @param pool - pool that runs the searches.
+	 */
+	public Betweenness(Graph graph, ForkJoinPool pool) {
+		n = graph.getNumVertices();
+		start = new int[n + 1];
+		target = graph.getOutEdges(start);
+		length = null;
+		this.pool = pool;
+	}
+
+	/**
+	 * Prepare to find betweenness in a road map, by road length.
+	 * @param map - the road map.
+	 * @param pool - pool that runs the searches.
+	 */
+	public Betweenness(MapGraph map, ForkJoinPool pool) {
+		this(map.freeze(), pool);
+	}
+
+	/**
+	 * Prepare to find betweenness in a road map snapshot, by road length.
+	 * @param graph - the road map snapshot.
+	 * @param pool - pool that runs the searches.
+	 */
+	public Betweenness(FrozenMapGraph graph, ForkJoinPool pool) {
+		n = graph.getNumVertices();
+		start = new int[n + 1];
+		target = new int[graph.getNumEdges()];
+		length = new double[graph.getNumEdges()];
+		for(int v=0; v < n; v++) {
+			start[v + 1] = graph.edgeEnd(v);
+			for(int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+				target[e] = graph.edgeTarget(e);
+				length[e] = graph.edgeLength(e);
+			}
+		}
+		this.pool = pool;
+	}
+
+	/** Return the number of vertices */
+	public int getNumVertices() {
+		return n;
+	}
+
+	/** Return the exact betweenness of every vertex, searching from every vertex */
+	public double[] exact() {
+		int[] sources = new int[n];
+		for(int s=0; s < n; s++) sources[s] = s;
+		return accumulate(sources, 1);
+	}
+
+	/**
+	 * Return estimates of the betweenness of every vertex from a random sample of sources,
+	 * chosen with replacement.
+	 * @param samples - number of sources to search from.
+	 * @param seed - seed for choosing the sources.
+	 */
+	public double[] approximate(int samples, long seed) {
+		if(samples <= 0) throw new IllegalArgumentException("At least one sample is needed");
+		Random random = new Random(seed);
+		int[] sources = new int[samples];
+		for(int i=0; i < samples; i++) sources[i] = random.nextInt(n);
+		return accumulate(sources, (double) n / samples);
+	}
+
+	/**
+	 * Return a bound on the error of approximate(samples, ...): with probability at least
+	 * 1 - delta, every vertex's estimate is within this of its exact betweenness.
+	 * @param samples - number of sources searched.
+	 * @param delta - allowed chance of a larger error, from 0 to 1.
+	 */
+	public double errorBound(int samples, double delta) {
+		return (double) n * Math.max(n - 2, 0) * Math.sqrt(Math.log(2 * n / delta) / (2.0 * samples));
+	}
+
+	/**
+	 * Return the number of samples needed for errorBound to be at most epsilon * n * (n-2),
+	 * that is, for an error of epsilon in betweenness normalized by its largest possible value.
+	 * @param epsilon - allowed normalized error.
+	 * @param delta - allowed chance of a larger error, from 0 to 1.
+	 */
+	public int samplesFor(double epsilon, double delta) {
+		return (int) Math.ceil(Math.log(2 * n / delta) / (2 * epsilon * epsilon));
+	}
+
+	// Search from every source in parallel, in chunks of consecutive sources, each chunk adding
+	// scale times the dependencies into its own array; return the sum of the chunks' arrays.
+	private double[] accumulate(int[] sources, double scale) {
+		int chunks = Math.min(sources.length, 2 * pool.getParallelism());
+		double[][] parts = new double[chunks][];
+		try {
+			pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+				Worker worker = new Worker();
+				int end = (int)((long)sources.length * (c + 1) / chunks);
+				for(int i = (int)((long)sources.length * c / chunks); i < end; i++) worker.search(sources[i], scale);
+				parts[c] = worker.centrality;
+			})).get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Betweenness interrupted", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Betweenness failed", e.getCause());
+		}
+		double[] centrality = new double[n];
+		for(double[] part : parts) {
+			for(int v=0; v < n; v++) centrality[v] += part[v];
+		}
+		return centrality;
+	}
+
+	// The arrays of one chunk's searches, and its share of the centrality.
+	private class Worker {
+		final double[] centrality = new double[n];
+		final double[] dist = new double[n];
+		final double[] sigma = new double[n];		// number of shortest paths from the source
+		final double[] dependency = new double[n];
+		final int[] order = new int[n];				// vertices in the order they were settled
+		final int[] rank;							// vertex -> its place in order, or -1
+		final IndexedMinHeap heap;
+
+		Worker() {
+			rank = new int[n];
+			Arrays.fill(rank, -1);
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			heap = length == null ? null : new IndexedMinHeap(n);
+		}
+
+		void search(int s, double scale) {
+			int settled = length == null ? breadthFirst(s) : dijkstra(s);
+
+			// Add dependencies in reverse order; w follows v on a shortest path if it was
+			// settled later at exactly the distance through v.
+			for(int i = settled - 1; i >= 0; i--) {
+				int v = order[i];
+				double sum = 0;
+				for(int e = start[v]; e < start[v + 1]; e++) {
+					int w = target[e];
+					if(rank[w] > i && dist[w] == dist[v] + (length == null ? 1 : length[e])) {
+						sum += sigma[v] / sigma[w] * (1 + dependency[w]);
+					}
+				}
+				dependency[v] = sum;
+				if(v != s) centrality[v] += scale * sum;
+			}
+			for(int i=0; i < settled; i++) {
+				int v = order[i];
+				dist[v] = Double.POSITIVE_INFINITY;
+				sigma[v] = 0;
+				dependency[v] = 0;
+				rank[v] = -1;
+			}
+		}
+
+		// Count shortest paths from s breadth first; order doubles as the queue.
+		// Return the number of vertices reached.
+		private int breadthFirst(int s) {
+			dist[s] = 0;
+			sigma[s] = 1;
+			rank[s] = 0;
+			order[0] = s;
+			int head = 0, tail = 1;
+			while(head < tail) {
+				int v = order[head++];
+				for(int e = start[v]; e < start[v + 1]; e++) {
+					int w = target[e];
+					if(rank[w] == -1) {
+						dist[w] = dist[v] + 1;
+						rank[w] = tail;
+						order[tail++] = w;
+					}
+					if(dist[w] == dist[v] + 1) sigma[w] += sigma[v];
+				}
+			}
+			return tail;
+		}
+
+		// Count shortest paths from s with Dijkstra's algorithm.  A vertex's count is final
+		// when it is settled, and only then passed on.  Return the number settled.
+		private int dijkstra(int s) {
+			int settled = 0;
+			dist[s] = 0;
+			sigma[s] = 1;
+			heap.insertOrDecrease(s, 0);
+			while(!heap.isEmpty()) {
+				int v = heap.removeMin();
+				rank[v] = settled;
+				order[settled++] = v;
+				for(int e = start[v]; e < start[v + 1]; e++) {
+					int w = target[e];
+					if(rank[w] != -1) continue;
+					double d = dist[v] + length[e];
+					if(d < dist[w]) {
+						dist[w] = d;
+						sigma[w] = sigma[v];
+						heap.insertOrDecrease(w, d);
+					}
+					else if(d == dist[w]) {
+						sigma[w] += sigma[v];
+					}
+				}
+			}
+			return settled;
+		}
+	}
+
+	// Betweenness from all pairs of distances and path counts, found by separate searches
+	// with a PriorityQueue: O(n^3), for checking small graphs.
+	private double[] allPairs() {
+		double[][] dist = new double[n][n];
+		double[][] sigma = new double[n][n];
+		for(int s=0; s < n; s++) {
+			Arrays.fill(dist[s], Double.POSITIVE_INFINITY);
+			dist[s][s] = 0;
+			sigma[s][s] = 1;
+			boolean[] done = new boolean[n];
+			PriorityQueue<double[]> queue = new PriorityQueue<double[]>((a, b) -> Double.compare(a[0], b[0]));
+			queue.add(new double[] {0, s});
+			while(!queue.isEmpty()) {
+				int v = (int) queue.poll()[1];
+				if(done[v]) continue;
+				done[v] = true;
+				for(int e = start[v]; e < start[v + 1]; e++) {
+					int w = target[e];
+					double d = dist[s][v] + (length == null ? 1 : length[e]);
+					if(d < dist[s][w] - 1e-9) {
+						dist[s][w] = d;
+						sigma[s][w] = sigma[s][v];
+						queue.add(new double[] {d, w});
+					}
+					else if(Math.abs(d - dist[s][w]) <= 1e-9 && !done[w]) {
+						sigma[s][w] += sigma[s][v];
+					}
+				}
+			}
+		}
+		double[] centrality = new double[n];
+		for(int s=0; s < n; s++) {
+			for(int t=0; t < n; t++) {
+				if(s == t || sigma[s][t] == 0) continue;
+				for(int v=0; v < n; v++) {
+					if(v != s && v != t && Math.abs(dist[s][v] + dist[v][t] - dist[s][t]) <= 1e-9) {
+						centrality[v] += sigma[s][v] * sigma[v][t] / sigma[s][t];
+					}
+				}
+			}
+		}
+		return centrality;
+	}
+
+	private static double largestDifference(double[] a, double[] b) {
+		double largest = 0;
+		for(int v=0; v < a.length; v++) largest = Math.max(largest, Math.abs(a[v] - b[v]));
+		return largest;
+	}
+
+	// Check exact() against allPairs() on small graphs, then time exact() and compare approximate() with it.
+	private static void report(String name, Betweenness betweenness, int[] sampleCounts) {
+		int n = betweenness.getNumVertices();
+		System.out.println(name + ": " + n + " vertices, " + betweenness.target.length + " edges, "
+						   + betweenness.pool.getParallelism() + " threads");
+		double[] exact = betweenness.exact();
+		long t0 = System.nanoTime();
+		exact = betweenness.exact();
+		long t1 = System.nanoTime();
+		System.out.printf("\texact %.1f ms", (t1 - t0) / 1e6);
+		if(n <= 1000) {
+			double largest = largestDifference(exact, betweenness.allPairs());
+			System.out.printf(", largest difference from all pairs %.2e", largest);
+		}
+		double top = 0;
+		for(double c : exact) top = Math.max(top, c);
+		System.out.printf(", largest betweenness %.0f%n", top);
+		for(int samples : sampleCounts) {
+			t0 = System.nanoTime();
+			double[] estimate = betweenness.approximate(samples, samples);
+			t1 = System.nanoTime();
+			System.out.printf("\t%5d samples %7.1f ms: largest error %10.0f, bound (delta 0.1) %10.0f%n", samples,
+							  (t1 - t0) / 1e6, largestDifference(exact, estimate), betweenness.errorBound(samples, 0.1));
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		GraphAdjList united = new GraphAdjList();
+		GraphLoader.loadRoutes("data/airports/routesUA.dat", united);
+		report("data/airports/routesUA.dat", new Betweenness(united, pool), new int[] {50});
+
+		GraphAdjList routes = new GraphAdjList();
+		GraphLoader.loadRoutes("../UCSDUnfoldingMaps/data/routes.dat", routes);
+		Betweenness airports = new Betweenness(routes, pool);
+		report("../UCSDUnfoldingMaps/data/routes.dat", airports, new int[] {100, 1000});
+		double[] exact = airports.exact();
+		Integer[] byCentrality = new Integer[exact.length];
+		for(int v=0; v < exact.length; v++) byCentrality[v] = v;
+		Arrays.sort(byCentrality, (a, b) -> Double.compare(exact[b], exact[a]));
+		StringBuilder line = new StringBuilder("\tMost between:");
+		for(int i=0; i < 8; i++) line.append(" " + routes.getLabel(byCentrality[i]));
+		System.out.println(line);
+
+		for(String file : new String[] {"data/maps/san_diego.map", "data/maps/hollywood_large.map"}) {
+			System.out.print("Making a new map...");
+			MapGraph theMap = new MapGraph();
+			System.out.print("DONE. \nLoading the map...");
+			GraphLoader.loadRoadMap(file, theMap);
+			System.out.println("DONE.");
+			report(file, new Betweenness(theMap, pool), new int[] {100, 1000});
+		}
+	}
+}
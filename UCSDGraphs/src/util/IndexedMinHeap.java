@@ -0,0 +1,133 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * IndexedMinHeap.java
+ *
+ * @author Karen Blakemore
+ *
+ * A binary min-heap over the integer keys 0 .. capacity-1, ordered by a double priority.
+ * Unlike java.util.PriorityQueue, a key is stored at most once and its priority can be
+ * lowered in place, so searches do not need to queue a node more than once and do not
+ * allocate per queued node.  The heap can be cleared and reused for another search in
+ * time proportional to the number of keys still queued.
+ */
+public class IndexedMinHeap {
+	private int[] heap;			// heap position -> key
+	private int[] position;		// key -> heap position, or -1 if the key is not queued
+	private double[] priority;	// key -> current priority
+	private int size;
+
+	/**
+	 * Create an empty heap for keys 0 .. capacity-1
+	 * @param capacity - number of distinct keys.
+	 */
+	public IndexedMinHeap(int capacity) {
+		heap = new int[capacity];
+		position = new int[capacity];
+		priority = new double[capacity];
+		Arrays.fill(position, -1);
+		size = 0;
+	}
+
+	/** Return true if no keys are queued */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Return the number of queued keys */
+	public int size() {
+		return size;
+	}
+
+	/** Return true if key is currently queued */
+	public boolean contains(int key) {
+		return position[key] != -1;
+	}
+
+	/** Return the priority of a queued key */
+	public double getPriority(int key) {
+		return priority[key];
+	}
+
+	/** Return the smallest priority in the heap.  The heap must not be empty. */
+	public double peekPriority() {
+		return priority[heap[0]];
+	}
+
+	/**
+	 * Queue key with priority p, or lower its priority to p if it is already queued.
+	 * @return true if the heap changed, false if key was queued with a priority <= p.
+	 */
+	public boolean insertOrDecrease(int key, double p) {
+		int pos = position[key];
+		if(pos == -1) {
+			pos = size++;
+			heap[pos] = key;
+			position[key] = pos;
+		}
+		else if(p >= priority[key]) {
+			return false;
+		}
+		priority[key] = p;
+		siftUp(pos);
+		return true;
+	}
+
+	/**
+	 * Remove and return the key with the smallest priority.  The heap must not be empty.
+	 * @return the removed key.
+	 */
+	public int removeMin() {
+		int min = heap[0];
+		position[min] = -1;
+		size--;
+		if(size > 0) {
+			int last = heap[size];
+			heap[0] = last;
+			position[last] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	/** Remove all keys, so the heap can be reused for another search. */
+	public void clear() {
+		for(int i=0; i < size; i++) position[heap[i]] = -1;
+		size = 0;
+	}
+
+	private void siftUp(int pos) {
+		int key = heap[pos];
+		double p = priority[key];
+		while(pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			int parentKey = heap[parentPos];
+			if(priority[parentKey] <= p) break;
+			heap[pos] = parentKey;
+			position[parentKey] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = key;
+		position[key] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int key = heap[pos];
+		double p = priority[key];
+		int half = size >>> 1;
+		while(pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if(right < size && priority[heap[right]] < priority[heap[child]]) child = right;
+			int childKey = heap[child];
+			if(p <= priority[childKey]) break;
+			heap[pos] = childKey;
+			position[childKey] = pos;
+			pos = child;
+		}
+		heap[pos] = key;
+		position[key] = pos;
+	}
+}